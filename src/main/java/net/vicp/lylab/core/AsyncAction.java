@@ -0,0 +1,52 @@
+package net.vicp.lylab.core;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Action waits something else (database, another server) without holding a
+ * thread. Override execAsync() to start your service and return a future,
+ * fill response before that future completes.<br>
+ * An {@link net.vicp.lylab.core.interfaces.AsyncDispatcher} sends response
+ * when the future completes, other dispatchers wait it in exec().
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.20
+ * @version 1.0.0
+ */
+public abstract class AsyncAction extends BaseAction {
+
+	/**
+	 * Start service
+	 * @return
+	 * future completes once response is ready, completes exceptionally if
+	 * service failed
+	 */
+	public abstract CompletableFuture<?> execAsync();
+
+	/**
+	 * Check parameters then start service
+	 * @return
+	 * future completes once response is ready
+	 */
+	public CompletableFuture<?> doActionAsync() {
+		if (!checkParameter())
+			return CompletableFuture.completedFuture(null);
+		CompletableFuture<?> future = execAsync();
+		if (future == null)
+			return CompletableFuture.completedFuture(null);
+		return future;
+	}
+
+	/**
+	 * Blocking fallback for synchronous dispatchers
+	 */
+	@Override
+	public void exec() {
+		CompletableFuture<?> future = execAsync();
+		if (future != null)
+			future.join();
+	}
+
+}
@@ -14,13 +14,23 @@ public abstract class BaseAction extends AbstractAction {
 	public abstract boolean foundBadParameter();
 
 	public void doAction() {
+		if (!checkParameter())
+			return;
+		exec();
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if parameters are fine, otherwise response is set to bad parameter
+	 */
+	protected boolean checkParameter() {
 		if (foundBadParameter()) {
 			getResponse().setCode(0x00000008);
 			if(!badParameter.equals("#NULL"))
 				getResponse().setMessage("Missing or bad parameter:" + badParameter);
-			return;
+			return false;
 		}
-		exec();
+		return true;
 	}
 
 	@Override
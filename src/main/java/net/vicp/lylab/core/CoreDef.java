@@ -23,6 +23,8 @@ public class CoreDef extends NonCloneableBaseObject {
 
 	public static Config config = new Config();
 	public static Object[] dock = new Object[16];
+	// log time spent on each config line and singleton, -Dlylab.startupTrace=true
+	public static boolean startupTrace = Boolean.getBoolean("lylab.startupTrace");
 
 	public static final OSInfo OperationSystem = new OSInfo();
 	protected static String _charset = "UTF-8";
@@ -121,6 +123,11 @@ public class CoreDef extends NonCloneableBaseObject {
 
 	public static final long ONE_TIME_TASK = ZERO;
 
+	public static final int DEFAULT_TRANSFER_HIGH_WATERMARK = THOUSAND;
+	public static final int DEFAULT_TRANSFER_LOW_WATERMARK = FIVE * HUNDRED;
+	public static final int DEFAULT_TRANSFER_MAX_PENDING = TWO * THOUSAND;
+	public static final long DEFAULT_ADMISSION_TIMEOUT = WAITING;
+
 	public static final long DEFAULT_TASK_TTIMEOUT = TEN * MINUTE; // 10 minutes
 
 	public static final int MAX_TASK_QUEUE_SIZE = 100000;
@@ -129,11 +136,42 @@ public class CoreDef extends NonCloneableBaseObject {
 	public static final long DEFAULT_CONTAINER_TIMEOUT = 2 * MINUTE; // 2 min
 	public static final int DEFAULT_CONTAINER_MAX_SIZE = 2 * HUNDRED;
 	public static final int MASSIVE_CONTAINER_MAX_SIZE = Integer.MAX_VALUE;
+	public static final int DEFAULT_CONTAINER_MIN_IDLE = TWO;
+	public static final long DEFAULT_CONTAINER_ACCESS_TIMEOUT = TEN * SECOND;
+	public static final long DEFAULT_HEALTH_CHECK_TIMEOUT = TEN * SECOND;
+	public static final int DEFAULT_HEALTH_CHECK_THREADS = FOUR;
 
 	public static final int DEFAULT_PERMANENT_MAX_SIZE = HUNDRED * THOUSAND;
 	public static final int DEFAULT_PERMANENT_TICK = SIX * TEN;
 	public static final long DEFAULT_TERMINATE_TIMEOUT = TWO * MINUTE;
 	public static final long DEFAULT_TIMTOUT_CONTROLLER_INTERVAL = MINUTE / TWO;
+	public static final int DEFAULT_TIMEOUT_CONTROLLER_WORKERS = FOUR;
+	public static final int DEFAULT_TIMER_THREADS = FOUR;
+
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = SIXTEEN * FOUR * KB;
+	public static final int DEFAULT_DISK_STORAGE_QUEUE_SIZE = HUNDRED * THOUSAND;
+	public static final int DEFAULT_DISK_STORAGE_BATCH_SIZE = THOUSAND;
+	public static final int DEFAULT_READ_CHUNK_SIZE = FOUR * MB;
+	public static final int DEFAULT_READ_BATCH_SIZE = THOUSAND;
+	public static final int DEFAULT_SEGMENT_BLOCK_SIZE = SIXTEEN * FOUR * KB;
+	public static final long DEFAULT_JOURNAL_SEGMENT_SIZE = SIXTEEN * FOUR * MB;
+	public static final int DEFAULT_JOURNAL_COMPACT_RATIO = FOUR;
+	public static final int DEFAULT_DISPATCHER_NEGATIVE_CACHE_SIZE = TEN * THOUSAND;
+	public static final int DEFAULT_FILTER_CHAIN_CACHE_SIZE = TEN * THOUSAND;
+	public static final long DEFAULT_ASYNC_ACTION_TIMEOUT = MINUTE;
+	public static final long DEFAULT_RPC_CALL_TIMEOUT = TEN * SECOND;
+	public static final long DEFAULT_RPC_HEDGE_DELAY = HUNDRED * MILLISECOND;
+	public static final long DEFAULT_RPC_MIN_HEDGE_DELAY = DEFAULT_RPC_HEDGE_DELAY / FOUR;
+	public static final int DEFAULT_RPC_LATENCY_WINDOW = 2 * HUNDRED;
+	public static final long DEFAULT_RPC_EJECT_TIME = SIX * FIVE * SECOND;
+	public static final int DEFAULT_RPC_EJECT_ERROR_PERCENT = FIVE * TEN;
+	public static final long DEFAULT_RPC_SERVER_LIST_INTERVAL = MINUTE;
+	public static final long DEFAULT_CONFIG_RELOAD_DELAY = FIVE * HUNDRED * MILLISECOND;
+	public static final int DEFAULT_SINGLETON_INIT_THREADS = EIGHT;
+	public static final int DEFAULT_MONGO_BULK_SIZE = THOUSAND;
+	public static final long DEFAULT_MONGO_BULK_LINGER = TEN * MILLISECOND;
+	public static final int DEFAULT_MONGO_BULK_IN_FLIGHT = FOUR;
+	public static final int DEFAULT_MONGO_BULK_MAX_PENDING = HUNDRED * THOUSAND;
 
 	public static final long DEFAULT_PERMANENT_INTERVAL = SIX * TEN * SIX * TEN; // 60
 																					// times
@@ -1,16 +1,46 @@
 package net.vicp.lylab.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.Dependent;
 import net.vicp.lylab.core.interfaces.Initializable;
 import net.vicp.lylab.core.interfaces.LifeCycle;
+import net.vicp.lylab.utils.Config;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.atomic.AtomicBoolean;
+import net.vicp.lylab.utils.atomic.AtomicInteger;
 
 /**
  * Initializer is used to initial LifeCycle registered with config
+ * <br><br>
+ * Singletons are initialized one by one in config order, and closed the
+ * other way round. A timeline is logged when all are started.
+ * <br><br>
+ * With "ParallelSingleton=true" in config, a singleton is initialized once
+ * all it declares to depend on are, see {@link Dependent}, independent ones
+ * are initialized at the same time by at most DEFAULT_SINGLETON_INIT_THREADS
+ * threads. A singleton is closed once all depend on it are closed.
+ * <br><br>
+ * Keys listed in "LazySingleton" array of config are made on first
+ * {@link #get(String)} instead, so optional integrations(Mongo, Mail, Excel...)
+ * cost nothing until used. {@link #loadAll()} makes them at once, see
+ * {@link StartupTraining}.
  * @author Young
  *
  */
@@ -18,6 +48,17 @@ public final class Singleton extends NonCloneableBaseObject implements LifeCycle
 	private static Map<String, Object> singletonManager;
 	private static AtomicBoolean inited = new AtomicBoolean(false);
 	private static Singleton instance = null;
+	private static boolean parallel = false;
+	// key to keys it depends on, in config order
+	private static Map<String, Set<String>> dependencies = new LinkedHashMap<String, Set<String>>();
+	// keys in the order they were initialized, lazy ones included
+	private static List<String> started = new CopyOnWriteArrayList<String>();
+	private static Set<String> keys = Collections.emptySet();
+	private static Set<String> lazyKeys = Collections.emptySet();
+	// lazy key being made to the thread making it
+	private static final Map<String, Thread> loading = new HashMap<String, Thread>();
+	// thread to the lazy key it waits for another thread to make
+	private static final Map<Thread, String> waiting = new HashMap<Thread, String>();
 
 	private Singleton() {
 		initialize();
@@ -28,15 +69,52 @@ public final class Singleton extends NonCloneableBaseObject implements LifeCycle
 		if(inited.getAndSet(true) == true)
 			return;
 		log.info("Initializer - Initialization started");
-		List<String> keyList = CoreDef.config.getConfig("Singleton").keyList();
-		singletonManager = new ConcurrentHashMap<String, Object>(keyList.size());
-		Object tmp;
-		for (String key : keyList) {
+		final Config config = CoreDef.config.getConfig("Singleton");
+		keys = new LinkedHashSet<String>(config.keyList());
+		lazyKeys = new HashSet<String>();
+		if (CoreDef.config.containsKey("LazySingleton"))
+			for (Object key : CoreDef.config.getList("LazySingleton"))
+				lazyKeys.add(key.toString());
+		parallel = CoreDef.config.containsKey("ParallelSingleton") && CoreDef.config.getBoolean("ParallelSingleton");
+		singletonManager = new ConcurrentHashMap<String, Object>(keys.size());
+		started = new CopyOnWriteArrayList<String>();
+		final Map<String, Object> created = new HashMap<String, Object>();
+		Map<String, Set<String>> dependsOn = new LinkedHashMap<String, Set<String>>();
+		List<String> todo = new ArrayList<String>(keys);
+		while (!todo.isEmpty()) {
+			String key = todo.remove(0);
+			if (dependsOn.containsKey(key))
+				continue;
 			try {
-				tmp = CoreDef.config.getConfig("Singleton").getObject(key);
-				singletonManager.put(key, tmp);
+				Object tmp = config.getObject(key);
 				if (tmp.getClass() == String.class) {
-					tmp = CoreDef.config.getConfig("Singleton").getNewInstance(key);
+					if (lazyKeys.contains(key))
+						continue;
+					tmp = config.getNewInstance(key);
+					created.put(key, tmp);
+				} else
+					// made by config is initialized already
+					singletonManager.put(key, tmp);
+				Set<String> set = dependenciesOf(config, key, tmp);
+				dependsOn.put(key, set);
+				// a lazy one depended on by others is made along with them
+				if (parallel)
+					for (String other : set)
+						if (lazyKeys.remove(other))
+							todo.add(0, other);
+			} catch (Exception e) {
+				log.error(Utils.getStringFromException(e));
+			}
+		}
+		// failed ones are not waited for
+		for (Set<String> set : dependsOn.values())
+			set.retainAll(dependsOn.keySet());
+		dependencies = Collections.synchronizedMap(dependsOn);
+		Step step = new Step() {
+			@Override
+			public void run(String key) {
+				Object tmp = created.get(key);
+				if (tmp != null) {
 					if (tmp instanceof Initializable) {
 						try {
 							((Initializable) tmp).initialize();
@@ -45,34 +123,289 @@ public final class Singleton extends NonCloneableBaseObject implements LifeCycle
 							log.error(Utils.getStringFromThrowable(t));
 						}
 					}
+					singletonManager.put(key, tmp);
+				}
+				started.add(key);
+			}
+		};
+		if (parallel)
+			runParallel("Initialization", dependencies, step);
+		else {
+			List<String> order = new ArrayList<String>();
+			for (String key : keys)
+				if (dependsOn.containsKey(key))
+					order.add(key);
+			runInOrder("Initialization", order, step);
+		}
+	}
+
+	/**
+	 * @return
+	 * keys of other singletons obj declares to depend on
+	 */
+	private static Set<String> dependenciesOf(Config config, String key, Object obj) {
+		Set<String> dependsOn = new LinkedHashSet<String>();
+		if (obj instanceof Dependent && ((Dependent) obj).dependsOn() != null)
+			Collections.addAll(dependsOn, ((Dependent) obj).dependsOn());
+		for (String other : new ArrayList<String>(dependsOn))
+			if (!keys.contains(other) || other.equals(key)) {
+				dependsOn.remove(other);
+				if (!config.containsKey(other))
+					log.error("Singleton[" + key + "] depends on unknown singleton[" + other + "], ignored");
+			}
+		return dependsOn;
+	}
+
+	/**
+	 * Make a lazy singleton and those it depends on. No lock is held while
+	 * it's made, others asking for it wait till it's done
+	 */
+	private static Object load(String key) {
+		Thread current = Thread.currentThread();
+		synchronized (loading) {
+			while (true) {
+				Object tmp = singletonManager.get(key);
+				if (tmp != null)
+					return tmp;
+				Thread maker = loading.get(key);
+				if (maker == null)
+					break;
+				// a circle if maker waits, maybe through others, for what this thread is making
+				for (Thread t = maker; t != null; t = loading.get(waiting.get(t)))
+					if (t == current)
+						throw new LYException("Circular dependency on lazy singleton[" + key + "]");
+				waiting.put(current, key);
+				try {
+					loading.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new LYException("Interrupted while waiting for lazy singleton[" + key + "]");
+				} finally {
+					waiting.remove(current);
 				}
-				singletonManager.put(key, tmp);
-			} catch (Exception e) {
-				log.error(Utils.getStringFromException(e));
 			}
+			loading.put(key, current);
 		}
+		long start = System.nanoTime();
+		Object tmp;
+		try {
+			Config config = CoreDef.config.getConfig("Singleton");
+			tmp = config.getNewInstance(key);
+			Set<String> dependsOn = dependenciesOf(config, key, tmp);
+			for (String other : dependsOn)
+				get(other);
+			if (tmp instanceof Initializable) {
+				try {
+					((Initializable) tmp).initialize();
+					log.info(tmp.getClass().getSimpleName() + " - Started");
+				} catch (Throwable t) {
+					log.error(Utils.getStringFromThrowable(t));
+				}
+			}
+			dependencies.put(key, dependsOn);
+			started.add(key);
+			singletonManager.put(key, tmp);
+		} finally {
+			synchronized (loading) {
+				loading.remove(key);
+				loading.notifyAll();
+			}
+		}
+		log.info("Initializer - " + key + " made on first use in " + (System.nanoTime() - start) / 1000000L + " ms");
+		return tmp;
+	}
+
+	/**
+	 * Make all lazy singletons now
+	 */
+	public static void loadAll() {
+		for (String key : lazyKeys)
+			if (keys.contains(key))
+				get(key);
 	}
 
 	@Override
 	public void close() {
 		inited.set(false);
 		log.info("Initializer - Termination started");
-		Object obj;
-		for (String key : singletonManager.keySet()) {
-			obj = singletonManager.get(key);
-			if (obj instanceof AutoCloseable) {
-				try {
-					((AutoCloseable) obj).close();
-					log.info(obj.getClass().getSimpleName() + " - Closed");
-				} catch (Exception e) {
-					log.info(obj.getClass().getSimpleName() + " - Close failed:" + Utils.getStringFromException(e));
+		Step step = new Step() {
+			@Override
+			public void run(String key) {
+				Object obj = singletonManager.get(key);
+				if (obj instanceof AutoCloseable) {
+					try {
+						((AutoCloseable) obj).close();
+						log.info(obj.getClass().getSimpleName() + " - Closed");
+					} catch (Exception e) {
+						log.info(obj.getClass().getSimpleName() + " - Close failed:" + Utils.getStringFromException(e));
+					}
 				}
 			}
+		};
+		if (!parallel) {
+			List<String> order = new ArrayList<String>(started);
+			Collections.reverse(order);
+			runInOrder("Termination", order, step);
+			return;
+		}
+		// reversed, wait for those depend on it
+		Map<String, Set<String>> dependents = new LinkedHashMap<String, Set<String>>();
+		for (String key : singletonManager.keySet())
+			dependents.put(key, new LinkedHashSet<String>());
+		synchronized (dependencies) {
+			for (Map.Entry<String, Set<String>> e : dependencies.entrySet())
+				for (String dependency : e.getValue())
+					if (dependents.containsKey(dependency) && dependents.containsKey(e.getKey()))
+						dependents.get(dependency).add(e.getKey());
+		}
+		runParallel("Termination", dependents, step);
+	}
+
+	private interface Step {
+		public void run(String key);
+	}
+
+	/**
+	 * Run step on every key one by one, in given order
+	 * @param phase
+	 * @param order
+	 * @param step
+	 */
+	private void runInOrder(String phase, List<String> order, Step step) {
+		long begin = System.nanoTime();
+		Map<String, long[]> timeline = new HashMap<String, long[]>();
+		for (String key : order) {
+			long start = System.nanoTime();
+			try {
+				step.run(key);
+			} catch (Throwable t) {
+				log.error(Utils.getStringFromThrowable(t));
+			}
+			timeline.put(key, new long[] { start - begin, System.nanoTime() - begin });
+		}
+		log.info(report(phase, timeline, System.nanoTime() - begin));
+	}
+
+	/**
+	 * Run step on every key, each after all keys it waits for are done
+	 * @param phase
+	 * @param waitFor key to keys must be done before it
+	 * @param step
+	 */
+	private void runParallel(String phase, Map<String, Set<String>> waitFor, final Step step) {
+		final long begin = System.nanoTime();
+		final Map<String, long[]> timeline = new ConcurrentHashMap<String, long[]>();
+		final Map<String, List<String>> next = new HashMap<String, List<String>>();
+		final Map<String, AtomicInteger> pending = new HashMap<String, AtomicInteger>();
+		for (String key : waitFor.keySet()) {
+			next.put(key, new ArrayList<String>());
+			pending.put(key, new AtomicInteger(waitFor.get(key).size()));
+		}
+		for (Map.Entry<String, Set<String>> e : waitFor.entrySet())
+			for (String before : e.getValue())
+				next.get(before).add(e.getKey());
+		// keys in a circle never become ready, they are done one by one at last
+		List<String> circle = new ArrayList<String>(waitFor.keySet());
+		List<String> ready = new ArrayList<String>();
+		List<String> order = new ArrayList<String>();
+		Map<String, Integer> left = new HashMap<String, Integer>();
+		for (String key : waitFor.keySet()) {
+			left.put(key, waitFor.get(key).size());
+			if (waitFor.get(key).isEmpty())
+				ready.add(key);
+		}
+		while (!ready.isEmpty()) {
+			String key = ready.remove(0);
+			order.add(key);
+			for (String after : next.get(key))
+				if (left.put(after, left.get(after) - 1) == 1)
+					ready.add(after);
+		}
+		circle.removeAll(order);
+		if (!circle.isEmpty())
+			log.error("Singleton " + phase + " - circular dependency among " + circle + ", they run one by one at last");
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(CoreDef.DEFAULT_SINGLETON_INIT_THREADS, order.size())), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Singleton");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final CountDownLatch done = new CountDownLatch(order.size());
+		final Set<String> acyclic = new LinkedHashSet<String>(order);
+		final Map<String, Runnable> tasks = new HashMap<String, Runnable>();
+		for (final String key : order)
+			tasks.put(key, new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						step.run(key);
+					} catch (Throwable t) {
+						log.error(Utils.getStringFromThrowable(t));
+					} finally {
+						timeline.put(key, new long[] { start - begin, System.nanoTime() - begin });
+						for (String after : next.get(key))
+							if (acyclic.contains(after) && pending.get(after).decrementAndGet() == 0)
+								executor.execute(tasks.get(after));
+						done.countDown();
+					}
+				}
+			});
+		try {
+			for (String key : order)
+				if (waitFor.get(key).isEmpty())
+					executor.execute(tasks.get(key));
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Singleton " + phase + " - interrupted");
+		} finally {
+			executor.shutdown();
+		}
+		for (String key : circle) {
+			long start = System.nanoTime();
+			try {
+				step.run(key);
+			} catch (Throwable t) {
+				log.error(Utils.getStringFromThrowable(t));
+			}
+			timeline.put(key, new long[] { start - begin, System.nanoTime() - begin });
+		}
+		log.info(report(phase, timeline, System.nanoTime() - begin));
+	}
+
+	/**
+	 * @return
+	 * when each singleton started and how long it took, by start time
+	 */
+	private static String report(String phase, final Map<String, long[]> timeline, long total) {
+		List<String> keys = new ArrayList<String>(timeline.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(timeline.get(a)[0], timeline.get(b)[0]);
+			}
+		});
+		long serial = 0L;
+		StringBuilder sb = new StringBuilder();
+		for (String key : keys) {
+			long[] span = timeline.get(key);
+			serial += span[1] - span[0];
+			sb.append("\n\t").append(key).append(" +").append(span[0] / 1000000L).append(" ms, took ")
+					.append((span[1] - span[0]) / 1000000L).append(" ms");
 		}
+		return "Initializer - " + phase + " finished in " + total / 1000000L + " ms (" + serial / 1000000L
+				+ " ms one by one)" + sb.toString();
 	}
 
 	public static Object get(String key) {
-		return singletonManager.get(key);
+		Object obj = singletonManager.get(key);
+		if (obj == null && lazyKeys.contains(key) && keys.contains(key))
+			obj = load(key);
+		return obj;
 	}
 	
 	public synchronized static void createInstance() {
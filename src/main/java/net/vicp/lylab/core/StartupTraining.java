@@ -0,0 +1,41 @@
+package net.vicp.lylab.core;
+
+/**
+ * A training run for Application Class-Data Sharing(AppCDS).<br>
+ * Loads config, makes every singleton(lazy ones included), closes them and
+ * exits, so the JVM sees all classes a real startup would load.
+ * <br><br>
+ * JDK 13 or later:<br>
+ * java -XX:ArchiveClassesAtExit=app.jsa -cp ... net.vicp.lylab.core.StartupTraining config.txt
+ * <br><br>
+ * JDK 10 to 12(or 8u with -XX:+UnlockCommercialFeatures -XX:+UseAppCDS):<br>
+ * java -Xshare:off -XX:DumpLoadedClassList=classes.lst -cp ... net.vicp.lylab.core.StartupTraining config.txt<br>
+ * java -Xshare:dump -XX:SharedClassListFile=classes.lst -XX:SharedArchiveFile=app.jsa -cp ...
+ * <br><br>
+ * Then start with -XX:SharedArchiveFile=app.jsa and the same class path.
+ * Start with -Dlylab.startupTrace=true to see where the rest of time goes.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.26
+ * @version 1.0.0
+ */
+public final class StartupTraining {
+
+	private StartupTraining() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: StartupTraining <config file>");
+			System.exit(1);
+		}
+		CoreDef.config.reload(args[0]);
+		Singleton.createInstance();
+		Singleton.loadAll();
+		Singleton.destroyInstance();
+		System.exit(0);
+	}
+
+}
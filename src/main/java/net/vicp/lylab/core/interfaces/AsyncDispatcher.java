@@ -0,0 +1,28 @@
+package net.vicp.lylab.core.interfaces;
+
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Dispatcher which may answer later, the calling thread is released as soon
+ * as request is handed to action.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.20
+ * @version 1.0.0
+ */
+public interface AsyncDispatcher<I extends Confirm, O extends Confirm> extends Dispatcher<I, O> {
+
+	/**
+	 * do action without waiting it
+	 * @param client
+	 * @param request
+	 * @return
+	 * future of the object you want to reply to client, never completes
+	 * exceptionally
+	 */
+	public CompletableFuture<O> doActionAsync(Socket client, I request);
+
+}
@@ -0,0 +1,21 @@
+package net.vicp.lylab.core.interfaces;
+
+import java.util.List;
+
+/**
+ * Receive items batch by batch, so a reader never holds all of them.<br>
+ * Batches are delivered one by one, in order, by the reading thread.
+ * <br><br>Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.17
+ * @version 1.0.0
+ * 
+ */
+public interface BatchConsumer<T> {
+	/**
+	 * @param batch
+	 * not reused by reader, but won't be kept either
+	 */
+	public void consume(List<T> batch);
+}
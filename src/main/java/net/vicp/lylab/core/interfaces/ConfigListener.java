@@ -0,0 +1,26 @@
+package net.vicp.lylab.core.interfaces;
+
+import java.util.Set;
+
+import net.vicp.lylab.utils.Config;
+
+/**
+ * Be told after a config is reloaded, to tune itself to new values without
+ * being made again. An object made by config(* mark) is told too if it
+ * implements this.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.21
+ * @version 1.0.0
+ */
+public interface ConfigListener {
+
+	/**
+	 * @param config the reloaded config
+	 * @param changedKeys keys added, removed or given another value
+	 */
+	public void configChanged(Config config, Set<String> changedKeys);
+
+}
@@ -0,0 +1,22 @@
+package net.vicp.lylab.core.interfaces;
+
+/**
+ * Tell which singletons must be initialized before this one, and closed
+ * after it, when singletons are started in parallel(ParallelSingleton=true).
+ * Otherwise they are started in config order.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.21
+ * @version 1.0.0
+ */
+public interface Dependent {
+
+	/**
+	 * @return
+	 * keys of singletons this depends on
+	 */
+	public String[] dependsOn();
+
+}
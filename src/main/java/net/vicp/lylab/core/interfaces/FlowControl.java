@@ -0,0 +1,28 @@
+package net.vicp.lylab.core.interfaces;
+
+import net.vicp.lylab.core.model.InetAddr;
+
+/**
+ * Session implements this could stop reading from a specific client for a while,
+ * so a server under pressure would push back its busiest clients.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.05
+ * @version 1.0.0
+ */
+public interface FlowControl {
+	/**
+	 * Stop reading from this client until {@link #resumeRead(InetAddr)}
+	 * @param clientAddr
+	 */
+	public void pauseRead(InetAddr clientAddr);
+
+	/**
+	 * Continue reading from this client
+	 * @param clientAddr
+	 */
+	public void resumeRead(InetAddr clientAddr);
+
+}
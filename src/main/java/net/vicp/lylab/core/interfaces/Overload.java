@@ -0,0 +1,22 @@
+package net.vicp.lylab.core.interfaces;
+
+/**
+ * Dispatcher implements this could answer a request which server has no
+ * capacity to handle, instead of dropping it silently.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.05
+ * @version 1.0.0
+ */
+public interface Overload<I extends Confirm, O extends Confirm> {
+	/**
+	 * @param request
+	 *            the rejected request, may be null if it can't be decoded
+	 * @return
+	 * Object you want to reply to client, tells it server is busy
+	 */
+	public O overload(I request);
+
+}
@@ -0,0 +1,22 @@
+package net.vicp.lylab.core.interfaces;
+
+/**
+ * Mark an action keeps nothing between requests except what its dispatcher
+ * sets(socket, request and response).<br>
+ * Such action is reused by later requests instead of created for each one,
+ * see {@link net.vicp.lylab.server.dispatcher.SimpleKeyDispatcher}. An idle
+ * instance is kept for each request that ran at once, on any thread, so reuse
+ * works for thread-per-request transfers too. Fields set while handling a
+ * request (badParameter e.g.) must be set again by the next one.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.19
+ * @version 1.0.0
+ * 
+ */
+
+public interface Stateless {
+
+}
@@ -12,6 +12,12 @@ public interface Transfer extends Initializable, Recyclable {
 
 	public void putRequest(InetAddr clientAddr, byte[] buffer, int bufferLen);
 
+	/**
+	 * Report a request from this client was answered (or dropped)
+	 * @param clientAddr
+	 */
+	public void requestDone(InetAddr clientAddr);
+
 	public void setSession(Session session);
 
 	// getters & setters
@@ -0,0 +1,104 @@
+package net.vicp.lylab.core.model;
+
+import java.util.Arrays;
+
+import net.vicp.lylab.core.NonCloneableBaseObject;
+
+/**
+ * A tiny histogram of non-negative values, bucketed by power of two.<br>
+ * Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i), percentiles are reported
+ * as upper bound of the bucket they fall in.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.14
+ * @version 1.0.0
+ */
+public class Histogram extends NonCloneableBaseObject {
+	public static final int BUCKETS = 64;
+
+	private final long[] buckets = new long[BUCKETS];
+	private long count = 0L;
+	private long sum = 0L;
+	private long max = 0L;
+
+	public void record(long value) {
+		if (value < 0L)
+			value = 0L;
+		int index = BUCKETS - Long.numberOfLeadingZeros(value);
+		synchronized (lock) {
+			buckets[index]++;
+			count++;
+			sum += value;
+			if (value > max)
+				max = value;
+		}
+	}
+
+	/**
+	 * @param percent between 0 and 100
+	 * @return
+	 * upper bound of the bucket which contains this percentile, 0 if empty
+	 */
+	public long getPercentile(double percent) {
+		synchronized (lock) {
+			if (count == 0L)
+				return 0L;
+			long rank = (long) Math.ceil(count * percent / 100.0);
+			long seen = 0L;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i];
+				if (seen >= rank && buckets[i] > 0)
+					return Math.min(i == 0 ? 0L : (1L << i) - 1, max);
+			}
+			return max;
+		}
+	}
+
+	public long getCount() {
+		synchronized (lock) {
+			return count;
+		}
+	}
+
+	public long getSum() {
+		synchronized (lock) {
+			return sum;
+		}
+	}
+
+	public long getMax() {
+		synchronized (lock) {
+			return max;
+		}
+	}
+
+	public long getMean() {
+		synchronized (lock) {
+			return count == 0L ? 0L : sum / count;
+		}
+	}
+
+	public long[] getBuckets() {
+		synchronized (lock) {
+			return Arrays.copyOf(buckets, BUCKETS);
+		}
+	}
+
+	public void reset() {
+		synchronized (lock) {
+			Arrays.fill(buckets, 0L);
+			count = 0L;
+			sum = 0L;
+			max = 0L;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram [count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(50)
+				+ ", p99=" + getPercentile(99) + ", max=" + getMax() + "]";
+	}
+
+}
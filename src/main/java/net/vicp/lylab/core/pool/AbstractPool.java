@@ -1,6 +1,8 @@
 package net.vicp.lylab.core.pool;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -59,9 +61,14 @@ public abstract class AbstractPool<T extends BaseObject> extends CloneableBaseOb
 		return availableContainer.get(objId);
 	}
 
+	/**
+	 * Remove from available container only, key container is kept balance by caller
+	 * @param objId
+	 * @return
+	 * removed object, null if not found
+	 */
 	protected T removeFromContainer(long objId) {
 		T tmp = availableContainer.remove(objId);
-		keyContainer.remove(objectId);
 		lock.notifyAll();
 		return tmp;
 	}
@@ -93,6 +100,16 @@ public abstract class AbstractPool<T extends BaseObject> extends CloneableBaseOb
 		}
 	}
 	
+	@Override
+	public List<Long> addAll(Collection<? extends T> ts) {
+		List<Long> ids = new ArrayList<Long>(ts.size());
+		synchronized (lock) {
+			for (T t : ts)
+				ids.add(addToContainer(t));
+		}
+		return ids;
+	}
+
 	public Set<Long> availableKeySet() {
 		return availableContainer.keySet();
 	}
@@ -4,17 +4,21 @@ import java.util.Iterator;
 import java.util.List;
 
 import net.vicp.lylab.core.BaseObject;
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.AdditionalOperation;
 import net.vicp.lylab.core.interfaces.Initializable;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.creator.AutoCreator;
+import net.vicp.lylab.utils.tq.LoneWolf;
 
 /**
  * You can access items one by one from an auto-generate pool, if no more the
  * available items<br>
  * and this pool is not full, it will auto generate one for you , do not forget
  * recycle it after using. <br>
+ * After {@link #initialize()}, minIdle items are created eagerly and kept
+ * ready by a background thread. <br>
  * <br>
  * Release Under GNU Lesser General Public License (LGPL).
  * 
@@ -22,9 +26,18 @@ import net.vicp.lylab.utils.creator.AutoCreator;
  * @since 2015.07.01
  * @version 1.0.0
  */
-public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T> {
+public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T> implements Initializable {
 	AutoCreator<T> creator;
 	AdditionalOperation<T> operator;
+	// idle items kept ready after initialize()
+	protected volatile int minIdle = 0;
+	// idle items more than this are closed when recycled
+	protected volatile int maxIdle = Integer.MAX_VALUE;
+	// items in creating, they hold places in pool
+	protected int creating = 0;
+	// callers waiting in accessOneWithin()
+	protected int waiting = 0;
+	protected Replenisher replenisher = null;
 
 	public AutoGeneratePool(AutoCreator<T> creator) {
 		super();
@@ -87,13 +100,34 @@ public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T
 //	}
 
 	/**
-	 * 
+	 * Create, initialize and validate a new instance outside the pool lock,
+	 * its place in pool is reserved while creating.
 	 * @return
-	 * true if success, false if failed.
+	 * true if success, false if pool is full.
 	 */
 	protected boolean createAndValidateAndAdd() {
-		if (isFull())
-			return false;
+		synchronized (lock) {
+			if (size() + creating >= maxSize)
+				return false;
+			creating++;
+		}
+		T created = null;
+		try {
+			created = create();
+		} finally {
+			synchronized (lock) {
+				creating--;
+				if (created != null && add(created) == null) {
+					Utils.tryClose(created);
+					created = null;
+				}
+				lock.notifyAll();
+			}
+		}
+		return created != null;
+	}
+
+	private T create() {
 		int attempt = 0;
 		while (attempt < 10) {
 			attempt++;
@@ -111,15 +145,12 @@ public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T
 				// Validate
 				if(!validate(passerby))
 					throw new LYException("Validation reported failed");
-				// Add to Pool;
-				if(add(passerby) == null)
-					throw new LYException("Add to pool failed, maybe its full?");
 			} catch (Throwable t) {
 				Utils.tryClose(passerby);
 				log.error("Create new instance failed" + Utils.getStringFromThrowable(t));
 				continue;
 			}
-			return true;
+			return passerby;
 		}
 		throw new LYException("Create new instance failed, retried for too many times, lookup failure reasons from log.");
 	}
@@ -150,22 +181,159 @@ public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T
 //		}
 //	}
 	
+	/**
+	 * Access an idle item, create one if pool is not full. Creating happens
+	 * outside the pool lock, so other callers won't wait on it.
+	 * @return
+	 * null if no item is available
+	 */
 	@Override
 	public T accessOne() {
-		synchronized (lock) {
-			if (availableSize() == 0) {
-				if (isFull())
-					recycle();
-				else
+		T tmp = accessIdle();
+		if (tmp != null)
+			return tmp;
+		if (isFull())
+			recycle();
+		else
+			createAndValidateAndAdd();
+		return accessIdle();
+	}
+
+	/**
+	 * Wait for an idle item no longer than timeout. If background
+	 * replenishment is running ({@link #initialize()} was called), new items are
+	 * created by it, caller only waits.
+	 * @param timeout in millisecond
+	 * @return
+	 * null if no item is available before timeout
+	 */
+	public T accessOneWithin(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			T tmp = accessIdle();
+			if (tmp != null)
+				return tmp;
+			if (replenisher == null) {
+				if (!isFull()) {
 					createAndValidateAndAdd();
+					continue;
+				}
+			} else
+				replenisher.wakeUp();
+			synchronized (lock) {
+				if (availableSize() > 0)
+					continue;
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0L)
+					return null;
+				waiting++;
+				try {
+					lock.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				} finally {
+					waiting--;
+				}
 			}
-			if (isFull())
-				return null;
-			// Create and validate
+		}
+	}
+
+	private T accessIdle() {
+		T tmp;
+		synchronized (lock) {
 			Iterator<Long> iterator = availableKeySet().iterator();
 			if (!iterator.hasNext())
 				return null;
-			return accessOne(iterator.next());
+			tmp = accessOne(iterator.next());
+			if (replenisher != null && availableSize() + creating < minIdle)
+				replenisher.wakeUp();
+		}
+		return tmp;
+	}
+
+	/**
+	 * Idle items more than maxIdle will be closed instead of kept
+	 */
+	@Override
+	public boolean recycle(long objId, boolean isBad) {
+		synchronized (lock) {
+			if (!isBad && availableSize() >= maxIdle)
+				isBad = true;
+			boolean ret = super.recycle(objId, isBad);
+			lock.notifyAll();
+			return ret;
+		}
+	}
+
+	/**
+	 * Warm up to minIdle and start background replenishment
+	 */
+	@Override
+	public void initialize() {
+		synchronized (lock) {
+			if (replenisher != null)
+				return;
+			replenisher = new Replenisher();
+		}
+		try {
+			while (availableSize() + creating < minIdle)
+				if (!createAndValidateAndAdd())
+					break;
+		} catch (Exception e) {
+			log.error("Warm up failed, replenisher will try again later:" + Utils.getStringFromException(e));
+		}
+		replenisher.begin("AutoGeneratePool Replenisher");
+	}
+
+	@Override
+	public void close() {
+		Replenisher tmp;
+		synchronized (lock) {
+			tmp = replenisher;
+			replenisher = null;
+		}
+		if (tmp != null) {
+			tmp.callStop();
+			tmp.wakeUp();
+		}
+		super.close();
+	}
+
+	/**
+	 * Keep minIdle items ready and create items for waiting callers, a failed
+	 * creation backs off before retry so a dead server won't be hammered.
+	 */
+	class Replenisher extends LoneWolf {
+		private static final long serialVersionUID = 4453081327290474384L;
+
+		@Override
+		public void exec() {
+			while (!isStopped()) {
+				boolean needed;
+				synchronized (AutoGeneratePool.this.lock) {
+					needed = (waiting > 0 || availableSize() + creating < minIdle) && size() + creating < maxSize;
+				}
+				if (!needed) {
+					await(CoreDef.WAITING);
+					continue;
+				}
+				try {
+					createAndValidateAndAdd();
+				} catch (Exception e) {
+					log.error("Replenish failed:" + Utils.getStringFromException(e));
+					await(CoreDef.WAITING);
+				}
+			}
+		}
+
+		void wakeUp() {
+			signalAll();
+		}
+
+		@Override
+		protected boolean isDaemon() {
+			return true;
 		}
 	}
 
@@ -225,4 +393,20 @@ public class AutoGeneratePool<T extends BaseObject> extends TimeoutRecyclePool<T
 		this.operator = operator;
 	}
 
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
 }
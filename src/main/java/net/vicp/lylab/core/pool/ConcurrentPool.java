@@ -0,0 +1,269 @@
+package net.vicp.lylab.core.pool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.vicp.lylab.core.BaseObject;
+import net.vicp.lylab.core.CloneableBaseObject;
+import net.vicp.lylab.core.CoreDef;
+
+/**
+ * Lock-free pool for objects checked out and returned by many threads.<br>
+ * Each thread keeps a few ids it returned as hints, so it likely gets back
+ * the object it used last time; other ids stay in a shared lock-free stack.
+ * An object is claimed by removing it from the container, whoever removes it
+ * first owns it, hints found claimed are simply skipped.
+ * <br><br>
+ * Checkout by {@link #accessOne()}, return by {@link #add(BaseObject)}, id of
+ * a returned object is kept. {@link #remove(long)} is O(1) as well, the id it
+ * leaves in the shared stack is skipped later, and swept once such ids
+ * outnumber the live ones. No order is guaranteed, use {@link SequencePool}
+ * if order matters.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.10
+ * @version 1.0.0
+ */
+public class ConcurrentPool<T extends BaseObject> extends CloneableBaseObject implements Pool<T> {
+
+	/**
+	 * How many ids a thread could keep as hints
+	 */
+	public static final int LOCAL_CACHE_SIZE = CoreDef.FOUR;
+
+	protected ConcurrentHashMap<Long, T> container = new ConcurrentHashMap<Long, T>();
+	protected ConcurrentLinkedDeque<Long> shared = new ConcurrentLinkedDeque<Long>();
+	protected ThreadLocal<ArrayDeque<Long>> local = new ThreadLocal<ArrayDeque<Long>>() {
+		@Override
+		protected ArrayDeque<Long> initialValue() {
+			return new ArrayDeque<Long>(LOCAL_CACHE_SIZE);
+		}
+	};
+	// j.u.c atomics, lock based ones from utils.atomic defeat the purpose
+	protected AtomicInteger size = new AtomicInteger(0);
+	// ids in shared stack, live or not, roughly
+	protected AtomicInteger pushed = new AtomicInteger(0);
+	protected AtomicBoolean sweeping = new AtomicBoolean(false);
+	protected AtomicLong idIndicator = new AtomicLong(1L);
+	protected volatile int maxSize;
+
+	public ConcurrentPool() {
+		this(CoreDef.DEFAULT_CONTAINER_MAX_SIZE);
+	}
+
+	public ConcurrentPool(int maxSize) {
+		this.maxSize = ((maxSize > 0) ? maxSize : CoreDef.DEFAULT_CONTAINER_MAX_SIZE);
+	}
+
+	@Override
+	public Long add(T t) {
+		if (t == null)
+			return null;
+		// reserve a place
+		while (true) {
+			int current = size.get();
+			if (current >= maxSize)
+				return null;
+			if (size.compareAndSet(current, current + 1))
+				break;
+		}
+		long id = t.getObjectId();
+		if (id <= 0L) {
+			id = idIndicator.getAndIncrement();
+			t.setObjectId(id);
+		}
+		if (container.putIfAbsent(id, t) != null) {
+			// returned twice
+			size.decrementAndGet();
+			return id;
+		}
+		ArrayDeque<Long> hints = local.get();
+		if (hints.size() < LOCAL_CACHE_SIZE)
+			hints.push(id);
+		else {
+			shared.push(id);
+			if (pushed.incrementAndGet() > 2 * size.get() + LOCAL_CACHE_SIZE)
+				sweep();
+		}
+		return id;
+	}
+
+	@Override
+	public List<Long> addAll(Collection<? extends T> ts) {
+		List<Long> ids = new ArrayList<Long>(ts.size());
+		for (T t : ts)
+			ids.add(add(t));
+		return ids;
+	}
+
+	@Override
+	public T accessOne() {
+		// hints of current thread
+		ArrayDeque<Long> hints = local.get();
+		Long id;
+		while ((id = hints.poll()) != null) {
+			T tmp = claim(id);
+			if (tmp != null)
+				return tmp;
+		}
+		// shared stack
+		while ((id = shared.poll()) != null) {
+			pushed.decrementAndGet();
+			T tmp = claim(id);
+			if (tmp != null)
+				return tmp;
+		}
+		// steal from hints of other threads
+		if (size.get() > 0)
+			for (Long key : container.keySet()) {
+				T tmp = claim(key);
+				if (tmp != null)
+					return tmp;
+			}
+		return null;
+	}
+
+	private T claim(long id) {
+		T tmp = container.remove(id);
+		if (tmp != null)
+			size.decrementAndGet();
+		return tmp;
+	}
+
+	/**
+	 * Drop ids of removed objects from shared stack. It runs once they
+	 * outnumber the live ones, so its cost is paid back by the removals
+	 * that left them behind.
+	 */
+	private void sweep() {
+		if (!sweeping.compareAndSet(false, true))
+			return;
+		try {
+			Set<Long> seen = new HashSet<Long>();
+			Iterator<Long> iterator = shared.iterator();
+			while (iterator.hasNext()) {
+				Long id = iterator.next();
+				if (!container.containsKey(id) || !seen.add(id))
+					iterator.remove();
+			}
+			// recount, drift from racing polls ends here
+			pushed.set(seen.size());
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	@Override
+	public T remove(long objId) {
+		// its id left in shared stack or hints is skipped when met
+		return claim(objId);
+	}
+
+	@Override
+	public List<T> accessMany(int amount) {
+		return accessMany(amount, false);
+	}
+
+	@Override
+	public List<T> accessMany(int amount, boolean absolute) {
+		if (absolute && size() < amount)
+			return null;
+		List<T> retList = new ArrayList<T>();
+		for (int i = 0; i < amount; i++) {
+			T tmp = accessOne();
+			if (tmp == null)
+				break;
+			retList.add(tmp);
+		}
+		if (absolute && retList.size() < amount) {
+			// taken by others meanwhile, give back
+			for (T tmp : retList)
+				add(tmp);
+			return null;
+		}
+		return retList;
+	}
+
+	public T view(long objId) {
+		return container.get(objId);
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public boolean isFull() {
+		return size() >= maxSize;
+	}
+
+	@Override
+	public void clear() {
+		for (Long id : container.keySet())
+			claim(id);
+		sweep();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new ConcurrentPoolIterator(container.entrySet().iterator());
+	}
+
+	class ConcurrentPoolIterator implements Iterator<T> {
+		private Iterator<Entry<Long, T>> iterator;
+		private Long lastId = null;
+
+		public ConcurrentPoolIterator(Iterator<Entry<Long, T>> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			Entry<Long, T> entry = iterator.next();
+			lastId = entry.getKey();
+			return entry.getValue();
+		}
+
+		@Override
+		public void remove() {
+			if (lastId == null)
+				return;
+			ConcurrentPool.this.remove(lastId);
+		}
+	}
+
+}
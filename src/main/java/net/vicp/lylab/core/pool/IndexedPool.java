@@ -39,6 +39,17 @@ public class IndexedPool<T extends BaseObject> extends AbstractPool<T> {
 		}
 	}
 
+	/**
+	 * Keys are checked once for the whole batch
+	 */
+	@Override
+	public List<Long> addAll(Collection<? extends T> ts) {
+		synchronized (lock) {
+			safeCheck();
+			return super.addAll(ts);
+		}
+	}
+
 	@Override
 	public T remove(long objId) {
 		synchronized (lock) {
@@ -46,6 +57,8 @@ public class IndexedPool<T extends BaseObject> extends AbstractPool<T> {
 			if (keyContainer.isEmpty())
 				return null;
 			T tmp = removeFromContainer(objId);
+			if (tmp != null)
+				keyContainer.remove(objId);
 			return tmp;
 		}
 	}
@@ -73,7 +86,7 @@ public class IndexedPool<T extends BaseObject> extends AbstractPool<T> {
 				return null;
 			List<T> retList = new ArrayList<T>();
 			Iterator<Long> iterator = keyContainer.iterator();
-			for (int i = 0; !iterator.hasNext() && i < amount; i++) {
+			for (int i = 0; iterator.hasNext() && i < amount; i++) {
 				retList.add(getFromContainer(iterator.next()));
 			}
 			return retList;
@@ -136,7 +149,7 @@ public class IndexedPool<T extends BaseObject> extends AbstractPool<T> {
 				return;
 			synchronized (lock) {
 				iterator.remove();
-				IndexedPool.this.remove(lastId);
+				removeFromContainer(lastId);
 			}
 		}
 	}
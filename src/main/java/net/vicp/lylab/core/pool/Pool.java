@@ -1,5 +1,6 @@
 package net.vicp.lylab.core.pool;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -17,6 +18,14 @@ public interface Pool<T> extends Cloneable, Iterable<T> {
 	 * id(>0) if success, null if is full
 	 */
 	public Long add(T t);
+
+	/**
+	 * Add a batch of Objects with one lock acquisition
+	 * @param ts
+	 * @return
+	 * ids in the same order, null for those not added as pool is full
+	 */
+	public List<Long> addAll(Collection<? extends T> ts);
 	
 	public int size();
 	public boolean isEmpty();
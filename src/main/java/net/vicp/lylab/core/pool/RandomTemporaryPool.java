@@ -46,7 +46,7 @@ public class RandomTemporaryPool<T extends BaseObject> extends SequencePool<T> {
 				return null;
 			List<T> retList = new ArrayList<T>();
 			Iterator<Long> iterator = keyContainer.iterator();
-			for (int i = 0; !iterator.hasNext() && i < amount; i++) {
+			for (int i = 0; iterator.hasNext() && i < amount; i++) {
 				retList.add(removeFromContainer(iterator.next()));
 				// Keep balance
 				iterator.remove();
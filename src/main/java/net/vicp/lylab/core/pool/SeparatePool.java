@@ -132,10 +132,10 @@ public class SeparatePool<T extends BaseObject> extends IndexedPool<T> {
 			T tmp = null;
 			if (isAvailable)
 				tmp = removeFromContainer(objId);
-			else {
+			else
 				tmp = busyContainer.remove(objId);
+			if (tmp != null)
 				keyContainer.remove(objId);
-			}
 			return tmp;
 		}
 	}
@@ -190,7 +190,7 @@ public class SeparatePool<T extends BaseObject> extends IndexedPool<T> {
 			List<T> retList = new ArrayList<T>();
 			Iterator<Long> iterator;
 			iterator = availableKeySet().iterator();
-			for (int i = 0; !iterator.hasNext() && i < amount; i++) {
+			for (int i = 0; iterator.hasNext() && i < amount; i++) {
 				try {
 					long objId = iterator.next();
 					T tmp = removeFromContainer(objId);
@@ -1,12 +1,17 @@
 package net.vicp.lylab.core.pool;
 
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import net.vicp.lylab.core.BaseObject;
 import net.vicp.lylab.core.CoreDef;
 
 /**
  * 顺序化数据池
+ * <br>
+ * Keys are kept in a {@link LinkedHashSet}, appending and removing by id are
+ * O(1), only {@link #add(int, BaseObject)} with an index walks the keys.
  * 
  * @author liyang
  *
@@ -18,7 +23,7 @@ public class SequencePool<T extends BaseObject> extends IndexedPool<T> {
 	}
 
 	public SequencePool(int maxSize) {
-		super(new LinkedList<Long>(), maxSize);
+		super(new LinkedHashSet<Long>(), maxSize);
 	}
 
 	@Override
@@ -42,14 +47,34 @@ public class SequencePool<T extends BaseObject> extends IndexedPool<T> {
 	public Long add(int index, T t) {
 		synchronized (lock) {
 			safeCheck();
+			// addToContainer appends id already
 			Long id = addToContainer(t);
-			if(id != null && !keyContainer.contains(id))
-				if (index == -1)
-					((LinkedList<Long>) keyContainer).addLast(id);
-				else
-					((LinkedList<Long>) keyContainer).add(index, id);
+			if (id != null && index != -1)
+				moveKey(id, index);
 			return id;
 		}
 	}
 
+	/**
+	 * Move an appended key to index, keys after it are re-appended
+	 * @param id
+	 * @param index
+	 */
+	protected void moveKey(long id, int index) {
+		synchronized (lock) {
+			keyContainer.remove(id);
+			Set<Long> tail = new LinkedHashSet<Long>();
+			Iterator<Long> iterator = keyContainer.iterator();
+			for (int i = 0; iterator.hasNext(); i++) {
+				Long key = iterator.next();
+				if (i < index)
+					continue;
+				tail.add(key);
+				iterator.remove();
+			}
+			keyContainer.add(id);
+			keyContainer.addAll(tail);
+		}
+	}
+
 }
@@ -1,11 +1,19 @@
 package net.vicp.lylab.core.pool;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import net.vicp.lylab.core.BaseObject;
 import net.vicp.lylab.core.CoreDef;
@@ -16,6 +24,10 @@ import net.vicp.lylab.utils.controller.TimeoutController;
 
 /**
  * 超时控制分离池
+ * <br>
+ * Outdated {@link KeepAlive} items are checked by a shared scheduler, each at
+ * a random moment within healthCheckSpread, out of pool lock. An item under
+ * check is unavailable, a check lasts longer than healthCheckTimeout fails.
  * 
  * @author liyang
  *
@@ -23,6 +35,26 @@ import net.vicp.lylab.utils.controller.TimeoutController;
 public class TimeoutRecyclePool<T extends BaseObject> extends SeparatePool<T> implements Recyclable {
 	protected Map<Long, Long> startTime;
 	protected Long timeout;
+	//				id		check start time
+	protected Map<Long, Long> checking = new HashMap<Long, Long>();
+	protected Set<Long> scheduled = new HashSet<Long>();
+	protected long healthCheckTimeout = CoreDef.DEFAULT_HEALTH_CHECK_TIMEOUT;
+	protected long healthCheckSpread = CoreDef.DEFAULT_TIMTOUT_CONTROLLER_INTERVAL;
+
+	private static ScheduledExecutorService healthChecker = null;
+
+	private static synchronized ScheduledExecutorService getHealthChecker() {
+		if (healthChecker == null)
+			healthChecker = new ScheduledThreadPoolExecutor(CoreDef.DEFAULT_HEALTH_CHECK_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Pool Health Check");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return healthChecker;
+	}
 
 	/**
 	 * Default timeout is 2 minutes
@@ -54,6 +86,8 @@ public class TimeoutRecyclePool<T extends BaseObject> extends SeparatePool<T> im
 	public void clear() {
 		synchronized (lock) {
 			startTime.clear();
+			checking.clear();
+			scheduled.clear();
 			super.clear();
 		}
 	}
@@ -93,7 +127,7 @@ public class TimeoutRecyclePool<T extends BaseObject> extends SeparatePool<T> im
 			List<T> retList = new ArrayList<T>();
 			Iterator<Long> iterator;
 			iterator = availableKeySet().iterator();
-			for (int i = 0; !iterator.hasNext() && i < amount; i++) {
+			for (int i = 0; iterator.hasNext() && i < amount; i++) {
 				try {
 					long objId = iterator.next();
 					T tmp = removeFromContainer(objId);
@@ -137,18 +171,29 @@ public class TimeoutRecyclePool<T extends BaseObject> extends SeparatePool<T> im
 	@Override
 	public void recycle() {
 		synchronized (lock) {
-			for (Long id : availableKeySet()) {
-				T tmp = getFromContainer(id);
-				if (tmp instanceof KeepAlive && ((KeepAlive) tmp).isOutdated() && !((KeepAlive) tmp).isAlive()) {
-					removeFromContainer(id);
+			long now = System.currentTimeMillis();
+			// checks stuck too long, closing the item breaks its blocking call
+			Iterator<Entry<Long, Long>> checkIt = checking.entrySet().iterator();
+			while (checkIt.hasNext()) {
+				Entry<Long, Long> entry = checkIt.next();
+				if (now - entry.getValue() > healthCheckTimeout) {
+					checkIt.remove();
+					T tmp = busyContainer.remove(entry.getKey());
+					keyContainer.remove(entry.getKey());
+					log.error("Health check timeout, item closed:" + tmp);
 					Utils.tryClose(tmp);
 				}
 			}
+			for (Long id : availableKeySet()) {
+				T tmp = getFromContainer(id);
+				if (tmp instanceof KeepAlive && !scheduled.contains(id) && ((KeepAlive) tmp).isOutdated())
+					scheduleCheck(id);
+			}
 			Iterator<Entry<Long, Long>> it = startTime.entrySet().iterator();
 			while (it.hasNext()) {
 				Entry<Long, Long> entry = it.next();
 				long start = entry.getValue();
-				if (System.currentTimeMillis() - start > timeout && busyContainer.containsKey(entry.getKey())) {
+				if (now - start > timeout && busyContainer.containsKey(entry.getKey())) {
 					super.recycle(entry.getKey(), true);
 					it.remove();
 				}
@@ -157,11 +202,77 @@ public class TimeoutRecyclePool<T extends BaseObject> extends SeparatePool<T> im
 		}
 	}
 
+	private void scheduleCheck(final long id) {
+		scheduled.add(id);
+		long delay = healthCheckSpread > 0L ? ThreadLocalRandom.current().nextLong(healthCheckSpread) : 0L;
+		getHealthChecker().schedule(new Runnable() {
+			@Override
+			public void run() {
+				healthCheck(id);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void healthCheck(long id) {
+		T tmp;
+		synchronized (lock) {
+			scheduled.remove(id);
+			if (availableContainer == null)
+				return;
+			tmp = removeFromContainer(id);
+			if (tmp == null)
+				return;
+			// it may be used since scheduled
+			if (!((KeepAlive) tmp).isOutdated()) {
+				addToContainer(tmp);
+				return;
+			}
+			// unavailable while checking
+			busyContainer.put(id, tmp);
+			checking.put(id, System.currentTimeMillis());
+		}
+		boolean alive = false;
+		try {
+			alive = ((KeepAlive) tmp).isAlive();
+		} catch (Throwable t) {
+			log.debug("Health check failed:" + Utils.getStringFromThrowable(t));
+		}
+		synchronized (lock) {
+			// timeout already
+			if (checking.remove(id) == null)
+				return;
+			busyContainer.remove(id);
+			if (alive && availableContainer != null) {
+				addToContainer(tmp);
+				lock.notifyAll();
+				return;
+			}
+			keyContainer.remove(id);
+		}
+		Utils.tryClose(tmp);
+	}
+
 	@Override
 	public boolean isRecyclable() {
 		return size() != 0;
 	}
 
+	public long getHealthCheckTimeout() {
+		return healthCheckTimeout;
+	}
+
+	public void setHealthCheckTimeout(long healthCheckTimeout) {
+		this.healthCheckTimeout = healthCheckTimeout;
+	}
+
+	public long getHealthCheckSpread() {
+		return healthCheckSpread;
+	}
+
+	public void setHealthCheckSpread(long healthCheckSpread) {
+		this.healthCheckSpread = healthCheckSpread;
+	}
+
 	public Long getTimeout() {
 		return timeout;
 	}
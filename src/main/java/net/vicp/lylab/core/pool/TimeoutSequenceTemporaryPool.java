@@ -2,7 +2,6 @@ package net.vicp.lylab.core.pool;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -69,24 +68,12 @@ public class TimeoutSequenceTemporaryPool<T extends BaseObject> extends Sequence
 		}
 	}
 
-	/**
-	 * Add to pool with index
-	 * @param index -1 means addLast
-	 * @param t
-	 * @return
-	 */
 	@Override
-	public Long add(int index, T t) {
+	protected Long addToContainer(T t) {
 		synchronized (lock) {
-			safeCheck();
-			Long id = addToContainer(t);
-			if (id != null && !keyContainer.contains(id)) {
-				if (index == -1)
-					((LinkedList<Long>) keyContainer).addLast(id);
-				else
-					((LinkedList<Long>) keyContainer).add(index, id);
+			Long id = super.addToContainer(t);
+			if (id != null)
 				startTime.put(id, System.currentTimeMillis());
-			}
 			return id;
 		}
 	}
@@ -95,7 +82,8 @@ public class TimeoutSequenceTemporaryPool<T extends BaseObject> extends Sequence
 	public T accessOne() {
 		synchronized (lock) {
 			T tmp = super.accessOne();
-			startTime.remove(tmp.getObjectId());
+			if (tmp != null)
+				startTime.remove(tmp.getObjectId());
 			return tmp;
 		}
 	}
@@ -108,7 +96,7 @@ public class TimeoutSequenceTemporaryPool<T extends BaseObject> extends Sequence
 				return null;
 			List<T> retList = new ArrayList<T>();
 			Iterator<Long> iterator = keyContainer.iterator();
-			for (int i = 0; !iterator.hasNext() && i < amount; i++) {
+			for (int i = 0; iterator.hasNext() && i < amount; i++) {
 				retList.add(removeFromContainer(iterator.next()));
 				// Keep balance
 				iterator.remove();
@@ -130,11 +118,13 @@ public class TimeoutSequenceTemporaryPool<T extends BaseObject> extends Sequence
 				long start = entry.getValue();
 				if (System.currentTimeMillis() - start > timeout) {
 					removeFromContainer(entry.getKey());
+					keyContainer.remove(entry.getKey());
 					it.remove();
 				} else {
 					T tmp = getFromContainer(entry.getKey());
 					if (tmp instanceof KeepAlive && ((KeepAlive) tmp).isOutdated() && !((KeepAlive) tmp).isAlive()) {
 						removeFromContainer(entry.getKey());
+						keyContainer.remove(entry.getKey());
 						it.remove();
 						Utils.tryClose(tmp);
 
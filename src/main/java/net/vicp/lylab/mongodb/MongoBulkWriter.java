@@ -0,0 +1,358 @@
+package net.vicp.lylab.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.LifeCycle;
+import net.vicp.lylab.utils.Utils;
+import net.vicp.lylab.utils.atomic.AtomicLong;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Write-behind pipeline of a collection.<br>
+ * Writes from many callers are queued and sent by one bulkWrite per batch,
+ * a batch is sent once it reaches batchSize or its first write has waited
+ * lingerTime. At most maxInFlight batches are being written at the same time,
+ * callers are blocked once maxPending writes are queued.
+ * <br><br>
+ * Each write returns a future, completed with <tt>true</tt> when its batch is
+ * written, or exceptionally with the server's error of this very write. Batches
+ * are unordered by default, a failed write doesn't stop others. If ordered,
+ * writes after the first failed one in a batch are not executed and fail too.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.26
+ * @version 1.0.0
+ */
+public class MongoBulkWriter extends NonCloneableBaseObject implements LifeCycle {
+
+	private MongoCollection<Document> mongoCollection;
+	private int batchSize = CoreDef.DEFAULT_MONGO_BULK_SIZE;
+	private long lingerTime = CoreDef.DEFAULT_MONGO_BULK_LINGER;
+	private int maxInFlight = CoreDef.DEFAULT_MONGO_BULK_IN_FLIGHT;
+	private int maxPending = CoreDef.DEFAULT_MONGO_BULK_MAX_PENDING;
+	private boolean ordered = false;
+
+	private BlockingQueue<Write> queue;
+	private Semaphore inFlight;
+	private ExecutorService executor;
+	private Thread collector;
+	// no write is taken once closed
+	private volatile boolean closed = true;
+	// writes being queued, close waits for them, guarded by this
+	private int submitting = 0;
+	// set once no write can be queued any more, collector quits when queue is empty
+	private volatile boolean stopped = true;
+
+	private final AtomicLong writtenCount = new AtomicLong(0L);
+	private final AtomicLong failedCount = new AtomicLong(0L);
+	private final AtomicLong batchCount = new AtomicLong(0L);
+
+	private static class Write {
+		final WriteModel<Document> model;
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+		Write(WriteModel<Document> model) {
+			this.model = model;
+		}
+	}
+
+	public MongoBulkWriter() {
+	}
+
+	public MongoBulkWriter(MongoCollection<Document> mongoCollection) {
+		this.mongoCollection = mongoCollection;
+	}
+
+	@Override
+	public synchronized void initialize() {
+		if (!closed)
+			return;
+		if (mongoCollection == null)
+			throw new LYException("mongoCollection is null");
+		if (batchSize <= 0 || maxInFlight <= 0 || maxPending <= 0 || lingerTime < 0)
+			throw new LYException("batchSize, maxInFlight and maxPending must be positive, lingerTime mustn't be negative");
+		queue = new LinkedBlockingQueue<Write>(maxPending);
+		inFlight = new Semaphore(maxInFlight);
+		executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MongoBulkWriter[" + mongoCollection.getNamespace() + "]");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		closed = false;
+		stopped = false;
+		collector = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				collect();
+			}
+		}, "MongoBulkWriter Collector[" + mongoCollection.getNamespace() + "]");
+		collector.setDaemon(true);
+		collector.start();
+	}
+
+	/**
+	 * Flush what's queued and wait for all batches written, writes still
+	 * queued if that fails are failed
+	 */
+	@Override
+	public void close() throws Exception {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				// the collector keeps draining, a blocked write gets in
+				while (submitting > 0)
+					wait();
+			} finally {
+				stopped = true;
+			}
+		}
+		collector.join();
+		// left by an interrupted collector
+		for (Write write = queue.poll(); write != null; write = queue.poll()) {
+			write.future.completeExceptionally(new LYException("MongoBulkWriter is closed"));
+			failedCount.incrementAndGet();
+		}
+		executor.shutdown();
+		if (!executor.awaitTermination(CoreDef.WAITING_TOLERANCE, TimeUnit.MILLISECONDS))
+			log.error("MongoBulkWriter[" + mongoCollection.getNamespace() + "] - batches still in flight after close");
+	}
+
+	// write
+
+	public CompletableFuture<Boolean> insert(Map<String, Object> document) {
+		return submit(new InsertOneModel<Document>(new Document(document)));
+	}
+
+	public CompletableFuture<Boolean> updateById(String id, Map<String, Object> update) {
+		return submit(new UpdateOneModel<Document>(idFilter(id), set(update)));
+	}
+
+	public CompletableFuture<Boolean> update(Map<String, Object> filter, Map<String, Object> update) {
+		return submit(new UpdateManyModel<Document>(new Document(filter), set(update)));
+	}
+
+	public CompletableFuture<Boolean> deleteById(String id) {
+		return submit(new DeleteOneModel<Document>(idFilter(id)));
+	}
+
+	public CompletableFuture<Boolean> delete(Map<String, Object> filter) {
+		return submit(new DeleteManyModel<Document>(new Document(filter)));
+	}
+
+	private static Document idFilter(String id) {
+		return new Document("_id", new ObjectId(id));
+	}
+
+	private static Document set(Map<String, Object> update) {
+		Document tempUpdate = new Document(update);
+		tempUpdate.remove("_id");
+		return new Document("$set", tempUpdate);
+	}
+
+	private CompletableFuture<Boolean> submit(WriteModel<Document> model) {
+		Write write = new Write(model);
+		synchronized (this) {
+			if (closed)
+				throw new LYException("MongoBulkWriter is closed");
+			submitting++;
+		}
+		try {
+			queue.put(write);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			write.future.completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				if (--submitting == 0)
+					notifyAll();
+			}
+		}
+		return write.future;
+	}
+
+	// pipeline
+
+	private void collect() {
+		while (!stopped || !queue.isEmpty()) {
+			List<Write> batch = new ArrayList<Write>(batchSize);
+			try {
+				Write first = queue.poll(CoreDef.WAITING_SHORT, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerTime);
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long left = deadline - System.nanoTime();
+					if (batch.size() >= batchSize || left <= 0L)
+						break;
+					Write next = queue.poll(left, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				for (Write write : batch)
+					write.future.completeExceptionally(e);
+				log.error("MongoBulkWriter - collector interrupted, " + batch.size() + " write(s) dropped");
+				return;
+			}
+			final List<Write> toWrite = batch;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						write(toWrite);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		}
+	}
+
+	private void write(List<Write> batch) {
+		List<WriteModel<Document>> models = new ArrayList<WriteModel<Document>>(batch.size());
+		for (Write write : batch)
+			models.add(write.model);
+		batchCount.incrementAndGet();
+		try {
+			mongoCollection.bulkWrite(models, new BulkWriteOptions().ordered(ordered));
+			for (Write write : batch)
+				write.future.complete(true);
+			writtenCount.getAndAdd(batch.size());
+		} catch (MongoBulkWriteException e) {
+			Map<Integer, String> errors = new HashMap<Integer, String>();
+			int firstError = batch.size();
+			for (BulkWriteError error : e.getWriteErrors()) {
+				errors.put(error.getIndex(), error.getMessage());
+				firstError = Math.min(firstError, error.getIndex());
+			}
+			String concernError = e.getWriteConcernError() == null ? null : e.getWriteConcernError().getMessage();
+			for (int i = 0; i < batch.size(); i++) {
+				CompletableFuture<Boolean> future = batch.get(i).future;
+				if (errors.containsKey(i))
+					future.completeExceptionally(new LYException(errors.get(i)));
+				else if (ordered && i > firstError)
+					future.completeExceptionally(new LYException("Not executed, write[" + firstError + "] of this ordered batch failed"));
+				else if (concernError != null)
+					future.completeExceptionally(new LYException(concernError));
+				else {
+					future.complete(true);
+					writtenCount.incrementAndGet();
+					continue;
+				}
+				failedCount.incrementAndGet();
+			}
+		} catch (Throwable t) {
+			log.error("MongoBulkWriter - batch of " + batch.size() + " failed:" + Utils.getStringFromThrowable(t));
+			for (Write write : batch)
+				write.future.completeExceptionally(t);
+			failedCount.getAndAdd(batch.size());
+		}
+	}
+
+	// statistics
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	public int getPendingCount() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	// getters & setters
+
+	public MongoCollection<Document> getMongoCollection() {
+		return mongoCollection;
+	}
+
+	public void setMongoCollection(MongoCollection<Document> mongoCollection) {
+		this.mongoCollection = mongoCollection;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getLingerTime() {
+		return lingerTime;
+	}
+
+	public void setLingerTime(long lingerTime) {
+		this.lingerTime = lingerTime;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+}
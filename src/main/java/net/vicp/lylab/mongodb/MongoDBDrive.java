@@ -4,9 +4,11 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
-import net.vicp.lylab.core.interfaces.Initializable;
+import net.vicp.lylab.core.interfaces.LifeCycle;
+import net.vicp.lylab.utils.Utils;
 
 import org.bson.Document;
 
@@ -16,7 +18,7 @@ import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
-public class MongoDBDrive extends NonCloneableBaseObject implements Initializable {
+public class MongoDBDrive extends NonCloneableBaseObject implements LifeCycle {
 	// 数据库连接url地址，比如 127.0.0.1
 	private String url;
 	// 数据库连接端口
@@ -33,6 +35,12 @@ public class MongoDBDrive extends NonCloneableBaseObject implements Initializabl
 	private MongoDatabase mongoDatabase;
 	
 	private Map<String, MongoDBService> serviceCache;
+	// 批量写入，见MongoBulkWriter
+	private Map<String, MongoBulkWriter> bulkWriterCache;
+	private int bulkSize = CoreDef.DEFAULT_MONGO_BULK_SIZE;
+	private long bulkLingerTime = CoreDef.DEFAULT_MONGO_BULK_LINGER;
+	private int bulkMaxInFlight = CoreDef.DEFAULT_MONGO_BULK_IN_FLIGHT;
+	private boolean bulkOrdered = false;
 
 	@Override
 	public void initialize() {
@@ -44,6 +52,7 @@ public class MongoDBDrive extends NonCloneableBaseObject implements Initializabl
 			mongoClient = new MongoClient(new ServerAddress(url, port), Arrays.asList(credential));
 			mongoDatabase = mongoClient.getDatabase(database);
 			serviceCache = new ConcurrentHashMap<String, MongoDBService>();
+			bulkWriterCache = new ConcurrentHashMap<String, MongoBulkWriter>();
 		} catch (Exception e) {
 			throw new LYException("无法初始化mongoDB连接", e);
 		}
@@ -62,6 +71,46 @@ public class MongoDBDrive extends NonCloneableBaseObject implements Initializabl
 		return mongoDBService;
 	}
 
+	public MongoBulkWriter getBulkWriter(String collectionName) {
+		MongoBulkWriter bulkWriter = bulkWriterCache.get(collectionName);
+		if (bulkWriter != null)
+			return bulkWriter;
+		if(mongoDatabase == null)
+			throw new LYException("mongoDatabase为null，可能尚未初始化");
+		synchronized (bulkWriterCache) {
+			bulkWriter = bulkWriterCache.get(collectionName);
+			if (bulkWriter != null)
+				return bulkWriter;
+			bulkWriter = new MongoBulkWriter(mongoDatabase.getCollection(collectionName));
+			bulkWriter.setBatchSize(bulkSize);
+			bulkWriter.setLingerTime(bulkLingerTime);
+			bulkWriter.setMaxInFlight(bulkMaxInFlight);
+			bulkWriter.setOrdered(bulkOrdered);
+			bulkWriter.initialize();
+			bulkWriterCache.put(collectionName, bulkWriter);
+			return bulkWriter;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (mongoClient == null)
+			return;
+		// 先写完积压的批量写入
+		for (MongoBulkWriter bulkWriter : bulkWriterCache.values()) {
+			try {
+				bulkWriter.close();
+			} catch (Exception e) {
+				log.error(Utils.getStringFromException(e));
+			}
+		}
+		bulkWriterCache.clear();
+		serviceCache.clear();
+		mongoClient.close();
+		mongoClient = null;
+		mongoDatabase = null;
+	}
+
 	public String getUrl() {
 		return url;
 	}
@@ -102,4 +151,36 @@ public class MongoDBDrive extends NonCloneableBaseObject implements Initializabl
 		this.password = password;
 	}
 
+	public int getBulkSize() {
+		return bulkSize;
+	}
+
+	public void setBulkSize(int bulkSize) {
+		this.bulkSize = bulkSize;
+	}
+
+	public long getBulkLingerTime() {
+		return bulkLingerTime;
+	}
+
+	public void setBulkLingerTime(long bulkLingerTime) {
+		this.bulkLingerTime = bulkLingerTime;
+	}
+
+	public int getBulkMaxInFlight() {
+		return bulkMaxInFlight;
+	}
+
+	public void setBulkMaxInFlight(int bulkMaxInFlight) {
+		this.bulkMaxInFlight = bulkMaxInFlight;
+	}
+
+	public boolean isBulkOrdered() {
+		return bulkOrdered;
+	}
+
+	public void setBulkOrdered(boolean bulkOrdered) {
+		this.bulkOrdered = bulkOrdered;
+	}
+
 }
@@ -94,7 +94,7 @@ public class MongoDBService extends NonCloneableBaseObject {
 		return mongoCollection.count(tempFilter);
 	}
 
-	// 增删改
+	// 增删改，每次一个往返；大量写入用MongoDBDrive.getBulkWriter
 	public void insert(Map<String, Object> document) {
 		Document tempDocument = new Document(document);
 		mongoCollection.insertOne(tempDocument);
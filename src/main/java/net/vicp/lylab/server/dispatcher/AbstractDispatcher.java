@@ -2,19 +2,45 @@ package net.vicp.lylab.server.dispatcher;
 
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
 import net.vicp.lylab.server.filter.Filter;
+import net.vicp.lylab.server.filter.FilterStats;
+import net.vicp.lylab.server.filter.KeyFilter;
 
 public abstract class AbstractDispatcher<I extends Confirm, O extends Confirm> extends NonCloneableBaseObject implements Dispatcher<I, O> {
-	protected List<Filter<I, O>> filterChain = new ArrayList<Filter<I, O>>();
+	protected List<Filter<I, O>> filterChain = new FilterList<I, O>();
+	protected int filterChainCacheSize = CoreDef.DEFAULT_FILTER_CHAIN_CACHE_SIZE;
+
+	// filters of each route key, see KeyFilter
+	private final Map<String, Stage<I, O>[]> compiledChains = new ConcurrentHashMap<String, Stage<I, O>[]>();
+	private volatile Stage<I, O>[] noKeyChain = null;
+	// chain and its modification count compiled chains are made of
+	private volatile List<Filter<I, O>> compiledFrom = null;
+	private volatile int compiledModCount = -1;
+	private final Map<Filter<I, O>, FilterStats> filterStats = new ConcurrentHashMap<Filter<I, O>, FilterStats>();
 
 	protected void logger(I request, O response) {
 	}
 
+	/**
+	 * Filter chain is compiled per key, requests of a key only pass filters
+	 * matching it
+	 * @param request
+	 * @return
+	 * route key of this request, null if there is none
+	 */
+	protected String routeKey(I request) {
+		return null;
+	}
+
 	@Override
 	public void initialize() {
 	}
@@ -27,21 +53,140 @@ public abstract class AbstractDispatcher<I extends Confirm, O extends Confirm> e
 
 	protected O filterChain(Socket client, I request) {
 		// do start filter
-		if (filterChain != null && filterChain.size() != 0)
-			for (Filter<I, O> filter : filterChain) {
-				O ret = null;
-				if ((ret = filter.doFilter(client, request)) != null)
-					return ret;
+		if (filterChain == null || filterChain.size() == 0)
+			return null;
+		for (Stage<I, O> stage : compiledChain(routeKey(request))) {
+			O ret = null;
+			boolean failed = true;
+			long start = System.nanoTime();
+			try {
+				ret = stage.filter.doFilter(client, request);
+				failed = false;
+			} finally {
+				stage.stats.record(System.nanoTime() - start, ret != null, failed);
 			}
+			if (ret != null)
+				return ret;
+		}
 		return null;
 	}
 
+	private Stage<I, O>[] compiledChain(String key) {
+		List<Filter<I, O>> chain = filterChain;
+		if (chain != compiledFrom || modCount(chain) != compiledModCount)
+			refreshFilterChain();
+		Stage<I, O>[] stages = key == null ? noKeyChain : compiledChains.get(key);
+		if (stages != null)
+			return stages;
+		stages = compile(key);
+		if (key == null)
+			noKeyChain = stages;
+		else {
+			if (compiledChains.size() >= filterChainCacheSize)
+				compiledChains.clear();
+			compiledChains.put(key, stages);
+		}
+		return stages;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Stage<I, O>[] compile(String key) {
+		List<Stage<I, O>> stages = new ArrayList<Stage<I, O>>();
+		for (Filter<I, O> filter : filterChain) {
+			if (filter instanceof KeyFilter && !((KeyFilter<I, O>) filter).matches(key))
+				continue;
+			FilterStats stats = filterStats.get(filter);
+			if (stats == null) {
+				stats = new FilterStats();
+				filterStats.put(filter, stats);
+			}
+			stages.add(new Stage<I, O>(filter, stats));
+		}
+		return (Stage<I, O>[]) stages.toArray(new Stage<?, ?>[stages.size()]);
+	}
+
+	/**
+	 * Drop compiled chains, call this if filters changed what they match.
+	 * Changes through {@link #setFilterChain(List)} or any change to the list
+	 * returned by {@link #getFilterChain()} are picked up without it
+	 */
+	public void refreshFilterChain() {
+		List<Filter<I, O>> chain = filterChain;
+		compiledChains.clear();
+		noKeyChain = null;
+		compiledFrom = chain;
+		compiledModCount = modCount(chain);
+	}
+
+	/**
+	 * @return
+	 * a number changed by every change to chain, size of it if it's not a
+	 * {@link FilterList}
+	 */
+	private static int modCount(List<?> chain) {
+		if (chain == null)
+			return 0;
+		return chain instanceof FilterList ? ((FilterList<?, ?>) chain).modCount() : chain.size();
+	}
+
+	/**
+	 * @return
+	 * counters of every filter which has been run
+	 */
+	public Map<Filter<I, O>, FilterStats> getFilterStats() {
+		return Collections.unmodifiableMap(filterStats);
+	}
+
 	public List<Filter<I, O>> getFilterChain() {
 		return filterChain;
 	}
 
 	public void setFilterChain(List<Filter<I, O>> filterChain) {
-		this.filterChain = filterChain;
+		this.filterChain = filterChain == null ? null : new FilterList<I, O>(filterChain);
+		filterStats.clear();
+		refreshFilterChain();
+	}
+
+	public int getFilterChainCacheSize() {
+		return filterChainCacheSize;
+	}
+
+	public void setFilterChainCacheSize(int filterChainCacheSize) {
+		this.filterChainCacheSize = filterChainCacheSize;
+	}
+
+	private static final class Stage<I, O> {
+		final Filter<I, O> filter;
+		final FilterStats stats;
+
+		Stage(Filter<I, O> filter, FilterStats stats) {
+			this.filter = filter;
+			this.stats = stats;
+		}
+	}
+
+	/**
+	 * Filter chain which counts every change, replacing a filter included
+	 */
+	private static final class FilterList<I, O> extends ArrayList<Filter<I, O>> {
+		private static final long serialVersionUID = 1L;
+
+		FilterList() {
+		}
+
+		FilterList(List<Filter<I, O>> filters) {
+			super(filters);
+		}
+
+		@Override
+		public Filter<I, O> set(int index, Filter<I, O> element) {
+			modCount++;
+			return super.set(index, element);
+		}
+
+		int modCount() {
+			return modCount;
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -1,17 +1,59 @@
 package net.vicp.lylab.server.dispatcher;
 
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import net.vicp.lylab.core.AbstractAction;
 import net.vicp.lylab.core.BaseAction;
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.interfaces.AsyncDispatcher;
 import net.vicp.lylab.core.interfaces.Dispatcher;
+import net.vicp.lylab.core.interfaces.Overload;
 import net.vicp.lylab.core.model.SimpleMessage;
 import net.vicp.lylab.utils.Utils;
 
-public abstract class AbstractMessageDispatcher<I extends O, O extends SimpleMessage> extends AbstractDispatcher<I, O> implements Dispatcher<I, O> {
+/**
+ * Request is filtered then dispatched to action.<br>
+ * {@link #doActionAsync(Socket, Object)} filters and dispatches on calling
+ * thread too, but returns as soon as an async action starts waiting. Its
+ * response is completed when the action's future completes, or replaced by a
+ * timeout response after asyncTimeout milliseconds.
+ */
+public abstract class AbstractMessageDispatcher<I extends O, O extends SimpleMessage> extends AbstractDispatcher<I, O> implements AsyncDispatcher<I, O>, Dispatcher<I, O>, Overload<I, O> {
+
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Async Action Timer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	static {
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	protected long asyncTimeout = CoreDef.DEFAULT_ASYNC_ACTION_TIMEOUT;
 
 	protected abstract void dispatcher(AbstractAction action, Socket client, I request, O response);
 
+	/**
+	 * Dispatch without waiting action, by default the same as
+	 * {@link #dispatcher(AbstractAction, Socket, Object, Object)}
+	 * @return
+	 * future completes once response is ready
+	 */
+	protected CompletableFuture<?> dispatcherAsync(Socket client, I request, O response) {
+		dispatcher(null, client, request, response);
+		return CompletableFuture.completedFuture(null);
+	}
+
 	/**
 	 * 
 	 * @param request
@@ -22,52 +64,159 @@ public abstract class AbstractMessageDispatcher<I extends O, O extends SimpleMes
 	// Java language defect
 	protected abstract O newResponse();
 
+	@Override
+	protected String routeKey(I request) {
+		return request.getKey();
+	}
+
 	@Override
 	public O doAction(Socket client, I request) {
 		BaseAction action = null;
 		O response = newResponse();
 		try {
-			do {
-				// decode nothing
-				if (request == null) {
-					response.setCode(0x00000002);
-					response.setMessage("Request not found");
-					break;
-				}
-				// filter chain
-				try {
-					O tmp = filterChain(client, request);
-					if (tmp != null) {
-						response = tmp;
-						break;
-					}
-				} catch (Exception e) {
-					response.setCode(0x00000003);
-					response.setMessage("Filter chain runtime error");
-					break;
-				}
-				// sync response and request
-				response.copyBasicInfo(request);
-
+			O rejected = screen(client, request, response);
+			if (rejected != null)
+				response = rejected;
+			else
 				try {
 					dispatcher(action, client, request, response);
 				} catch (Throwable t) {
-					String reason = Utils.getStringFromThrowable(t);
-					log.error(reason);
-					response.setCode(0x00000004);
-					response.setMessage("Action dispatch/execute failed:" + reason);
+					dispatchFailed(response, t);
 				}
-			} while (false);
 		} catch (Exception e) {
 			log.error(Utils.getStringFromException(e));
 		}
+		access(request, response);
+		return response;
+	}
+
+	@Override
+	public CompletableFuture<O> doActionAsync(Socket client, final I request) {
+		final O response = newResponse();
+		final CompletableFuture<O> result = new CompletableFuture<O>();
+		CompletableFuture<?> pending = null;
+		try {
+			O rejected = screen(client, request, response);
+			if (rejected != null) {
+				access(request, rejected);
+				result.complete(rejected);
+				return result;
+			}
+			try {
+				pending = dispatcherAsync(client, request, response);
+			} catch (Throwable t) {
+				dispatchFailed(response, t);
+			}
+		} catch (Exception e) {
+			log.error(Utils.getStringFromException(e));
+		}
+		if (pending == null || pending.isDone()) {
+			complete(result, request, response, pending);
+			return result;
+		}
+		ScheduledFuture<?> timeout = null;
+		if (asyncTimeout > 0)
+			timeout = TIMER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// action may still write into its own response
+					O expired = newResponse();
+					expired.copyBasicInfo(request);
+					expired.setCode(0x0000000B);
+					expired.setMessage("Action timeout");
+					if (result.complete(expired))
+						access(request, expired);
+				}
+			}, asyncTimeout, TimeUnit.MILLISECONDS);
+		final ScheduledFuture<?> timer = timeout;
+		final CompletableFuture<?> action = pending;
+		pending.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object value, Throwable t) {
+				if (timer != null)
+					timer.cancel(false);
+				complete(result, request, response, action);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Complete result with response, unless it's timeout already
+	 */
+	private void complete(CompletableFuture<O> result, I request, O response, CompletableFuture<?> action) {
+		if (action != null)
+			try {
+				action.join();
+			} catch (Throwable t) {
+				dispatchFailed(response, t.getCause() == null ? t : t.getCause());
+			}
+		if (result.complete(response))
+			access(request, response);
+	}
+
+	/**
+	 * Check request and run filter chain
+	 * @return
+	 * response to reply at once, null if request should be dispatched
+	 */
+	private O screen(Socket client, I request, O response) {
+		// decode nothing
+		if (request == null) {
+			response.setCode(0x00000002);
+			response.setMessage("Request not found");
+			return response;
+		}
+		// filter chain
+		try {
+			O tmp = filterChain(client, request);
+			if (tmp != null)
+				return tmp;
+		} catch (Exception e) {
+			response.setCode(0x00000003);
+			response.setMessage("Filter chain runtime error");
+			return response;
+		}
+		// sync response and request
+		response.copyBasicInfo(request);
+		return null;
+	}
+
+	private void dispatchFailed(O response, Throwable t) {
+		String reason = Utils.getStringFromThrowable(t);
+		log.error(reason);
+		response.setCode(0x00000004);
+		response.setMessage("Action dispatch/execute failed:" + reason);
+	}
+
+	private void access(I request, O response) {
 		try {
 			// save access log
 			logger(request, response);
 		} catch (Exception e) {
 			log.error("Logger failed:" + Utils.getStringFromException(e));
 		}
+	}
+
+	@Override
+	public O overload(I request) {
+		O response = newResponse();
+		if (request != null)
+			response.copyBasicInfo(request);
+		response.setCode(0x00000009);
+		response.setMessage("Server busy");
 		return response;
 	}
 
-}
\ No newline at end of file
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * @param asyncTimeout in milliseconds, 0 or less means never
+	 */
+	public void setAsyncTimeout(long asyncTimeout) {
+		this.asyncTimeout = asyncTimeout;
+	}
+
+}
@@ -1,18 +1,104 @@
 package net.vicp.lylab.server.dispatcher;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
 
 import org.apache.commons.lang3.StringUtils;
 
 import net.vicp.lylab.core.AbstractAction;
+import net.vicp.lylab.core.AsyncAction;
 import net.vicp.lylab.core.BaseAction;
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.interfaces.ConfigListener;
+import net.vicp.lylab.core.interfaces.Stateless;
 import net.vicp.lylab.core.model.Message;
 import net.vicp.lylab.utils.Config;
 import net.vicp.lylab.utils.Utils;
 
-public class SimpleKeyDispatcher<I extends Message> extends AbstractMessageDispatcher<I, Message> {
-	
+/**
+ * Map request key to action "key + Action" from config.<br>
+ * Routes are resolved once, at {@link #initialize()} for every action in
+ * config or on first request of a key, then looked up by key alone. A
+ * {@link Stateless} action is taken from idle ones of its route and given
+ * back after the request, whatever thread runs it, others are created
+ * through a cached constructor handle. Keys without action are
+ * remembered too, up to negativeCacheSize. An {@link AsyncAction} is
+ * always a new instance, as it may still run when next request comes.
+ * Routes are resolved again once actions config is reloaded.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.19
+ * @version 1.0.0
+ */
+public class SimpleKeyDispatcher<I extends Message> extends AbstractMessageDispatcher<I, Message> implements ConfigListener {
+	private static final String SUFFIX = "Action";
+
 	protected Config actions = null;
+	protected int negativeCacheSize = CoreDef.DEFAULT_DISPATCHER_NEGATIVE_CACHE_SIZE;
+
+	private volatile Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private volatile Map<String, Boolean> unknownKeys = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Resolve all actions in config ahead
+	 */
+	@Override
+	public void initialize() {
+		super.initialize();
+		if (actions != null)
+			actions.addListener(this);
+		refresh();
+	}
+
+	@Override
+	public void close() throws Exception {
+		if (actions != null)
+			actions.removeListener(this);
+		super.close();
+	}
+
+	/**
+	 * Resolve all actions in config again and forget unknown keys, done by
+	 * itself after actions config is reloaded
+	 */
+	public void refresh() {
+		Map<String, Route> resolved = new ConcurrentHashMap<String, Route>();
+		if (actions != null)
+			for (String name : actions.keyList())
+				if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+					String key = name.substring(0, name.length() - SUFFIX.length());
+					Route route = resolve(key);
+					if (route != null)
+						resolved.put(key, route);
+				}
+		// swapped as a whole, a request never sees a half built table
+		routes = resolved;
+		unknownKeys = new ConcurrentHashMap<String, Boolean>();
+		log.debug("Routes resolved:" + resolved.keySet());
+	}
+
+	@Override
+	public void configChanged(Config config, Set<String> changedKeys) {
+		if (config != actions)
+			return;
+		for (String name : changedKeys)
+			if (name.endsWith(SUFFIX)) {
+				refresh();
+				return;
+			}
+	}
 
 	@Override
 	protected Message newResponse() {
@@ -26,9 +112,48 @@ public class SimpleKeyDispatcher<I extends Message> extends AbstractMessageDispa
 	 */
 	@Override
 	protected BaseAction mapAction(I request) {
+		String key = request.getKey();
+		Map<String, Route> routes = this.routes;
+		Route route = routes.get(key);
+		if (route == null) {
+			Map<String, Boolean> unknownKeys = this.unknownKeys;
+			if (unknownKeys.containsKey(key))
+				return null;
+			route = resolve(key);
+			if (route == null) {
+				if (unknownKeys.size() >= negativeCacheSize)
+					unknownKeys.clear();
+				unknownKeys.put(key, Boolean.TRUE);
+				return null;
+			}
+			routes.put(key, route);
+		}
+		try {
+			return route.get();
+		} catch (Throwable t) {
+			log.error("Create action for key[" + key + "] failed:" + Utils.getStringFromThrowable(t));
+			return null;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return
+	 * route to action of this key, null if no such action
+	 */
+	private Route resolve(String key) {
 		try {
-			return (BaseAction) actions.getNewInstance(request.getKey() + "Action");
-		} catch (Exception e) {
+			if (actions == null || !actions.containsKey(key + SUFFIX))
+				return null;
+			Object className = actions.getObject(key + SUFFIX);
+			if (!(className instanceof String))
+				return null;
+			Class<?> type = Class.forName((String) className);
+			if (!BaseAction.class.isAssignableFrom(type))
+				return null;
+			return new Route(type.asSubclass(BaseAction.class));
+		} catch (Throwable t) {
+			log.debug("Resolve action for key[" + key + "] failed:" + Utils.getStringFromThrowable(t));
 			return null;
 		}
 	}
@@ -40,33 +165,127 @@ public class SimpleKeyDispatcher<I extends Message> extends AbstractMessageDispa
 
 	@Override
 	protected void dispatcher(AbstractAction action, Socket client, I request, Message response) {
+		BaseAction found = prepare(client, request, response);
+		if (found != null)
+			run(request.getKey(), found, response);
+	}
+
+	private void run(String key, BaseAction found, Message response) {
+		try {
+			// do action
+			found.doAction();
+		} catch (Throwable t) {
+			executeFailed(response, t);
+		} finally {
+			if (found instanceof Stateless) {
+				// kept for next request, don't hold this one
+				found.setSocket(null);
+				found.setRequest(null);
+				found.setResponse(null);
+				Route route = routes.get(key);
+				if (route != null)
+					route.release(found);
+			}
+		}
+	}
+
+	/**
+	 * An {@link AsyncAction} is started and left running, others are done at
+	 * once as {@link #dispatcher(AbstractAction, Socket, Message, Message)}
+	 */
+	@Override
+	protected CompletableFuture<?> dispatcherAsync(Socket client, I request, final Message response) {
+		BaseAction found = prepare(client, request, response);
+		if (!(found instanceof AsyncAction)) {
+			if (found != null)
+				run(request.getKey(), found, response);
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<?> future;
+		try {
+			future = ((AsyncAction) found).doActionAsync();
+		} catch (Throwable t) {
+			executeFailed(response, t);
+			return CompletableFuture.completedFuture(null);
+		}
+		return future.handle(new BiFunction<Object, Throwable, Object>() {
+			@Override
+			public Object apply(Object value, Throwable t) {
+				if (t != null)
+					executeFailed(response, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Map and initialize action of request
+	 * @return
+	 * action to run, null if response is set to an error already
+	 */
+	private BaseAction prepare(Socket client, I request, Message response) {
 		// gain key from request
 		String key = request.getKey();
 		if (StringUtils.isBlank(key)) {
 			response.setCode(0x00000005);
 			response.setMessage("Key not found");
-			return;
+			return null;
 		}
 		// get action related to key
-		action = mapAction(request);
+		BaseAction action = mapAction(request);
 		if (action == null) {
 			response.setCode(0x00000006);
 			response.setMessage("Action not found");
-			return;
+			return null;
 		}
 
 		// Initialize action
 		action.setSocket(client);
 		action.setRequest(request);
 		action.setResponse(response);
-		try {
-			// do action
-			action.doAction();
-		} catch (Throwable t) {
-			String reason = Utils.getStringFromThrowable(t);
-			log.error(reason);
-			response.setCode(0x00000007);
-			response.setMessage("Action execute failed:" + reason);
+		return action;
+	}
+
+	private void executeFailed(Message response, Throwable t) {
+		String reason = Utils.getStringFromThrowable(t);
+		log.error(reason);
+		response.setCode(0x00000007);
+		response.setMessage("Action execute failed:" + reason);
+	}
+
+	/**
+	 * Make an action of one class
+	 */
+	private static final class Route {
+		private final Class<? extends BaseAction> type;
+		private final MethodHandle constructor;
+		// no more than requests running at once, not tied to any thread
+		private final ConcurrentLinkedQueue<BaseAction> idle;
+
+		Route(Class<? extends BaseAction> type) throws Exception {
+			this.type = type;
+			Constructor<? extends BaseAction> c = type.getDeclaredConstructor();
+			c.setAccessible(true);
+			constructor = MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(BaseAction.class));
+			// an async action outlives its request, never reused
+			idle = Stateless.class.isAssignableFrom(type) && !AsyncAction.class.isAssignableFrom(type)
+					? new ConcurrentLinkedQueue<BaseAction>() : null;
+		}
+
+		BaseAction get() throws Throwable {
+			BaseAction action = idle == null ? null : idle.poll();
+			if (action == null)
+				action = (BaseAction) constructor.invokeExact();
+			return action;
+		}
+
+		/**
+		 * Give back an action from {@link #get()}, ignored if routes were
+		 * resolved again meanwhile and key maps to another class now
+		 */
+		void release(BaseAction action) {
+			if (idle != null && action.getClass() == type)
+				idle.offer(action);
 		}
 	}
 
@@ -75,7 +294,20 @@ public class SimpleKeyDispatcher<I extends Message> extends AbstractMessageDispa
 	}
 
 	public void setActions(Config actions) {
+		if (this.actions != null)
+			this.actions.removeListener(this);
 		this.actions = actions;
+		if (actions != null)
+			actions.addListener(this);
+		refresh();
+	}
+
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		this.negativeCacheSize = negativeCacheSize;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package net.vicp.lylab.server.filter;
+
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.utils.atomic.AtomicLong;
+
+/**
+ * Counters of a filter in a dispatcher's chain.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.19
+ * @version 1.0.0
+ */
+public class FilterStats extends NonCloneableBaseObject {
+	private final AtomicLong calls = new AtomicLong(0L);
+	private final AtomicLong rejected = new AtomicLong(0L);
+	private final AtomicLong failed = new AtomicLong(0L);
+	private final AtomicLong totalNanos = new AtomicLong(0L);
+	private final AtomicLong maxNanos = new AtomicLong(0L);
+
+	/**
+	 * @param nanos time spent in doFilter
+	 * @param rejected filter returned a response
+	 * @param failed filter threw
+	 */
+	public void record(long nanos, boolean rejected, boolean failed) {
+		calls.incrementAndGet();
+		totalNanos.getAndAdd(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()))
+			if (maxNanos.compareAndSet(max, nanos))
+				break;
+		if (rejected)
+			this.rejected.incrementAndGet();
+		if (failed)
+			this.failed.incrementAndGet();
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return
+	 * how many requests were answered by this filter
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public long getMeanNanos() {
+		long n = calls.get();
+		return n == 0L ? 0L : totalNanos.get() / n;
+	}
+
+	public void reset() {
+		calls.set(0L);
+		rejected.set(0L);
+		failed.set(0L);
+		totalNanos.set(0L);
+		maxNanos.set(0L);
+	}
+
+	@Override
+	public String toString() {
+		return "FilterStats [calls=" + getCalls() + ", rejected=" + getRejected() + ", failed=" + getFailed()
+				+ ", meanNanos=" + getMeanNanos() + ", maxNanos=" + getMaxNanos() + "]";
+	}
+
+}
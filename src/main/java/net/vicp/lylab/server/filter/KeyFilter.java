@@ -0,0 +1,23 @@
+package net.vicp.lylab.server.filter;
+
+/**
+ * A filter guards only some request keys.<br>
+ * Dispatcher asks {@link #matches(String)} once per key and compiles the
+ * chain of that key, requests of other keys never reach this filter.
+ * A plain {@link Filter} guards all keys.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.19
+ * @version 1.0.0
+ */
+public interface KeyFilter<I, O> extends Filter<I, O> {
+	/**
+	 * @param key request key, null if dispatcher has no key for request
+	 * @return
+	 * <tt>true</tt> if requests of this key should pass this filter
+	 */
+	public boolean matches(String key);
+
+}
@@ -0,0 +1,400 @@
+package net.vicp.lylab.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.exceptions.LYException;
+
+/**
+ * Read and write primitives right inside an existing byte array.<br>
+ * A cursor keeps a position over bytes[offset, limit) and moves forward as
+ * it goes, nothing is allocated unless asked for (such as getBytes()). A
+ * cursor may be rewrapped over another array and reused.
+ * <br><br>
+ * int and long use the same byte order as {@link Utils#int2Bytes(int)},
+ * varint is 7 bits a byte, low group first, zig-zag for signed values.
+ * Use sizeOf*() to work out the exact length of a message before allocating.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.18
+ * @version 1.0.0
+ */
+public final class ByteCursor {
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+	private int position;
+	private int limit;
+
+	public ByteCursor() {
+		this(new byte[0]);
+	}
+
+	public ByteCursor(byte[] bytes) {
+		wrap(bytes, 0, bytes.length);
+	}
+
+	public ByteCursor(byte[] bytes, int offset, int length) {
+		wrap(bytes, offset, length);
+	}
+
+	/**
+	 * Move this cursor onto another array
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 * this cursor
+	 */
+	public ByteCursor wrap(byte[] bytes, int offset, int length) {
+		if (bytes == null)
+			throw new NullPointerException("Parameter bytes is null");
+		if (offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new LYException("Out of bounds, byte length is " + bytes.length + " while offset is " + offset
+					+ " and length is " + length);
+		this.bytes = bytes;
+		this.position = offset;
+		this.limit = offset + length;
+		return this;
+	}
+
+	public ByteCursor wrap(byte[] bytes) {
+		return wrap(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Move this cursor onto remaining part of a heap buffer, the buffer itself
+	 * isn't moved, see {@link #flushTo(ByteBuffer)}
+	 * @param buffer
+	 * @return
+	 * this cursor
+	 */
+	public ByteCursor wrap(ByteBuffer buffer) {
+		if (!buffer.hasArray())
+			throw new LYException("Only heap buffer could be wrapped");
+		return wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	}
+
+	/**
+	 * Set position of a buffer wrapped by {@link #wrap(ByteBuffer)} to where
+	 * this cursor is
+	 * @param buffer
+	 */
+	public void flushTo(ByteBuffer buffer) {
+		buffer.position(position - buffer.arrayOffset());
+	}
+
+	private void require(int size) {
+		if (limit - position < size)
+			throw new LYException("Out of bounds, " + (limit - position) + " byte(s) remain while " + size + " required");
+	}
+
+	// write
+
+	public ByteCursor put(byte b) {
+		require(1);
+		bytes[position++] = b;
+		return this;
+	}
+
+	public ByteCursor put(byte[] src) {
+		return put(src, 0, src.length);
+	}
+
+	public ByteCursor put(byte[] src, int offset, int length) {
+		require(length);
+		System.arraycopy(src, offset, bytes, position, length);
+		position += length;
+		return this;
+	}
+
+	public ByteCursor putBoolean(boolean b) {
+		return put((byte) (b ? 1 : 0));
+	}
+
+	public ByteCursor putInt(int x) {
+		require(CoreDef.SIZEOF_INTEGER);
+		putInt(bytes, position, x);
+		position += CoreDef.SIZEOF_INTEGER;
+		return this;
+	}
+
+	public ByteCursor putLong(long x) {
+		require(CoreDef.SIZEOF_LONG);
+		putLong(bytes, position, x);
+		position += CoreDef.SIZEOF_LONG;
+		return this;
+	}
+
+	/**
+	 * Zig-zag varint, 1 to 5 bytes
+	 */
+	public ByteCursor putVarint(int x) {
+		return putUnsignedVarlong(((x << 1) ^ (x >> 31)) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Zig-zag varint, 1 to 10 bytes
+	 */
+	public ByteCursor putVarlong(long x) {
+		return putUnsignedVarlong((x << 1) ^ (x >> 63));
+	}
+
+	private ByteCursor putUnsignedVarlong(long x) {
+		require(sizeOfUnsignedVarlong(x));
+		while ((x & ~0x7FL) != 0L) {
+			bytes[position++] = (byte) ((x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		bytes[position++] = (byte) x;
+		return this;
+	}
+
+	/**
+	 * Write UTF-8 bytes of a string, without length,
+	 * {@link #sizeOfUTF8(CharSequence)} bytes are written
+	 * @param s
+	 */
+	public ByteCursor putUTF8(CharSequence s) {
+		int length = s.length();
+		byte[] bytes = this.bytes;
+		int p = position;
+		int i = 0;
+		// ASCII goes byte to byte, bounds are checked once the rest is known
+		if (limit - p >= length)
+			for (; i < length; i++) {
+				char c = s.charAt(i);
+				if (c >= 0x80)
+					break;
+				bytes[p++] = (byte) c;
+			}
+		if (i < length) {
+			position = p;
+			require(sizeOfUTF8(s, i));
+		}
+		for (; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				bytes[p++] = (byte) c;
+			else if (c < 0x800) {
+				bytes[p++] = (byte) (0xC0 | (c >> 6));
+				bytes[p++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				bytes[p++] = (byte) (0xF0 | (cp >> 18));
+				bytes[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				bytes[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				bytes[p++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c))
+				// unpaired, same replacement as String.getBytes()
+				bytes[p++] = '?';
+			else {
+				bytes[p++] = (byte) (0xE0 | (c >> 12));
+				bytes[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[p++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		position = p;
+		return this;
+	}
+
+	// read
+
+	public byte get() {
+		require(1);
+		return bytes[position++];
+	}
+
+	public boolean getBoolean() {
+		return get() != 0;
+	}
+
+	public int getInt() {
+		require(CoreDef.SIZEOF_INTEGER);
+		int x = getInt(bytes, position);
+		position += CoreDef.SIZEOF_INTEGER;
+		return x;
+	}
+
+	public long getLong() {
+		require(CoreDef.SIZEOF_LONG);
+		long x = getLong(bytes, position);
+		position += CoreDef.SIZEOF_LONG;
+		return x;
+	}
+
+	public int getVarint() {
+		long x = getUnsignedVarlong(5);
+		return (int) (x >>> 1) ^ -((int) x & 1);
+	}
+
+	public long getVarlong() {
+		long x = getUnsignedVarlong(10);
+		return (x >>> 1) ^ -(x & 1L);
+	}
+
+	private long getUnsignedVarlong(int maxBytes) {
+		long x = 0L;
+		for (int i = 0; i < maxBytes; i++) {
+			byte b = get();
+			x |= (long) (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0)
+				return x;
+		}
+		throw new LYException("Malformed varint");
+	}
+
+	/**
+	 * Copy into dst, dst.length bytes are read
+	 * @param dst
+	 */
+	public ByteCursor get(byte[] dst) {
+		require(dst.length);
+		System.arraycopy(bytes, position, dst, 0, dst.length);
+		position += dst.length;
+		return this;
+	}
+
+	public byte[] getBytes(int length) {
+		byte[] dst = new byte[length];
+		get(dst);
+		return dst;
+	}
+
+	public String getUTF8(int length) {
+		return getString(length, UTF8);
+	}
+
+	public String getString(int length, Charset charset) {
+		require(length);
+		String s = new String(bytes, position, length, charset);
+		position += length;
+		return s;
+	}
+
+	public ByteCursor skip(int length) {
+		require(length);
+		position += length;
+		return this;
+	}
+
+	// size
+
+	public static int sizeOfVarint(int x) {
+		return sizeOfUnsignedVarlong(((x << 1) ^ (x >> 31)) & 0xFFFFFFFFL);
+	}
+
+	public static int sizeOfVarlong(long x) {
+		return sizeOfUnsignedVarlong((x << 1) ^ (x >> 63));
+	}
+
+	private static int sizeOfUnsignedVarlong(long x) {
+		int size = 1;
+		while ((x & ~0x7FL) != 0L) {
+			x >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @param s
+	 * @return
+	 * length of s in UTF-8, without encoding it
+	 */
+	public static int sizeOfUTF8(CharSequence s) {
+		return sizeOfUTF8(s, 0);
+	}
+
+	private static int sizeOfUTF8(CharSequence s, int from) {
+		int length = s.length();
+		int size = length - from;
+		for (int i = from; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+				size += 1;
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				// 2 chars to 4 bytes
+				size += 2;
+				i++;
+			} else if (!Character.isSurrogate(c))
+				size += 2;
+		}
+		return size;
+	}
+
+	// stateless
+
+	/**
+	 * Write x at offset, same layout as {@link Utils#int2Bytes(int)}
+	 */
+	public static void putInt(byte[] bytes, int offset, int x) {
+		if (CoreDef.BIG_ENDIAN) {
+			bytes[offset + 3] = (byte) (x >> 24);
+			bytes[offset + 2] = (byte) (x >> 16);
+			bytes[offset + 1] = (byte) (x >> 8);
+			bytes[offset] = (byte) x;
+		} else {
+			bytes[offset] = (byte) (x >> 24);
+			bytes[offset + 1] = (byte) (x >> 16);
+			bytes[offset + 2] = (byte) (x >> 8);
+			bytes[offset + 3] = (byte) x;
+		}
+	}
+
+	/**
+	 * Read an int at offset, same layout as {@link Utils#bytes2Int(byte[], int)}
+	 */
+	public static int getInt(byte[] bytes, int offset) {
+		if (CoreDef.BIG_ENDIAN)
+			return (bytes[offset + 3] << 24) | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 1] & 0xFF) << 8)
+					| (bytes[offset] & 0xFF);
+		return (bytes[offset] << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8)
+				| (bytes[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Write x at offset, high int then low int, each as {@link #putInt(byte[], int, int)}
+	 */
+	public static void putLong(byte[] bytes, int offset, long x) {
+		putInt(bytes, offset, (int) (x >> 32));
+		putInt(bytes, offset + CoreDef.SIZEOF_INTEGER, (int) x);
+	}
+
+	public static long getLong(byte[] bytes, int offset) {
+		return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + CoreDef.SIZEOF_INTEGER) & 0xFFFFFFFFL);
+	}
+
+	public byte[] array() {
+		return bytes;
+	}
+
+	public int position() {
+		return position;
+	}
+
+	public ByteCursor position(int position) {
+		if (position < 0 || position > limit)
+			throw new LYException("Out of bounds, limit is " + limit + " while position is " + position);
+		this.position = position;
+		return this;
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	public int remaining() {
+		return limit - position;
+	}
+
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+}
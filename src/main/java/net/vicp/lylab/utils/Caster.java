@@ -1,6 +1,11 @@
 package net.vicp.lylab.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,6 +24,7 @@ import net.sf.cglib.beans.BeanCopier;
 import net.sf.cglib.core.Converter;
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -27,6 +33,11 @@ import org.apache.commons.lang3.time.DateUtils;
 public abstract class Caster extends NonCloneableBaseObject {
 
 	private static Map<String, BeanCopier> beanCopiers = new ConcurrentHashMap<String, BeanCopier>();
+	/**
+	 * Getters and setters of a class, looked up once for
+	 * {@link #mapCastObject(Class, Map)} and {@link #objectCastMap(Object)}
+	 */
+	private static Map<Class<?>, Accessors> accessorCache = new ConcurrentHashMap<Class<?>, Accessors>();
 
 	/**
 	 * Deep copy may cause infinite loop
@@ -69,6 +80,15 @@ public abstract class Caster extends NonCloneableBaseObject {
 		return class1.toString() + "_" + String.valueOf(convert) + "_" + class2.toString();
 	}
 
+	private static Accessors getAccessors(Class<?> type) {
+		Accessors accessors = accessorCache.get(type);
+		if (accessors == null) {
+			accessors = new Accessors(type);
+			accessorCache.put(type, accessors);
+		}
+		return accessors;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static <T> T objectCast(Object source, Class<T> targetClass) {
 		T target = null;
@@ -144,26 +164,26 @@ public abstract class Caster extends NonCloneableBaseObject {
 			return null;
 		try {
 			mapStackTrace.push(map);
-			T owner = instanceClass.newInstance();
-			Set<String> names = map.keySet();
-			for (String name : names) {
+			Accessors accessors = getAccessors(instanceClass);
+			T owner = (T) accessors.newInstance();
+			for (Map.Entry<String, ?> entry : map.entrySet()) {
+				String name = entry.getKey();
 				try {
-					Object node = map.get(name);
+					Object node = entry.getValue();
 					if (node == null)
 						continue;
-					Method setter = Utils.getSetterForField(owner, name, node);
+					Property setter = accessors.getSetter(name, node.getClass());
 					if (setter == null)
 						continue;
-					Class<?> paramClass = setter.getParameterTypes()[0];
-					if (Map.class.isAssignableFrom(paramClass)) {
-						Utils.setter(owner, setter, node);
-					} else if (Map.class.isAssignableFrom(node.getClass())) {
-						Object param = mapCastObject(paramClass, (Map<String, ?>) node, mapStackTrace);
+					if (Map.class.isAssignableFrom(setter.type)) {
+						setter.set(owner, node);
+					} else if (node instanceof Map) {
+						Object param = mapCastObject(setter.type, (Map<String, ?>) node, mapStackTrace);
 						if (param == null)
 							param = owner;
-						Utils.setter(owner, setter, param);
+						setter.set(owner, param);
 					} else
-						Utils.setter(owner, setter, node);
+						setter.set(owner, node);
 				} catch (Exception e) {
 					log.debug("Bad field:" + name + Utils.getStringFromThrowable(e));
 				}
@@ -200,26 +220,13 @@ public abstract class Caster extends NonCloneableBaseObject {
 	private final static Map<String, Object> objectCastMap(Object object, int depthLimit, int depth) {
 		Map<String, Object> map = new HashMap<String, Object>();
 		try {
-			Method[] methods = object.getClass().getMethods();
-			for (Method method : methods) {
-				if (method.getParameters().length != 0)
-					continue;
-				String methodName = method.getName();
-				if (methodName.equals("getClass"))
-					continue;
-				String fieldName = null;
-				if (methodName.startsWith("get") && Character.isUpperCase(methodName.charAt(3)))
-					fieldName = methodName.substring(3, 4).toLowerCase() + methodName.substring(4);
-				if ((methodName.startsWith("is") && Character.isUpperCase(methodName.charAt(2))))
-					fieldName = methodName.substring(2, 3).toLowerCase() + methodName.substring(3);
-				if (fieldName != null) {
-					if (!method.isAccessible()) {
-						method.setAccessible(true);
-					}
-					Object temp = innerObjectCastMap(method.invoke(object), depthLimit, depth + 1);
-					if (temp != null) {
-						map.put(fieldName, temp);
-					}
+			for (Property getter : getAccessors(object.getClass()).getters) {
+				Object value = getter.get(object);
+				// known basic, no need to find out what it is
+				Object temp = getter.basic ? (depth + 1 > depthLimit ? null : value)
+						: innerObjectCastMap(value, depthLimit, depth + 1);
+				if (temp != null) {
+					map.put(getter.name, temp);
 				}
 			}
 			return map;
@@ -347,6 +354,8 @@ public abstract class Caster extends NonCloneableBaseObject {
 	public final static boolean isJavaArrayType(Class<?> targetClass) {
 		if (targetClass == null)
 			throw new NullPointerException("Parameter targetClass is null");
+		if (!targetClass.isArray())
+			return false;
 		if (targetClass.getName().matches("^\\[L[a-zA-Z0-9_.]*;$"))
 			return true;
 		else
@@ -588,4 +597,175 @@ public abstract class Caster extends NonCloneableBaseObject {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * A getter or setter bound to a method handle, so calling it costs no
+	 * reflective lookup or access check
+	 */
+	private static final class Property {
+		final String name;
+		final Class<?> type;
+		final MethodHandle handle;
+		// values are always basic type, subclasses of Date are not
+		final boolean basic;
+
+		Property(String name, Class<?> type, MethodHandle handle) {
+			this.name = name;
+			this.type = type;
+			this.handle = handle;
+			this.basic = isBasicType(type) && (type.isPrimitive() || Modifier.isFinal(type.getModifiers()));
+		}
+
+		Object get(Object owner) {
+			try {
+				return (Object) handle.invokeExact(owner);
+			} catch (Throwable t) {
+				throw new LYException("Cannot invoke getter of [" + name + "] for " + owner.getClass(), t);
+			}
+		}
+
+		/**
+		 * Same conversions as {@link Utils#setter(Object, Method, Object)}
+		 */
+		@SuppressWarnings("rawtypes")
+		void set(Object owner, Object param) {
+			Object value;
+			Class<?> originalClass = param.getClass();
+			if (type.isAssignableFrom(originalClass))
+				value = param;
+			else if (isGenericArrayType(originalClass) && isGenericArrayType(type))
+				value = param instanceof Collection ? arrayTypeCast((Collection) param, type) : arrayTypeCast((Object[]) param, type);
+			else if (isBasicType(originalClass) && isBasicType(type))
+				value = simpleCast(param, type);
+			else
+				throw new LYException("Cannot convert param from [" + originalClass + "] to [" + type + "]");
+			try {
+				handle.invokeExact(owner, value);
+			} catch (Throwable t) {
+				throw new LYException("Cannot invoke setter[" + name + "] for " + owner.getClass(), t);
+			}
+		}
+	}
+
+	/**
+	 * Constructor, getters and setters of a class
+	 */
+	private static final class Accessors {
+		private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+		final Class<?> type;
+		final MethodHandle constructor;
+		final List<Property> getters = new ArrayList<Property>();
+		final Map<String, Property[]> setters = new HashMap<String, Property[]>();
+
+		Accessors(Class<?> type) {
+			this.type = type;
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle handle = null;
+			try {
+				Constructor<?> c = type.getDeclaredConstructor();
+				c.setAccessible(true);
+				handle = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+			} catch (Exception e) {
+				// no usable default constructor, newInstance() reports it
+			}
+			constructor = handle;
+			// getters, public only
+			for (Method method : type.getMethods()) {
+				if (method.getParameterTypes().length != 0 || method.isBridge() || method.getReturnType() == void.class)
+					continue;
+				String fieldName = fieldName(method.getName(), "get");
+				if (fieldName == null)
+					fieldName = fieldName(method.getName(), "is");
+				if (fieldName == null || fieldName.equals("class"))
+					continue;
+				MethodHandle getter = unreflect(lookup, method);
+				if (getter != null)
+					getters.add(new Property(fieldName, method.getReturnType(), getter.asType(GETTER)));
+			}
+			// setters, declared ones and public inherited ones
+			Set<Method> methods = new HashSet<Method>();
+			methods.addAll(Arrays.asList(type.getDeclaredMethods()));
+			methods.addAll(Arrays.asList(type.getMethods()));
+			Map<String, List<Property>> found = new HashMap<String, List<Property>>();
+			for (Method method : methods) {
+				if (method.getParameterTypes().length != 1 || method.isBridge() || Modifier.isStatic(method.getModifiers()))
+					continue;
+				String fieldName = fieldName(method.getName(), "set");
+				if (fieldName == null)
+					continue;
+				MethodHandle setter = unreflect(lookup, method);
+				if (setter == null)
+					continue;
+				List<Property> list = found.get(fieldName);
+				if (list == null) {
+					list = new ArrayList<Property>();
+					found.put(fieldName, list);
+				}
+				list.add(new Property(method.getName(), method.getParameterTypes()[0], setter.asType(SETTER)));
+			}
+			for (Map.Entry<String, List<Property>> entry : found.entrySet())
+				setters.put(entry.getKey(), entry.getValue().toArray(new Property[entry.getValue().size()]));
+		}
+
+		private static String fieldName(String methodName, String prefix) {
+			int length = prefix.length();
+			if (methodName.length() <= length || !methodName.startsWith(prefix)
+					|| !Character.isUpperCase(methodName.charAt(length)))
+				return null;
+			return methodName.substring(length, length + 1).toLowerCase() + methodName.substring(length + 1);
+		}
+
+		private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method method) {
+			try {
+				method.setAccessible(true);
+			} catch (Exception e) {
+				// public member of a public class is still reachable
+			}
+			try {
+				return lookup.unreflect(method);
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+
+		Object newInstance() throws Exception {
+			if (constructor == null)
+				return type.getDeclaredConstructor().newInstance();
+			try {
+				return (Object) constructor.invokeExact();
+			} catch (Throwable t) {
+				throw new LYException("Cannot create instance of " + type, t);
+			}
+		}
+
+		/**
+		 * @param fieldName
+		 * @param paramClass
+		 * @return
+		 * setter taking exactly paramClass if any, else a compatible one, else
+		 * any setter of this field, null if none
+		 */
+		Property getSetter(String fieldName, Class<?> paramClass) {
+			if (fieldName.isEmpty())
+				return null;
+			// indexed as fieldName() built it, "Name" and "name" both mean setName()
+			if (Character.isUpperCase(fieldName.charAt(0)))
+				fieldName = fieldName.substring(0, 1).toLowerCase() + fieldName.substring(1);
+			Property[] candidates = setters.get(fieldName);
+			if (candidates == null)
+				return null;
+			if (candidates.length == 1)
+				return candidates[0];
+			Property compatible = null;
+			for (Property candidate : candidates) {
+				if (candidate.type == paramClass)
+					return candidate;
+				if (compatible == null && candidate.type.isAssignableFrom(paramClass))
+					compatible = candidate;
+			}
+			return compatible == null ? candidates[0] : compatible;
+		}
+	}
+
+}
\ No newline at end of file
@@ -3,18 +3,26 @@ package net.vicp.lylab.utils;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.ConfigListener;
 import net.vicp.lylab.core.interfaces.Initializable;
 import net.vicp.lylab.core.model.Pair;
 
@@ -70,6 +78,27 @@ import net.vicp.lylab.core.model.Pair;
  * <br>Entry will split itself with first equal sign("="), more equal sign(=) will be regard as String inside of value;
  * <br>Key may start with function mark "$"/"*"/"^"/"[]"/"$", itself contains underline, number or alphabet(case-sensitive);
  * <br>value start with function mark "&" will be regard as "Object reference"(see <b>Object mark</b>), but itself may contain any visible character INCLUDE "&";
+ * <br>
+ * <br><b>Snapshot:</b> entries are read from an immutable snapshot, which is
+ * replaced as a whole when {@link #reload()} finishes. Readers never wait for
+ * a reload and see either all old entries or all new ones, each lookup is one
+ * hash probe. Typed value of numbers/booleans is worked out at load, other
+ * typed values on first access.
+ * <br>
+ * <br><b>Reload:</b> an object(* mark) is kept by {@link #reload()} if its
+ * class, parameters(^ mark) and the objects they reference are all the same,
+ * it's neither closed nor initialized again. If it implements
+ * {@link ConfigListener}, it's kept as well when only plain parameters
+ * changed, they're set on it once the whole reload succeeded. Changed and removed ones are
+ * closed only once the whole reload succeeded, so a new instance is made while
+ * the old one is still in use. A failed reload closes what it made and
+ * changes nothing in use. Sub-configs are reloaded the same way and put in use
+ * along with their parent. Then every {@link ConfigListener}, added or made
+ * by this config, is told which keys changed. See {@link ConfigWatcher} to
+ * reload once files are modified.
+ * <br>
+ * <br><b>Startup trace:</b> with -Dlylab.startupTrace=true, time spent on each
+ * line and each initialization is logged after load, slowest first.
  * 
  * @author Young
  * @since 2015.07.29
@@ -81,7 +110,9 @@ public final class Config extends NonCloneableBaseObject {
 	// Further multi-switch support will base on grammar "Key@switch:value=Value"
 
 	private transient String fileName;
+	// working map while loading, snapshot is what readers see
 	private Map<String, Object> dataMap;
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
 //	private Map<String, String> switches;
 	private String globalSwitch = null;
 	private Map<String, Boolean> watchList = new HashMap<String, Boolean>();
@@ -95,9 +126,21 @@ public final class Config extends NonCloneableBaseObject {
 	private transient Stack<String> fileNameTrace;
 	private transient List<Pair<String, String>> properties = new ArrayList<Pair<String, String>>();
 	private transient List<Pair<String, String>> lazyLoad = new ArrayList<Pair<String, String>>();
+	// objects made by this config and how, to tell what a reload may keep
+	private transient Map<String, Object> owned = new HashMap<String, Object>();
+	private transient Map<String, Definition> definitions = new HashMap<String, Definition>();
+	private transient Map<String, Config> subConfigs = new HashMap<String, Config>();
+	// reload in progress, objects it made count as owned
+	private transient Reload loading;
+	private transient CopyOnWriteArrayList<ConfigListener> listeners = new CopyOnWriteArrayList<ConfigListener>();
 
 	public static final String VALID_NAME = "(([*^!]|\\[\\]|\\$\\+|\\$)[_\\w]*)|(([*^!]|\\[\\]|\\$\\+|\\$)[_\\w]*:[_\\w]*)|([_\\w]*:[_\\w]*)|([_\\w]*)";
 	public static final String VALID_VALUE = "([&][^&]*)|([^&]*)";
+	private static final Pattern NAME_PATTERN = Pattern.compile(VALID_NAME);
+	private static final Pattern VALUE_PATTERN = Pattern.compile(VALID_VALUE);
+
+	// what took time during load, null unless CoreDef.startupTrace
+	private transient List<Pair<String, Long>> trace;
 
 	public static final Map<String, Integer> keySortRule = new HashMap<String, Integer>();
 	public static final Map<String, Integer> valueSortRule = new HashMap<String, Integer>();
@@ -138,63 +181,268 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	/**
-	 * You may reload your configuration manually, it will close all current 'opened' object.
-	 * <br>[!]If you keep a Strong-Reference to an 'opened' Object, keep using it may result in an exception.
+	 * You may reload your configuration manually, objects whose definition changed will be closed and made again.
+	 * <br>[!]If you keep a Strong-Reference to such an Object, keep using it may result in an exception.
 	 * @param fileName
 	 */
 	public synchronized void reload(String newFileName) {
-		fileName = newFileName;
-		reload();
+		Reload reload = prepare(newFileName);
+		if (reload != null)
+			commit(reload);
 	}
 
 	/**
-	 * You may reload your configuration manually, it will close all current 'opened' object.
-	 * <br>[!]If you keep a Strong-Reference to an 'opened' Object, keep using it may result in an exception.
+	 * You may reload your configuration manually, objects whose definition changed will be closed and made again.
+	 * <br>[!]If you keep a Strong-Reference to such an Object, keep using it may result in an exception.
 	 */
 	public synchronized void reload() {
+		reload(fileName);
+	}
+
+	/**
+	 * What a reload has made but not put in use yet, and what it replaced to
+	 * put back if it fails
+	 */
+	private static final class Reload {
+		final Config config;
+		final Snapshot previous;
+		final String fileName;
+		final Map<String, Object> dataMap;
+		final List<String> keyList;
+		final String globalSwitch;
+		final int mode;
+		final Map<String, Object> owned = new HashMap<String, Object>();
+		final Map<String, Definition> definitions = new HashMap<String, Definition>();
+		final Map<String, Config> subConfigs = new HashMap<String, Config>();
+		// loaded sub-configs, put in use along with this one
+		final List<Reload> subReloads = new ArrayList<Reload>();
+		long begin;
+
+		Reload(Config config) {
+			this.config = config;
+			previous = config.snapshot;
+			fileName = config.fileName;
+			dataMap = config.dataMap;
+			keyList = config.keyList;
+			globalSwitch = config.globalSwitch;
+			mode = config.mode;
+		}
+	}
+
+	/**
+	 * Load file into working map and make its objects, nothing in use is
+	 * replaced or closed. If it fails, what it made is closed and working map
+	 * is put back
+	 * @return
+	 * reload to commit, null if there is no file to load
+	 */
+	private synchronized Reload prepare(String newFileName) {
+		Reload reload = new Reload(this);
+		fileName = newFileName;
 		if (fileName == null)
-			return;
+			return null;
 		// file trace tree
 		fileNameTrace.push(fileName);
-		// initial
-		deepClose();
-		// access globalSwitch from parent
-		if (parent != null)
-			globalSwitch = parent.globalSwitch;
-		// load key/value for loader
-		rawLoader();
-		for (int i = 0; i < properties.size(); i++) {
-			Pair<String, String> property = properties.get(i);
-			try {
-				String propertyName = property.getLeft();
-				// skip # and empty entry
-				if (propertyName.equals("") || propertyName.startsWith("#"))
-					continue;
-				// mode define
-				if (i == 0 && property.getRight() == null) {
-					if (propertyName.equals("[TREE]"))
-						mode = 0;
-					if (propertyName.equals("[PLAIN]"))
-						mode = 1;
-					continue;
+		loading = reload;
+		try {
+			// initial, readers keep the old snapshot until the new one is ready
+			lazyLoad.clear();
+			properties.clear();
+			dataMap = new ConcurrentHashMap<String, Object>();
+			keyList = new ArrayList<String>();
+			globalSwitch = null;
+			// access globalSwitch from parent
+			if (parent != null)
+				globalSwitch = parent.globalSwitch;
+			trace = CoreDef.startupTrace ? new ArrayList<Pair<String, Long>>() : null;
+			reload.begin = System.nanoTime();
+			// load key/value for loader
+			rawLoader();
+			for (int i = 0; i < properties.size(); i++) {
+				Pair<String, String> property = properties.get(i);
+				try {
+					String propertyName = property.getLeft();
+					// skip # and empty entry
+					if (propertyName.equals("") || propertyName.startsWith("#"))
+						continue;
+					// mode define
+					if (i == 0 && property.getRight() == null) {
+						if (propertyName.equals("[TREE]"))
+							mode = 0;
+						if (propertyName.equals("[PLAIN]"))
+							mode = 1;
+						continue;
+					}
+					// lazy load or instant load
+					if (isLazyLoad(property))
+						insertLazyLoad(property);
+					else
+						putToMap(dataMap, propertyName, property.getRight());
+				} catch (Exception e) {
+					throw new LYException("Failed to load config file[" + fileName
+							+ "] at line [" + getLine(property) + "]", e);
 				}
-				// lazy load or instant load
-				if (isLazyLoad(property))
-					insertLazyLoad(property);
-				else
-					putToMap(dataMap, propertyName, property.getRight());
-			} catch (Exception e) {
-				throw new LYException("Failed to load config file[" + fileName
-						+ "] at line [" + getLine(property) + "]", e);
 			}
+			if (trace != null)
+				trace.add(new Pair<String, Long>("read and parse", System.nanoTime() - reload.begin));
+			if (!lazyLoad.isEmpty())
+				lazyLoad(reload);
+			if(watchList.containsValue(false))
+				for (String key : watchList.keySet())
+					if (!watchList.get(key))
+						throw new LYException("Config file[" + fileName + "] contains undefined switch values:" + key);
+			return reload;
+		} catch (Throwable t) {
+			rollback(reload);
+			throw t;
+		} finally {
+			loading = null;
+			fileNameTrace.pop();
+		}
+	}
+
+	/**
+	 * Put a prepared reload in use, then close objects and sub-configs it
+	 * replaced or removed
+	 */
+	private synchronized void commit(Reload reload) {
+		for (Reload subReload : reload.subReloads)
+			subReload.config.commit(subReload);
+		Map<String, Object> oldOwned = owned;
+		Map<String, Config> oldSubConfigs = subConfigs;
+		owned = reload.owned;
+		definitions = reload.definitions;
+		subConfigs = reload.subConfigs;
+		snapshot = new Snapshot(dataMap, keyList);
+		Set<String> tuned = new HashSet<String>();
+		for (Map.Entry<String, Definition> e : definitions.entrySet())
+			if (!e.getValue().tuned.isEmpty()) {
+				tune(e.getKey(), owned.get(e.getKey()), e.getValue().tuned);
+				tuned.add(e.getKey());
+			}
+		// what's left is changed or removed from config file
+		Set<Object> kept = identitySet(owned.values());
+		for (Object obj : oldOwned.values())
+			if (!kept.contains(obj))
+				close(obj);
+		kept = identitySet(subConfigs.values());
+		for (Config config : oldSubConfigs.values())
+			if (!kept.contains(config))
+				config.deepClose();
+		if (trace != null) {
+			log.info(traceReport(System.nanoTime() - reload.begin));
+			trace = null;
+		}
+		if (reload.previous != Snapshot.EMPTY)
+			fireChanged(reload.previous, snapshot, tuned);
+	}
+
+	/**
+	 * Set changed plain parameters on a kept object, it's told right after
+	 */
+	private void tune(String name, Object obj, List<Pair<String, String>> parameters) {
+		log.info("[Tune]:" + name + " " + parameters);
+		for (Pair<String, String> parameter : parameters)
+			try {
+				Utils.setter(obj, parameter.getLeft(), parameter.getRight());
+			} catch (Throwable t) {
+				log.error("Unable to set " + parameter.getLeft() + " on " + name + ":" + Utils.getStringFromThrowable(t));
+			}
+	}
+
+	/**
+	 * Close what a failed reload has made and put working map back, objects
+	 * in use are untouched
+	 */
+	private synchronized void rollback(Reload reload) {
+		for (Reload subReload : reload.subReloads)
+			subReload.config.rollback(subReload);
+		Set<Object> inUse = identitySet(owned.values());
+		for (Object obj : reload.owned.values())
+			if (!inUse.contains(obj))
+				close(obj);
+		fileName = reload.fileName;
+		dataMap = reload.dataMap;
+		keyList = reload.keyList;
+		globalSwitch = reload.globalSwitch;
+		mode = reload.mode;
+		trace = null;
+	}
+
+	private static Set<Object> identitySet(Collection<?> objects) {
+		Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		set.addAll(objects);
+		return set;
+	}
+
+	private String traceReport(long total) {
+		Collections.sort(trace, new Comparator<Pair<String, Long>>() {
+			@Override
+			public int compare(Pair<String, Long> a, Pair<String, Long> b) {
+				return b.getRight().compareTo(a.getRight());
+			}
+		});
+		StringBuilder sb = new StringBuilder("Config file[" + fileName + "] loaded in " + total / 1000000L + " ms");
+		for (int i = 0; i < trace.size() && i < CoreDef.TWENTY; i++)
+			sb.append("\n\t").append(trace.get(i).getRight() / 1000L).append(" us - ").append(trace.get(i).getLeft());
+		return sb.toString();
+	}
+
+	/**
+	 * Tell listeners which keys are added, removed, given another value or
+	 * had their objects tuned
+	 */
+	private void fireChanged(Snapshot previous, Snapshot current, Set<String> tuned) {
+		Set<String> changed = new HashSet<String>(tuned);
+		for (Map.Entry<String, Entry> e : current.entries.entrySet()) {
+			Entry old = previous.entries.get(e.getKey());
+			Object value = e.getValue().value;
+			if (old == null || old.value != value && (value instanceof Config || !value.equals(old.value)))
+				changed.add(e.getKey());
+		}
+		for (String key : previous.entries.keySet())
+			if (!current.entries.containsKey(key))
+				changed.add(key);
+		if (changed.isEmpty())
+			return;
+		log.info("Config file[" + fileName + "] changed:" + changed);
+		changed = Collections.unmodifiableSet(changed);
+		List<ConfigListener> all = new ArrayList<ConfigListener>(listeners);
+		for (Object obj : owned.values())
+			if (obj instanceof ConfigListener && !all.contains(obj))
+				all.add((ConfigListener) obj);
+		for (ConfigListener listener : all)
+			try {
+				listener.configChanged(this, changed);
+			} catch (Throwable t) {
+				log.error("Config listener failed:" + Utils.getStringFromThrowable(t));
+			}
+	}
+
+	/**
+	 * Add a listener, once only however many times it's added
+	 */
+	public void addListener(ConfigListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(ConfigListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return
+	 * file of this config and all its sub-configs
+	 */
+	public List<String> fileList() {
+		List<String> files = new ArrayList<String>();
+		synchronized (this) {
+			if (fileName != null)
+				files.add(fileName);
+			for (Config config : subConfigs.values())
+				files.addAll(config.fileList());
 		}
-		if (!lazyLoad.isEmpty())
-			lazyLoad();
-		if(watchList.containsValue(false))
-			for (String key : watchList.keySet())
-				if (!watchList.get(key))
-					throw new LYException("Config file[" + fileName + "] contains undefined switch values:" + key);
-		fileNameTrace.pop();
+		return files;
 	}
 	
 	/**
@@ -204,18 +452,7 @@ public final class Config extends NonCloneableBaseObject {
 	 */
 	public void deepClose() {
 		synchronized (lock) {
-			for (String key : dataMap.keySet()) {
-				Object tmp = dataMap.get(key);
-				if (tmp instanceof AutoCloseable)
-					try {
-						((AutoCloseable) tmp).close();
-						log.info(tmp.getClass().getSimpleName() + " - Closed");
-					} catch (Throwable t) {
-						log.error(tmp.getClass().getSimpleName() + " - Close failed:" + Utils.getStringFromThrowable(t));
-					}
-				else if (tmp instanceof Config)
-					((Config) tmp).deepClose();
-			}
+			closeOpened();
 			// clear old data
 			lazyLoad.clear();
 			properties.clear();
@@ -223,6 +460,35 @@ public final class Config extends NonCloneableBaseObject {
 			dataMap.clear();
 			keyList.clear();
 			globalSwitch = null;
+			snapshot = Snapshot.EMPTY;
+		}
+	}
+
+	private void closeOpened() {
+		synchronized (lock) {
+			for (String key : dataMap.keySet()) {
+				Object tmp = dataMap.get(key);
+				if (tmp instanceof AutoCloseable)
+					close(tmp);
+				else if (tmp instanceof Config)
+					((Config) tmp).deepClose();
+			}
+			for (Config config : subConfigs.values())
+				config.deepClose();
+			owned.clear();
+			definitions.clear();
+			subConfigs.clear();
+		}
+	}
+
+	private void close(Object obj) {
+		if (!(obj instanceof AutoCloseable))
+			return;
+		try {
+			((AutoCloseable) obj).close();
+			log.info(obj.getClass().getSimpleName() + " - Closed");
+		} catch (Throwable t) {
+			log.error(obj.getClass().getSimpleName() + " - Close failed:" + Utils.getStringFromThrowable(t));
 		}
 	}
 
@@ -299,14 +565,108 @@ public final class Config extends NonCloneableBaseObject {
 		return signal;
 	}
 
-	private void lazyLoad() {
+	/**
+	 * How an object(* mark) is made: its own line and its parameter lines,
+	 * with what their references pointed to
+	 */
+	private static final class Definition {
+		final StringBuilder text = new StringBuilder();
+		// text without values of plain parameters
+		final StringBuilder shape = new StringBuilder();
+		final List<Pair<String, String>> values = new ArrayList<Pair<String, String>>();
+		final List<String> references = new ArrayList<String>();
+		Object[] resolved;
+		// plain parameters to set on kept instance
+		final List<Pair<String, String>> tuned = new ArrayList<Pair<String, String>>();
+	}
+
+	private Map<String, Definition> define() {
+		Map<String, Definition> defined = new HashMap<String, Definition>();
+		Definition current = null;
+		for (Pair<String, String> property : lazyLoad) {
+			String rule = checkLazyLoadMinRule(property);
+			if (rule.equals("*")) {
+				current = new Definition();
+				defined.put(property.getLeft().substring(1), current);
+			} else if (!rule.equals("^") || current == null)
+				continue;
+			current.text.append(property.getLeft()).append('=').append(property.getRight()).append('\n');
+			if (property.getRight().startsWith("&"))
+				current.references.add(property.getRight().substring(1));
+			if (rule.equals("^") && !property.getRight().startsWith("&")) {
+				current.shape.append(property.getLeft()).append("=\n");
+				current.values.add(new Pair<String, String>(property.getLeft().substring(1), property.getRight()));
+			} else
+				current.shape.append(property.getLeft()).append('=').append(property.getRight()).append('\n');
+		}
+		return defined;
+	}
+
+	/**
+	 * @return
+	 * current value of each reference, null if any can't be found yet
+	 */
+	private Object[] resolve(Definition definition) {
+		Object[] resolved = new Object[definition.references.size()];
+		try {
+			for (int i = 0; i < resolved.length; i++)
+				resolved[i] = searchObjectReference(definition.references.get(i));
+		} catch (Exception e) {
+			return null;
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return
+	 * old instance if nothing it's made from has changed, or only plain
+	 * parameters of a {@link ConfigListener} did, otherwise null
+	 */
+	private Object keep(Object old, Definition before, Definition now) {
+		if (old == null || before == null || !before.shape.toString().equals(now.shape.toString()))
+			return null;
+		boolean same = before.text.toString().equals(now.text.toString());
+		if (!same && !(old instanceof ConfigListener))
+			return null;
+		Object[] resolved = resolve(now);
+		if (resolved == null || before.resolved == null || resolved.length != before.resolved.length)
+			return null;
+		for (int i = 0; i < resolved.length; i++)
+			if (resolved[i] != before.resolved[i]
+					&& !(resolved[i] instanceof String && resolved[i].equals(before.resolved[i])))
+				return null;
+		if (!same)
+			for (int i = 0; i < now.values.size(); i++)
+				if (!now.values.get(i).getRight().equals(before.values.get(i).getRight()))
+					now.tuned.add(now.values.get(i));
+		now.resolved = resolved;
+		return old;
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if obj is made by this config or its parents
+	 */
+	private boolean isOwned(Object obj) {
+		for (Config config = this; config != null; config = config.parent)
+			for (Object value : (config.loading == null ? config.owned : config.loading.owned).values())
+				if (value == obj)
+					return true;
+		return false;
+	}
+
+	private void lazyLoad(Reload reload) {
 		List<Object> lazyInitialize = new ArrayList<>();
+		Map<String, Definition> defined = define();
 		Object lastObject = null;
+		// parameters of a kept object are set already, or on commit
+		boolean kept = false;
 		Pair<String, String> property = null;
 		try {
 			for (int i = 0; i < lazyLoad.size(); i++) {
 				property = lazyLoad.get(i);
 				log.debug("[Execute]:" + property);
+				long start = trace == null ? 0L : System.nanoTime();
 				String propertyName = property.getLeft();
 				String propertyValue = property.getRight();
 				String rule = checkLazyLoadMinRule(property);
@@ -339,16 +699,19 @@ public final class Config extends NonCloneableBaseObject {
 						propertyRealName = propertyRealName.substring(1);
 						inputMode = 1;
 					}
+					// reload in place, so it keeps its unchanged objects
+					config = subConfigs.get(realFileName);
+					if (config == null || reload.subConfigs.containsKey(realFileName))
+						config = new Config(null, fileNameTrace, this);
+					reload.subConfigs.put(realFileName, config);
 					switch (inputMode) {
 					case 0:
-						config = new Config(null, fileNameTrace, this);
 						putToMap(dataMap, propertyRealName, config);
 						// add reference before load, if load failed, reference still exists
-						config.reload(realFileName);
+						reload.subReloads.add(config.prepare(realFileName));
 						break;
 					case 1:
-						config = new Config(null, fileNameTrace, this);
-						config.reload(realFileName);
+						reload.subReloads.add(config.prepare(realFileName));
 						// read after load, or nothing could be obtained
 						readFromConfig(dataMap, config);
 						break;
@@ -360,15 +723,27 @@ public final class Config extends NonCloneableBaseObject {
 				case "*": {
 					// object reference
 					String propertyRealName = propertyName.substring(1);
-					Object target = null;
-					if (propertyValue.startsWith("&")) {
-						Object obj = searchObjectReference(propertyValue.substring(1));
-						target = obj;
-					} else {
-						target = Class.forName(propertyValue).newInstance();
+					Definition definition = defined.get(propertyRealName);
+					Object old = owned.get(propertyRealName);
+					Object target = keep(old, definitions.get(propertyRealName), definition);
+					kept = target != null;
+					if (kept)
+						log.debug("[Keep]:" + propertyRealName);
+					else {
+						if (propertyValue.startsWith("&"))
+							target = searchObjectReference(propertyValue.substring(1));
+						else
+							target = Class.forName(propertyValue).newInstance();
+						definition.resolved = resolve(definition);
+						// its owner initialize it
+						if (!isOwned(target))
+							lazyInitialize.add(target);
+					}
+					if (!propertyValue.startsWith("&")) {
+						reload.owned.put(propertyRealName, target);
+						reload.definitions.put(propertyRealName, definition);
 					}
 					putToMap(dataMap, propertyRealName, target);
-					lazyInitialize.add(target);
 					lastObject = target;
 				}
 					break;
@@ -390,6 +765,8 @@ public final class Config extends NonCloneableBaseObject {
 				}
 					break;
 				case "^": {
+					if (kept)
+						break;
 					// object parameter reference
 					String propertyRealName = propertyName.substring(1);
 					if (propertyValue.startsWith("&")) {
@@ -414,14 +791,20 @@ public final class Config extends NonCloneableBaseObject {
 				default:
 					throw new LYException("Unsupported grammar on property name:" + propertyName);
 				}
+				if (trace != null)
+					trace.add(new Pair<String, Long>("line " + getLine(property) + ": " + propertyName + "=" + propertyValue,
+							System.nanoTime() - start));
 			}
 			for(Object obj:lazyInitialize)
 				if(obj instanceof Initializable)
 				{
 //					try {
 					log.info(obj.getClass().getSimpleName() + " - Initializing");
+					long start = trace == null ? 0L : System.nanoTime();
 						((Initializable) obj).initialize();
 						log.info(obj.getClass().getSimpleName() + " - Initialized");
+					if (trace != null)
+						trace.add(new Pair<String, Long>("initialize " + obj.getClass().getName(), System.nanoTime() - start));
 //					} catch (Throwable t) {
 //						log.error(Utils.getStringFromThrowable(t));
 //					}
@@ -445,7 +828,7 @@ public final class Config extends NonCloneableBaseObject {
 			obj = root.dataMap.get(propertyRealValue);
 			if (obj != null || root.parent == null)
 				break;
-			root = parent;
+			root = root.parent;
 		}
 		if (obj == null)
 			throw new LYException("Cannot find reference [" + propertyRealValue + "] in this Config or parent Config");
@@ -522,10 +905,8 @@ public final class Config extends NonCloneableBaseObject {
 	private void rawLoader() {
 		List<String> rawList = Utils.readFileByLines(fileName, false, false);
 		for (int i = 0; i < rawList.size(); i++) {
-			// Trim
-			String rawPair = rawList.get(i).replaceAll("([\\s\b\\u0000-\\u0020]*)", "");
-			// Remove comment
-			rawPair = rawPair.replaceAll("([#][\\S\\s\b\\u0000-\\u0020]*)", "");
+			// Trim and remove comment
+			String rawPair = strip(rawList.get(i));
 
 			String[] pair = rawPair.split("=", 2);
 			if (pair.length == 1) {
@@ -545,7 +926,7 @@ public final class Config extends NonCloneableBaseObject {
 						+ Arrays.deepToString(pair));
 				properties.add(new Pair<String, String>("", null));
 			} else {
-				if(pair[0].matches(VALID_NAME) && pair[1].matches(VALID_VALUE))
+				if(NAME_PATTERN.matcher(pair[0]).matches() && VALUE_PATTERN.matcher(pair[1]).matches())
 					properties.add(new Pair<String, String>(pair[0], pair[1]));
 				else
 					log.error("Ignored bad property [" + rawPair
@@ -554,9 +935,33 @@ public final class Config extends NonCloneableBaseObject {
 		}
 	}
 
+	/**
+	 * @return
+	 * line without blank characters(up to '\u0020') and anything from '#'
+	 */
+	private static String strip(String line) {
+		StringBuilder sb = null;
+		int length = line.length();
+		for (int i = 0; i < length; i++) {
+			char c = line.charAt(i);
+			if (c == '#') {
+				if (sb == null)
+					return line.substring(0, i);
+				break;
+			}
+			if (c <= '\u0020') {
+				if (sb == null)
+					sb = new StringBuilder(length).append(line, 0, i);
+			} else if (sb != null)
+				sb.append(c);
+		}
+		return sb == null ? line : sb.toString();
+	}
+
 	private void readFromConfig(Map<String, Object> container, Config other) {
-		for (String key : other.keyList())
-			putToMap(container, key, other.getProperty(key));
+		// loaded but not in use yet
+		for (String key : other.keyList)
+			putToMap(container, key, other.dataMap.get(key));
 	}
 
 	private void putToMap(Map map, String key, Object value) {
@@ -586,13 +991,13 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public List<String> keyList() {
-		return new ArrayList<String>(keyList);
+		return new ArrayList<String>(snapshot.keyList);
 	}
 
 	public boolean containsKey(String key) {
 		if (key == null)
 			throw new NullPointerException("Key is null");
-		return dataMap.containsKey(key);
+		return snapshot.entries.containsKey(key);
 	}
 
 	/**
@@ -602,12 +1007,16 @@ public final class Config extends NonCloneableBaseObject {
 	 * LYException Generally means given key pairs no value.
 	 */
 	private Object getProperty(String key) {
+		return getEntry(key).value;
+	}
+
+	private Entry getEntry(String key) {
 		if (key == null)
 			throw new LYException("Key is null");
-		Object tmp = dataMap.get(key);
-		if (tmp == null)
+		Entry entry = snapshot.entries.get(key);
+		if (entry == null)
 			throw new LYException("Entry[" + key + "] not found in your config file[" + fileName + "]");
-		return tmp;
+		return entry;
 	}
 	
 	/**
@@ -715,13 +1124,18 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final String getString(String key) {
-		return getProperty(key).toString();
+		return getEntry(key).string();
 	}
 
 	public final Short getShort(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Short)
+			return (Short) entry.typed;
+		String value = entry.string();
 		try {
-			return Short.valueOf(value);
+			Short typed = Short.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -729,9 +1143,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Integer getInteger(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Integer)
+			return (Integer) entry.typed;
+		String value = entry.string();
 		try {
-			return Integer.valueOf(value);
+			Integer typed = Integer.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -739,9 +1158,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Long getLong(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Long)
+			return (Long) entry.typed;
+		String value = entry.string();
 		try {
-			return Long.valueOf(value);
+			Long typed = Long.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -749,9 +1173,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Float getFloat(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Float)
+			return (Float) entry.typed;
+		String value = entry.string();
 		try {
-			return Float.valueOf(value);
+			Float typed = Float.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -759,9 +1188,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Double getDouble(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Double)
+			return (Double) entry.typed;
+		String value = entry.string();
 		try {
-			return Double.valueOf(value);
+			Double typed = Double.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -769,9 +1203,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Boolean getBoolean(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Boolean)
+			return (Boolean) entry.typed;
+		String value = entry.string();
 		try {
-			return Boolean.valueOf(value);
+			Boolean typed = Boolean.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -779,9 +1218,14 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Byte getByte(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Byte)
+			return (Byte) entry.typed;
+		String value = entry.string();
 		try {
-			return Byte.valueOf(value);
+			Byte typed = Byte.valueOf(value);
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
@@ -789,15 +1233,93 @@ public final class Config extends NonCloneableBaseObject {
 	}
 
 	public final Character getCharacter(String key) {
-		String value = getString(key);
+		Entry entry = getEntry(key);
+		if (entry.typed instanceof Character)
+			return (Character) entry.typed;
+		String value = entry.string();
 		try {
-			return Character.valueOf(value.charAt(0));
+			Character typed = Character.valueOf(value.charAt(0));
+			entry.typed = typed;
+			return typed;
 		} catch (Exception e) {
 			throw new LYException("Convert entry[" + key + "] value[" + value
 					+ "] failed", e);
 		}
 	}
 
+	/**
+	 * Immutable view of loaded entries
+	 */
+	private static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(Collections.<String, Object> emptyMap(), Collections.<String> emptyList());
+
+		final Map<String, Entry> entries;
+		final List<String> keyList;
+
+		Snapshot(Map<String, Object> dataMap, List<String> keyList) {
+			Map<String, Entry> entries = new HashMap<String, Entry>(dataMap.size() * 4 / 3 + 1);
+			for (Map.Entry<String, Object> e : dataMap.entrySet())
+				entries.put(e.getKey(), new Entry(e.getValue()));
+			this.entries = entries;
+			this.keyList = Collections.unmodifiableList(new ArrayList<String>(keyList));
+		}
+	}
+
+	/**
+	 * Value of a key, with its string form and last typed form
+	 */
+	private static final class Entry {
+		final Object value;
+		// objects are turned into string only if asked
+		volatile String string;
+		// replaced by each typed getter of another type, any is correct
+		volatile Object typed;
+
+		Entry(Object value) {
+			this.value = value;
+			if (value instanceof String) {
+				string = (String) value;
+				typed = parse(string);
+			} else
+				typed = value;
+		}
+
+		String string() {
+			String s = string;
+			if (s == null)
+				string = s = value.toString();
+			return s;
+		}
+
+		/**
+		 * @return
+		 * Integer, Long or Boolean if the string is one, otherwise null
+		 */
+		private static Object parse(String value) {
+			if ("true".equalsIgnoreCase(value))
+				return Boolean.TRUE;
+			if ("false".equalsIgnoreCase(value))
+				return Boolean.FALSE;
+			int length = value.length();
+			if (length == 0 || length > 19)
+				return null;
+			int i = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+			if (i == length)
+				return null;
+			for (; i < length; i++)
+				if (value.charAt(i) < '0' || value.charAt(i) > '9')
+					return null;
+			try {
+				long l = Long.parseLong(value);
+				if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+					return Integer.valueOf((int) l);
+				return Long.valueOf(l);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Config [dataMap=" + dataMap + ", keyList=" + keyList
@@ -0,0 +1,161 @@
+package net.vicp.lylab.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.LifeCycle;
+import net.vicp.lylab.utils.atomic.AtomicBoolean;
+
+/**
+ * Reload a config once its file or any sub-config file is modified.<br>
+ * Changes are collected until files stay quiet for delay milliseconds, so an
+ * editor saving several times causes one reload. A failed reload is logged
+ * and the config keeps its last snapshot.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.21
+ * @version 1.0.0
+ */
+public class ConfigWatcher extends NonCloneableBaseObject implements LifeCycle {
+
+	protected Config config;
+	protected long delay = CoreDef.DEFAULT_CONFIG_RELOAD_DELAY;
+
+	private AtomicBoolean closed = new AtomicBoolean(true);
+	private WatchService watcher;
+	private final Set<Path> directories = new HashSet<Path>();
+	private final Set<Path> files = new HashSet<Path>();
+	private volatile long reloadCount = 0L;
+
+	public ConfigWatcher() {
+	}
+
+	public ConfigWatcher(Config config) {
+		this.config = config;
+	}
+
+	@Override
+	public void initialize() {
+		if (config == null)
+			throw new LYException("Parameter config is null");
+		if (!closed.compareAndSet(true, false))
+			return;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			watch();
+		} catch (IOException e) {
+			closed.set(true);
+			throw new LYException("Watch config files failed", e);
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "ConfigWatcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Register directories of all config files, sub-configs may be added by
+	 * a reload
+	 */
+	private void watch() throws IOException {
+		files.clear();
+		for (String fileName : config.fileList()) {
+			Path file = new File(fileName).getAbsoluteFile().toPath().normalize();
+			files.add(file);
+			Path directory = file.getParent();
+			if (directory != null && directories.add(directory))
+				directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+		}
+	}
+
+	private void loop() {
+		try {
+			while (!closed.get()) {
+				if (!changed(watcher.take()))
+					continue;
+				// wait until files stay quiet
+				WatchKey key;
+				while ((key = watcher.poll(delay, TimeUnit.MILLISECONDS)) != null)
+					changed(key);
+				try {
+					config.reload();
+					reloadCount++;
+					watch();
+				} catch (Exception e) {
+					log.error("Reload config failed:" + Utils.getStringFromException(e));
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if any config file is touched
+	 */
+	private boolean changed(WatchKey key) {
+		boolean touched = false;
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				touched = true;
+			else if (files.contains(directory.resolve((Path) event.context()).normalize()))
+				touched = true;
+		}
+		key.reset();
+		return touched;
+	}
+
+	@Override
+	public void close() throws Exception {
+		if (!closed.compareAndSet(false, true))
+			return;
+		watcher.close();
+		directories.clear();
+	}
+
+	/**
+	 * @return
+	 * how many reloads were done by this watcher
+	 */
+	public long getReloadCount() {
+		return reloadCount;
+	}
+
+	public Config getConfig() {
+		return config;
+	}
+
+	public void setConfig(Config config) {
+		this.config = config;
+	}
+
+	public long getDelay() {
+		return delay;
+	}
+
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+}
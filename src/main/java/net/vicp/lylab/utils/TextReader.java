@@ -0,0 +1,261 @@
+package net.vicp.lylab.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
+import net.vicp.lylab.utils.permanent.SegmentReader;
+
+/**
+ * Read lines of a file and decode them, batch by batch.<br>
+ * A plain file is memory-mapped and split into chunks at line boundaries,
+ * chunks are decoded in parallel but delivered in order. At most two chunks
+ * per thread are decoded ahead, so memory is bounded however big the file
+ * is. A compressed segment is read block by block.
+ *
+ * @author Young
+ *
+ */
+public final class TextReader extends NonCloneableBaseObject {
+
+	/**
+	 * Decode a line, may be called by several threads at once
+	 */
+	public interface Decoder<T> {
+		/**
+		 * @param line
+		 * @return
+		 * decoded item, null to skip this line
+		 */
+		public T decode(String line);
+	}
+
+	private int chunkSize = CoreDef.DEFAULT_READ_CHUNK_SIZE;
+	private int batchSize = CoreDef.DEFAULT_READ_BATCH_SIZE;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private boolean ignoreEmptyLine = true;
+	private boolean trimResult = true;
+
+	/**
+	 * @param fileName
+	 * @param decoder
+	 * @param consumer receives decoded items in file order
+	 * @return
+	 * how many items were delivered
+	 */
+	public <T> long read(String fileName, Decoder<T> decoder, BatchConsumer<T> consumer) {
+		File file = new File(fileName);
+		if (!file.exists())
+			throw new LYException("File not found:" + fileName);
+		if (!file.isFile())
+			throw new LYException("Given path is not a file:" + fileName);
+		if (SegmentReader.isSegment(file))
+			return readSegment(file, decoder, consumer);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "TextReader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long count = 0L;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel();) {
+			long size = channel.size();
+			Deque<Future<List<T>>> decoding = new ArrayDeque<Future<List<T>>>();
+			long position = 0L;
+			while (position < size) {
+				ByteBuffer chunk = nextChunk(channel, position, size);
+				int length = chunk.remaining();
+				decoding.add(executor.submit(new ChunkDecoder<T>(chunk, position == 0L, decoder)));
+				position += length;
+				if (decoding.size() >= 2 * threadCount)
+					count += deliver(decoding.poll(), consumer);
+			}
+			while (!decoding.isEmpty())
+				count += deliver(decoding.poll(), consumer);
+		} catch (IOException e) {
+			throw new LYException("Read file failed", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return count;
+	}
+
+	/**
+	 * Map from position to the last line end within chunkSize, or further if
+	 * a line is longer than that
+	 */
+	private ByteBuffer nextChunk(FileChannel channel, long position, long size) throws IOException {
+		long length = Math.min(chunkSize, size - position);
+		while (true) {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			if (position + length == size)
+				return mapped;
+			for (int i = (int) length - 1; i >= 0; i--)
+				if (mapped.get(i) == '\n') {
+					mapped.limit(i + 1);
+					return mapped;
+				}
+			length = Math.min(length * 2, size - position);
+			if (length > Integer.MAX_VALUE)
+				throw new LYException("Line is too long");
+		}
+	}
+
+	private <T> long deliver(Future<List<T>> future, BatchConsumer<T> consumer) {
+		List<T> items;
+		try {
+			items = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LYException("Read file interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof LYException)
+				throw (LYException) e.getCause();
+			throw new LYException("Decode line failed", e.getCause());
+		}
+		for (int i = 0; i < items.size(); i += batchSize)
+			consumer.consume(items.subList(i, Math.min(items.size(), i + batchSize)));
+		return items.size();
+	}
+
+	private <T> long readSegment(File file, Decoder<T> decoder, BatchConsumer<T> consumer) {
+		long count = 0L;
+		List<T> batch = new ArrayList<T>(batchSize);
+		try (SegmentReader reader = new SegmentReader(file);) {
+			while (reader.hasNext()) {
+				String line = filter(reader.next().getLine());
+				if (line == null)
+					continue;
+				T item = decoder.decode(line);
+				if (item == null)
+					continue;
+				batch.add(item);
+				if (batch.size() >= batchSize) {
+					consumer.consume(batch);
+					count += batch.size();
+					batch = new ArrayList<T>(batchSize);
+				}
+			}
+		} catch (IOException e) {
+			throw new LYException("Read file failed", e);
+		}
+		if (!batch.isEmpty()) {
+			consumer.consume(batch);
+			count += batch.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return
+	 * line to decode, null if ignored
+	 */
+	private String filter(String line) {
+		if (trimResult)
+			line = line.trim();
+		if (ignoreEmptyLine && line.isEmpty())
+			return null;
+		return line;
+	}
+
+	private final class ChunkDecoder<T> implements Callable<List<T>> {
+		private final ByteBuffer chunk;
+		private final boolean head;
+		private final Decoder<T> decoder;
+
+		ChunkDecoder(ByteBuffer chunk, boolean head, Decoder<T> decoder) {
+			this.chunk = chunk;
+			this.head = head;
+			this.decoder = decoder;
+		}
+
+		@Override
+		public List<T> call() {
+			byte[] bytes = new byte[chunk.remaining()];
+			chunk.get(bytes);
+			String text = new String(bytes, Charset.forName(CoreDef.CHARSET()));
+			bytes = null;
+			List<T> items = new ArrayList<T>();
+			int start = 0;
+			// BOM
+			if (head && text.startsWith("\uFEFF"))
+				start = 1;
+			while (start < text.length()) {
+				int end = text.indexOf('\n', start);
+				if (end < 0)
+					end = text.length();
+				int lineEnd = end;
+				if (lineEnd > start && text.charAt(lineEnd - 1) == '\r')
+					lineEnd--;
+				String line = filter(text.substring(start, lineEnd));
+				start = end + 1;
+				if (line == null)
+					continue;
+				T item = decoder.decode(line);
+				if (item != null)
+					items.add(item);
+			}
+			return items;
+		}
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public boolean isIgnoreEmptyLine() {
+		return ignoreEmptyLine;
+	}
+
+	public void setIgnoreEmptyLine(boolean ignoreEmptyLine) {
+		this.ignoreEmptyLine = ignoreEmptyLine;
+	}
+
+	public boolean isTrimResult() {
+		return trimResult;
+	}
+
+	public void setTrimResult(boolean trimResult) {
+		this.trimResult = trimResult;
+	}
+
+}
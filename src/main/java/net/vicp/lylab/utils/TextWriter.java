@@ -3,19 +3,49 @@ package net.vicp.lylab.utils;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
-
+import net.vicp.lylab.utils.permanent.SegmentWriter;
+
+/**
+ * Write lines into files under a path, a file is named by its open time and
+ * renamed from .temp to suffix after maxLine lines or close().<br>
+ * Lines are encoded into a reusable direct buffer and written by
+ * {@link FileChannel}, one write per call unless the buffer fills up.<br>
+ * If compressed, files are written by {@link SegmentWriter} instead, each
+ * line stamped by current time, read them by
+ * {@link net.vicp.lylab.utils.permanent.SegmentReader}.
+ * 
+ * @author Young
+ *
+ */
 public final class TextWriter extends NonCloneableBaseObject implements Closeable {
+	private static final char[] LINE_END = "\r\n".toCharArray();
+
 	private String path = "";
 	private String suffix = "txt";
 	private int maxLine = 10000;
 	private String fileName;
 	private FileOutputStream fileOut = null;
+	private FileChannel channel = null;
 	private int outCount = 0;
+	private boolean compressed = false;
+	private SegmentWriter segment = null;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(CoreDef.DEFAULT_WRITE_BUFFER_SIZE);
+	private CharsetEncoder encoder = Charset.forName(CoreDef.CHARSET()).newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
 
 	public TextWriter(String path) {
 		this.path = path;
@@ -26,16 +56,10 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 		synchronized (lock) {
 			try {
 				for (String line : lines)
-				{
-					if(isOpenFile() == false)
-						open();
-					fileOut.write((line + "\r\n").getBytes(CoreDef.CHARSET()));
-					outCount++;
-					if (maxLine <= outCount)
-						close();
-				}
+					append(line);
+				flush();
 			} catch (Exception e) {
-				e.printStackTrace();
+				log.error("Write line failed:" + Utils.getStringFromException(e));
 			}
 		}
 	}
@@ -43,20 +67,77 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 	public void writeLine(String line) {
 		synchronized (lock) {
 			try {
-				if(isOpenFile() == false)
-					open();
-				fileOut.write((line + "\r\n").getBytes(CoreDef.CHARSET()));
-				outCount++;
-				if (maxLine <= outCount)
-					close();
+				append(line);
+				flush();
 			} catch (Exception e) {
-				e.printStackTrace();
+				log.error("Write line failed:" + Utils.getStringFromException(e));
+			}
+		}
+	}
+
+	private void append(String line) throws IOException {
+		if (isOpenFile() == false)
+			open();
+		if (segment != null) {
+			segment.append(System.currentTimeMillis(), line);
+			outCount++;
+			if (maxLine <= outCount)
+				close();
+			return;
+		}
+		encoder.reset();
+		encode(CharBuffer.wrap(line), false);
+		encode(CharBuffer.wrap(LINE_END), true);
+		outCount++;
+		if (maxLine <= outCount)
+			close();
+	}
+
+	private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, endOfInput);
+			if (result.isOverflow()) {
+				flush();
+				continue;
+			}
+			if (result.isError())
+				throw new CharacterCodingException();
+			break;
+		}
+		if (endOfInput)
+			while (encoder.flush(buffer).isOverflow())
+				flush();
+	}
+
+	/**
+	 * Write encoded lines out of buffer
+	 */
+	private void flush() throws IOException {
+		if (channel == null)
+			return;
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Force written lines onto disk
+	 */
+	public void sync() {
+		synchronized (lock) {
+			if (channel == null)
+				return;
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				throw new LYException("Sync failed", e);
 			}
 		}
 	}
 
 	private boolean isOpenFile() {
-		if (fileOut == null)
+		if (fileOut == null && segment == null)
 			return false;
 		return true;
 	}
@@ -75,7 +156,12 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 			if (file.exists())
 				throw new LYException("File existed, can not over write");
 			file.createNewFile();
-			fileOut = new FileOutputStream(file, true);
+			if (compressed)
+				segment = new SegmentWriter(file);
+			else {
+				fileOut = new FileOutputStream(file, true);
+				channel = fileOut.getChannel();
+			}
 			outCount = 0;
 		} catch (Exception e) {
 			throw new LYException("File open failed", e);
@@ -85,9 +171,17 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 	public void close() {
 		synchronized (lock) {
 			try {
-				if (fileOut != null) {
-					fileOut.close();
-					fileOut = null;
+				if (fileOut != null || segment != null) {
+					if (segment != null) {
+						SegmentWriter tmp = segment;
+						segment = null;
+						tmp.close();
+					} else {
+						flush();
+						fileOut.close();
+						fileOut = null;
+						channel = null;
+					}
 					File file = new File(fileName);
 					String savedFileName = fileName.replaceFirst(
 							"(?s)" + ".temp" + "(?!.*?" + ".temp" + ")",
@@ -98,6 +192,9 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 				}
 			} catch (Exception e) {
 				fileOut = null;
+				channel = null;
+				segment = null;
+				buffer.clear();
 				outCount = 0;
 				fileName = "";
 			}
@@ -120,6 +217,18 @@ public final class TextWriter extends NonCloneableBaseObject implements Closeabl
 		this.suffix = suffix.replaceFirst("^\\.", "");
 	}
 
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Take effect from next file
+	 * @param compressed write compressed segment files
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
 	public int getMaxLine() {
 		return maxLine;
 	}
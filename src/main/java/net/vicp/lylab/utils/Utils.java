@@ -29,9 +29,11 @@ import org.apache.commons.lang3.time.DateFormatUtils;
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
 import net.vicp.lylab.core.model.InetAddr;
 import net.vicp.lylab.utils.convert.JsonConverUtil;
 import net.vicp.lylab.utils.convert.XmlConverUtil;
+import net.vicp.lylab.utils.permanent.SegmentReader;
 
 public abstract class Utils extends NonCloneableBaseObject {
 
@@ -419,19 +421,47 @@ public abstract class Utils extends NonCloneableBaseObject {
 	 * @param fileSuffix
 	 * @return
 	 */
+	@SuppressWarnings("unchecked")
 	public final static Object[] readJsonObjectFromFile(Class<?> instanceClass, String filePath, String fileSuffix) {
-		List<String> fileNames = getFileList(filePath, fileSuffix);
-		List<Object> list = new ArrayList<Object>();
-		for (String fileName : fileNames) {
-			for (String json : Utils.readFileByLines(fileName))
-				list.add(deserialize(instanceClass, json));
-			deleteFile(fileName);
-		}
+		final List<Object> list = new ArrayList<Object>();
+		readJsonObjectFromFile((Class<Object>) instanceClass, filePath, fileSuffix, new BatchConsumer<Object>() {
+			@Override
+			public void consume(List<Object> batch) {
+				list.addAll(batch);
+			}
+		});
 		Object[] objects = new Object[list.size()];
 		list.toArray(objects);
 		return objects;
 	}
 
+	/**
+	 * Decode json lines of files lazily, in parallel, so memory is bounded by
+	 * batch, see {@link TextReader}. A file is deleted after it's consumed.
+	 * @param instanceClass
+	 * @param filePath
+	 * @param fileSuffix
+	 * @param consumer
+	 * @return
+	 * how many objects were delivered
+	 */
+	public final static <T> long readJsonObjectFromFile(final Class<T> instanceClass, String filePath, String fileSuffix,
+			BatchConsumer<T> consumer) {
+		TextReader reader = new TextReader();
+		TextReader.Decoder<T> decoder = new TextReader.Decoder<T>() {
+			@Override
+			public T decode(String line) {
+				return deserialize(instanceClass, line);
+			}
+		};
+		long count = 0L;
+		for (String fileName : getFileList(filePath, fileSuffix)) {
+			count += reader.read(fileName, decoder, consumer);
+			deleteFile(fileName);
+		}
+		return count;
+	}
+
 	/**
 	 * 根据系统类型格式化文件路径
 	 * @param filePath
@@ -491,6 +521,21 @@ public abstract class Utils extends NonCloneableBaseObject {
 			throw new LYException("File not found:" + fileName);
 		if (!file.isFile())
 			throw new LYException("Given path is not a file:" + fileName);
+		// compressed segment written by TextWriter
+		if (SegmentReader.isSegment(file)) {
+			try (SegmentReader reader = new SegmentReader(file);) {
+				while (reader.hasNext()) {
+					String line = reader.next().getLine();
+					if (trimResult) line = line.trim();
+					if (ignoreEmptyLine && line.equals(""))
+						continue;
+					ret.add(line);
+				}
+			} catch (Exception e) {
+				throw new LYException("Read file failed", e);
+			}
+			return ret;
+		}
 		try (FileInputStream in = new FileInputStream(file);
 				BufferedReader reader = new BufferedReader(new InputStreamReader(in, CoreDef.CHARSET()));) {
 			String tempString = null;
@@ -585,15 +630,6 @@ public abstract class Utils extends NonCloneableBaseObject {
 		return JsonConverUtil.deserialize(className, json);
 	}
 
-	private final static byte int3(int x) { return (byte) (x >> 24); }
-	private final static byte int2(int x) { return (byte) (x >> 16); }
-	private final static byte int1(int x) { return (byte) (x >> 8); }
-	private final static byte int0(int x) { return (byte) (x); }
-
-	private final static int makeInt(byte b3, byte b2, byte b1, byte b0) {
-		return (((b3) << 24) | ((b2 & 0xff) << 16) | ((b1 & 0xff) << 8) | ((b0 & 0xff)));
-	}
-
 	/**
 	 * Boolean to byte
 	 * 
@@ -631,17 +667,7 @@ public abstract class Utils extends NonCloneableBaseObject {
 	 */
 	public final static byte[] int2Bytes(int x) {
 		byte[] bytes = new byte[4];
-		if (CoreDef.BIG_ENDIAN) {
-			bytes[3] = int3(x);
-			bytes[2] = int2(x);
-			bytes[1] = int1(x);
-			bytes[0] = int0(x);
-		} else {
-			bytes[0] = int3(x);
-			bytes[1] = int2(x);
-			bytes[2] = int1(x);
-			bytes[3] = int0(x);
-		}
+		ByteCursor.putInt(bytes, 0, x);
 		return bytes;
 	}
 
@@ -652,10 +678,7 @@ public abstract class Utils extends NonCloneableBaseObject {
 	 * @return
 	 */
 	public final static int bytes2Int(byte[] bytes) {
-		if (CoreDef.BIG_ENDIAN)
-			return makeInt(bytes[3], bytes[2], bytes[1], bytes[0]);
-		else
-			return makeInt(bytes[0], bytes[1], bytes[2], bytes[3]);
+		return ByteCursor.getInt(bytes, 0);
 	}
 
 	/**
@@ -669,10 +692,7 @@ public abstract class Utils extends NonCloneableBaseObject {
 		if (bytes.length - 4 < offset)
 			throw new LYException("Out of bounds, byte length is " + bytes.length + " while offset is " + offset);
 
-		if (CoreDef.BIG_ENDIAN)
-			return makeInt(bytes[offset + 3], bytes[offset + 2], bytes[offset + 1], bytes[offset + 0]);
-		else
-			return makeInt(bytes[offset + 0], bytes[offset + 1], bytes[offset + 2], bytes[offset + 3]);
+		return ByteCursor.getInt(bytes, offset);
 	}
 
 	/**
@@ -709,12 +729,15 @@ public abstract class Utils extends NonCloneableBaseObject {
 		return true;
 	}
 
+	/**
+	 * Copy src into dst, dst is extended if it hasn't enough space
+	 * @return
+	 * dst, or the extended one
+	 */
 	public final static byte[] bytecat(byte[] dst, int dstOffset, byte[] src, int srcOffset, int srcCopyLength) {
 		if (!bytecat_isCapable(dst, dstOffset, srcCopyLength))
-			dst = Arrays.copyOf(dst, dst.length*CoreDef.SOCKET_MAX_BUFFER_EXTEND_RATE);
-//			throw new IndexOutOfBoundsException("Destination byte[] hasn't enough ");
-		for (int i = 0; i < srcCopyLength; i++)
-			dst[dstOffset + i] = src[srcOffset + i];
+			dst = Arrays.copyOf(dst, Math.max(dst.length * CoreDef.SOCKET_MAX_BUFFER_EXTEND_RATE, dstOffset + srcCopyLength));
+		System.arraycopy(src, srcOffset, dst, dstOffset, srcCopyLength);
 		return dst;
 	}
 	
@@ -1,9 +1,9 @@
 package net.vicp.lylab.utils.cache;
 
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.model.CacheValue;
@@ -19,7 +19,7 @@ import net.vicp.lylab.utils.tq.Task;
  */
 public final class CacheContainer extends NonCloneableBaseObject {
 
-	private Map<String, CacheValue> container = new ConcurrentHashMap<String, CacheValue>();
+	private ConcurrentMap<String, CacheValue> container = new ConcurrentHashMap<String, CacheValue>();
 	public long memoryLimitation;
 	public double threshold;
 	private AtomicLong memoryUsage = new AtomicLong(0L);
@@ -42,6 +42,34 @@ public final class CacheContainer extends NonCloneableBaseObject {
 			return 2;
 		memoryUsage.getAndAdd(cv.getValue().length + key.getBytes().length + 8);
 		container.put(key, cv);
+		checkThreshold();
+		return 0;
+	}
+
+	/**
+	 * Put a loaded value unless the key is set already, threshold is not
+	 * checked, see {@link #checkThreshold()}
+	 * @param key
+	 * @param cv
+	 * @return
+	 * 0 if stored, 1 if key exists, 2 if over memory limitation
+	 */
+	public final int loadCacheValue(String key, CacheValue cv) {
+		if (memoryLimitation - getMemoryUsage() < cv.getValue().length)
+			return 2;
+		long size = cv.getValue().length + key.getBytes().length + 8;
+		memoryUsage.getAndAdd(size);
+		if (container.putIfAbsent(key, cv) != null) {
+			memoryUsage.getAndAdd(-size);
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Flush in background if memory usage is over threshold
+	 */
+	public void checkThreshold() {
 		if (getMemoryUsage() > memoryLimitation * threshold) {
 			new Task() {
 				private static final long serialVersionUID = 6661384694891274270L;
@@ -63,9 +91,8 @@ public final class CacheContainer extends NonCloneableBaseObject {
 				}
 			}.setCacheContainer(this).begin();
 		}
-		return 0;
 	}
-	
+
 	public CacheValue getCacheValue(String key) {
 		return container.get(key);
 	}
@@ -1,16 +1,28 @@
 package net.vicp.lylab.utils.cache;
 
+import java.util.List;
+
 import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.model.CacheValue;
 import net.vicp.lylab.core.model.CacheValueEntry;
+import net.vicp.lylab.utils.TextReader;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.atomic.AtomicBoolean;
+import net.vicp.lylab.utils.atomic.AtomicLong;
 import net.vicp.lylab.utils.permanent.DiskStorage;
 
 /**
  * [!]警告：必须在LYCache初始化后才能使用
- * 
+ * <br><br>
+ * Saved entries are decoded in parallel and put straight into their
+ * containers. Loaded puts skip threshold check, it runs once when all are
+ * loaded, puts from application are checked as usual.
+ * If asyncLoad is set, initialize() returns at once and the cache serves
+ * reads of what's loaded so far, see {@link #isLoading()}. A key set by
+ * application meanwhile is newer, so its saved value is skipped.
+ *
  * @author Young
  *
  */
@@ -19,15 +31,80 @@ public class CacheLifeCycle extends NonCloneableBaseObject implements LifeCycle
 	protected String savePath = null;
 	protected LYCache lyCache = null;
 	protected AtomicBoolean closed = new AtomicBoolean(true);
-	
+	protected boolean asyncLoad = false;
+
+	private volatile boolean loading = false;
+	private final AtomicLong loadedCount = new AtomicLong(0L);
+	private final AtomicLong rejectedCount = new AtomicLong(0L);
+	private final AtomicLong skippedCount = new AtomicLong(0L);
+	private volatile int loadedFiles = 0;
+	private volatile int totalFiles = 0;
+
 	@Override
 	public void initialize() {
 		if(!closed.compareAndSet(true, false))
 			return;
-		Object[] list = Utils.readJsonObjectFromFile(CacheValueEntry.class, savePath, "cve");
-		for(Object obj:list)
-			lyCache.setCacheValue(((CacheValueEntry) obj).getKey(), ((CacheValueEntry) obj).getCv());
-		lyCache.flush();
+		loading = true;
+		if (!asyncLoad) {
+			load();
+			return;
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		}, "CacheLifeCycle Loader");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void load() {
+		long start = System.currentTimeMillis();
+		try {
+			List<String> fileNames = Utils.getFileList(savePath, "cve");
+			totalFiles = fileNames.size();
+			TextReader reader = new TextReader();
+			TextReader.Decoder<CacheValueEntry> decoder = new TextReader.Decoder<CacheValueEntry>() {
+				@Override
+				public CacheValueEntry decode(String line) {
+					// put by decoding threads, nothing left to deliver
+					CacheValueEntry entry = Utils.deserialize(CacheValueEntry.class, line);
+					switch (lyCache.loadCacheValue(entry.getKey(), entry.getCv())) {
+					case 0:
+						loadedCount.incrementAndGet();
+						break;
+					case 1:
+						// set by application while loading
+						skippedCount.incrementAndGet();
+						break;
+					default:
+						// refused by memory limitation
+						rejectedCount.incrementAndGet();
+					}
+					return null;
+				}
+			};
+			BatchConsumer<CacheValueEntry> none = new BatchConsumer<CacheValueEntry>() {
+				@Override
+				public void consume(List<CacheValueEntry> batch) { }
+			};
+			for (String fileName : fileNames) {
+				reader.read(fileName, decoder, none);
+				Utils.deleteFile(fileName);
+				loadedFiles++;
+				log.info("Cache loading " + loadedFiles + "/" + totalFiles + " files, " + loadedCount.get() + " entries");
+			}
+		} catch (Exception e) {
+			log.error("Cache loading failed:" + Utils.getStringFromException(e));
+		} finally {
+			lyCache.endLoad();
+			lyCache.flush();
+			loading = false;
+			log.info("Cache loaded " + loadedCount.get() + " entries in " + (System.currentTimeMillis() - start) + " ms"
+					+ (rejectedCount.get() > 0L ? ", " + rejectedCount.get() + " entries over memory limitation were dropped" : "")
+					+ (skippedCount.get() > 0L ? ", " + skippedCount.get() + " entries set meanwhile were kept" : ""));
+		}
 	}
 
 	@Override
@@ -48,6 +125,42 @@ public class CacheLifeCycle extends NonCloneableBaseObject implements LifeCycle
 		}
 	}
 
+	/**
+	 * @return
+	 * <tt>true</tt> if saved entries are still loading
+	 */
+	public boolean isLoading() {
+		return loading;
+	}
+
+	public long getLoadedCount() {
+		return loadedCount.get();
+	}
+
+	/**
+	 * @return
+	 * saved entries dropped because their container was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return
+	 * saved entries skipped because their key was set while loading
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	public int getLoadedFiles() {
+		return loadedFiles;
+	}
+
+	public int getTotalFiles() {
+		return totalFiles;
+	}
+
 	public String getSavePath() {
 		return savePath;
 	}
@@ -63,5 +176,13 @@ public class CacheLifeCycle extends NonCloneableBaseObject implements LifeCycle
 	public void setLyCache(LYCache lyCache) {
 		this.lyCache = lyCache;
 	}
-	
+
+	public boolean isAsyncLoad() {
+		return asyncLoad;
+	}
+
+	public void setAsyncLoad(boolean asyncLoad) {
+		this.asyncLoad = asyncLoad;
+	}
+
 }
@@ -2,23 +2,29 @@ package net.vicp.lylab.utils.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.ConfigListener;
 import net.vicp.lylab.core.interfaces.Initializable;
 import net.vicp.lylab.core.model.CacheValue;
 import net.vicp.lylab.utils.Algorithm;
+import net.vicp.lylab.utils.Config;
 import net.vicp.lylab.utils.atomic.AtomicBoolean;
 
 /**
- * Local cache system with memory size limitation.
+ * Local cache system with memory size limitation.<br>
+ * Kept by config reload if only memoryLimitation or threshold changed, new
+ * limits are put on its containers then. containerSize and hashAlgorithm
+ * can't change once initialized.
  * 
  * @author Young
  * @since 2015.07.01
  * @version 1.0.2
  */
-public final class LYCache extends NonCloneableBaseObject implements Initializable {
+public final class LYCache extends NonCloneableBaseObject implements Initializable, ConfigListener {
 	private List<CacheContainer> bundles = null;
 	private int containerSize = CoreDef.DEFAULT_LYCACHE_CONTAINER_SIZE;
 	private long memoryLimitation = CoreDef.DEFAULT_LYCACHE_MEMORY_LIMITATION;
@@ -56,6 +62,16 @@ public final class LYCache extends NonCloneableBaseObject implements Initializab
 		}
 	}
 
+	@Override
+	public void configChanged(Config config, Set<String> changedKeys) {
+		List<CacheContainer> list = getBundles();
+		if (list == null)
+			return;
+		CacheContainer first = list.get(0);
+		if (first.getMemoryLimitation() != memoryLimitation / containerSize || first.getThreshold() != threshold)
+			setMemoryControl(memoryLimitation, threshold);
+	}
+
 	private final CacheContainer getContainer(int seq) {
 		return getBundles().get(seq);
 	}
@@ -102,6 +118,19 @@ public final class LYCache extends NonCloneableBaseObject implements Initializab
 		return cc.set(key, value, expireTime);
 	}
 
+	/**
+	 * Put a loaded value unless the key is set already, threshold is checked
+	 * by {@link #endLoad()}
+	 * @param key
+	 * @param cv
+	 * @return
+	 * 0 if stored, 1 if key exists, 2 if over memory limitation
+	 */
+	public final int loadCacheValue(String key, CacheValue cv) {
+		CacheContainer cc = getContainer(key);
+		return cc.loadCacheValue(key, cv);
+	}
+
 	public final byte[] get(String key) {
 		return get(key, false);
 	}
@@ -116,6 +145,15 @@ public final class LYCache extends NonCloneableBaseObject implements Initializab
 		return cc.delete(key);
 	}
 
+	/**
+	 * Check threshold of all containers once after bulk loading, containers
+	 * over threshold are flushed
+	 */
+	public final void endLoad() {
+		for (CacheContainer cc : getBundles())
+			cc.checkThreshold();
+	}
+
 	public final boolean flush() {
 		try {
 			for (CacheContainer cc : getBundles())
@@ -153,6 +191,8 @@ public final class LYCache extends NonCloneableBaseObject implements Initializab
 	}
 
 	public final void setContainerSize(int containerSize) {
+		if (bundles != null && containerSize != this.containerSize)
+			throw new LYException("containerSize can't change once initialized");
 		this.containerSize = containerSize;
 	}
 
@@ -161,6 +201,8 @@ public final class LYCache extends NonCloneableBaseObject implements Initializab
 	}
 
 	public final void setHashAlgorithm(String hashAlgorithm) {
+		if (bundles != null && !hashAlgorithm.equals(this.hashAlgorithm))
+			throw new LYException("hashAlgorithm can't change once initialized");
 		this.hashAlgorithm = hashAlgorithm;
 	}
 
@@ -53,6 +53,8 @@ public class RDMAClient extends NonCloneableBaseObject implements LifeCycle {
 	protected String rdmaHost;
 	protected int rdmaPort;
 	protected HeartBeat heartBeat;
+	protected int minIdle = CoreDef.DEFAULT_CONTAINER_MIN_IDLE;
+	protected long accessTimeout = CoreDef.DEFAULT_CONTAINER_ACCESS_TIMEOUT;
 
 	public int set(String key, byte[] data) {
 		return set(key, data, 0);
@@ -97,7 +99,9 @@ public class RDMAClient extends NonCloneableBaseObject implements LifeCycle {
 			throw new LYException("Client closed, did you initialize() Caller?");
 		int torelent = CoreDef.RETRY_TOLERANCE;
 		do {
-			SyncSession session = pool.accessOne();
+			SyncSession session = pool.accessOneWithin(accessTimeout);
+			if (session == null)
+				throw new LYException("No connection to server is available in " + accessTimeout + " ms");
 			try {
 				byte[] req, res;
 				req = protocol.encode(message);
@@ -126,6 +130,8 @@ public class RDMAClient extends NonCloneableBaseObject implements LifeCycle {
 			creator = new InstanceCreator<SyncSession>(SyncSession.class, rdmaHost, rdmaPort, protocol, heartBeat);
 			pool = new AutoGeneratePool<SyncSession>(creator, new KeepAliveValidator<SyncSession>(), 20000,
 					Integer.MAX_VALUE);
+			pool.setMinIdle(minIdle);
+			pool.initialize();
 		}
 	}
 
@@ -160,4 +166,20 @@ public class RDMAClient extends NonCloneableBaseObject implements LifeCycle {
 		this.heartBeat = heartBeat;
 	}
 
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getAccessTimeout() {
+		return accessTimeout;
+	}
+
+	public void setAccessTimeout(long accessTimeout) {
+		this.accessTimeout = accessTimeout;
+	}
+
 }
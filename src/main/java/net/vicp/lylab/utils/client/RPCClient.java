@@ -1,8 +1,26 @@
 package net.vicp.lylab.utils.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
@@ -10,6 +28,7 @@ import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.HeartBeat;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.interfaces.Protocol;
+import net.vicp.lylab.core.model.InetAddr;
 import net.vicp.lylab.core.model.Message;
 import net.vicp.lylab.core.model.RPCMessage;
 import net.vicp.lylab.core.model.SimpleHeartBeat;
@@ -23,6 +42,24 @@ import net.vicp.lylab.utils.internet.SyncSession;
 import net.vicp.lylab.utils.internet.protocol.LYLabProtocol;
 import net.vicp.lylab.utils.operation.KeepAliveValidator;
 
+/**
+ * Call servers through RPC hub.<br>
+ * If replicas of a server are added by {@link #addReplica(String, String, int)},
+ * or fetched from the hub when discovery is on, calls to it skip the hub: a
+ * broadcast is sent to all replicas at once and returns whatever responses
+ * arrived within callTimeout. A single call is sent to one replica, and
+ * hedged to another if it doesn't answer within that replica's p95 latency
+ * (hedgeDelay until enough calls are seen), but never sooner than
+ * minHedgeDelay.<br>
+ * Replica is picked by power of two choices, the better {@link Replica#score()}
+ * of two random ones, ejected replicas are skipped while others are left.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.20
+ * @version 1.0.0
+ */
 public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 	
 	public static void main(String[] args) {
@@ -44,6 +81,19 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 	protected String rpcHost;
 	protected int rpcPort;
 	protected HeartBeat heartBeat;
+	protected int minIdle = CoreDef.DEFAULT_CONTAINER_MIN_IDLE;
+	protected long accessTimeout = CoreDef.DEFAULT_CONTAINER_ACCESS_TIMEOUT;
+	protected long callTimeout = CoreDef.DEFAULT_RPC_CALL_TIMEOUT;
+	protected long hedgeDelay = CoreDef.DEFAULT_RPC_HEDGE_DELAY;
+	protected long minHedgeDelay = CoreDef.DEFAULT_RPC_MIN_HEDGE_DELAY;
+	protected boolean hedge = true;
+	// direct route, server name to its replicas
+	protected Map<String, List<Replica>> replicas = new ConcurrentHashMap<String, List<Replica>>();
+	protected ExecutorService executor = null;
+	// ask hub for replicas of a server, every serverListInterval
+	protected boolean discovery = false;
+	protected long serverListInterval = CoreDef.DEFAULT_RPC_SERVER_LIST_INTERVAL;
+	private final ConcurrentMap<String, Long> lookedUp = new ConcurrentHashMap<String, Long>();
 	//
 	protected boolean backgroundServer = false;
 	protected String serverName;
@@ -53,6 +103,12 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 	public List<Message> call(RPCMessage message, boolean broadcast) {
 		message.setRpcKey("RPC");
 		message.setBroadcast(broadcast);
+		List<Replica> direct = message.getServer() == null ? null : route(message.getServer());
+		if (direct != null && !direct.isEmpty()) {
+			if (broadcast)
+				return scatter(message, direct, callTimeout);
+			return Arrays.asList(hedged(message, direct, callTimeout));
+		}
 
 		List<Message> callResult = new ArrayList<>();
 		Message retM = callRpcServer(message);
@@ -66,12 +122,265 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 		return call(message, false).get(0);
 	}
 
-	public Message callRpcServer(RPCMessage message) {
+	/**
+	 * Send message to all replicas in parallel
+	 * @param message
+	 * @param targets
+	 * @param timeout in milliseconds
+	 * @return
+	 * responses arrived within timeout, in arrival order, may be less than
+	 * targets or empty
+	 */
+	public List<Message> scatter(final Message message, List<Replica> targets, long timeout) {
+		checkClosed();
+		long deadline = System.currentTimeMillis() + timeout;
+		CompletionService<Message> gather = new ExecutorCompletionService<Message>(executor);
+		List<Future<Message>> calls = new ArrayList<Future<Message>>(targets.size());
+		for (Replica replica : targets)
+			calls.add(gather.submit(new Call(replica, message)));
+		List<Message> responses = new ArrayList<Message>(targets.size());
+		try {
+			for (int i = 0; i < calls.size(); i++) {
+				Future<Message> done = gather.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				if (done == null)
+					break;
+				try {
+					responses.add(done.get());
+				} catch (ExecutionException e) {
+					log.error("Call failed:" + Utils.getStringFromThrowable(e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<Message> call : calls)
+				call.cancel(false);
+		}
+		if (responses.size() < targets.size())
+			log.debug("Gathered " + responses.size() + " of " + targets.size() + " responses in " + timeout + " ms");
+		return responses;
+	}
+
+	/**
+	 * Send message to one replica, then to another if the first is slower
+	 * than usual (p95 latency) or failed
+	 * @param message
+	 * @param targets
+	 * @param timeout in milliseconds
+	 * @return
+	 * first response arrived
+	 */
+	public Message hedged(final Message message, List<Replica> targets, long timeout) {
+		checkClosed();
+		long deadline = System.currentTimeMillis() + timeout;
+		Replica primary = pick(targets, null);
+		if (primary == null)
+			throw new LYException("No replica to call");
+		CompletionService<Message> gather = new ExecutorCompletionService<Message>(executor);
+		List<Future<Message>> calls = new ArrayList<Future<Message>>(2);
+		calls.add(gather.submit(new Call(primary, message)));
+		int pending = 1;
+		boolean hedged = !hedge || targets.size() < 2;
+		Throwable failure = null;
+		try {
+			while (pending > 0) {
+				// in microseconds, as latency of replicas
+				long wait = TimeUnit.MILLISECONDS.toMicros(deadline - System.currentTimeMillis());
+				if (!hedged) {
+					long p95 = primary.percentile(0.95);
+					long delay = p95 < 0 ? TimeUnit.MILLISECONDS.toMicros(hedgeDelay) : p95;
+					wait = Math.min(wait, Math.max(delay, TimeUnit.MILLISECONDS.toMicros(minHedgeDelay)));
+				}
+				Future<Message> done = wait > 0 ? gather.poll(wait, TimeUnit.MICROSECONDS) : null;
+				if (done != null) {
+					pending--;
+					try {
+						return done.get();
+					} catch (ExecutionException e) {
+						failure = e.getCause();
+						log.debug("Call failed:" + Utils.getStringFromThrowable(failure));
+					}
+				} else if (hedged || System.currentTimeMillis() >= deadline)
+					break;
+				if (!hedged) {
+					// slow or failed, ask another
+					hedged = true;
+					Replica backup = pick(targets, primary);
+					if (backup != null) {
+						calls.add(gather.submit(new Call(backup, message)));
+						pending++;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<Message> call : calls)
+				call.cancel(false);
+		}
+		if (failure != null && pending == 0)
+			throw new LYException("Call failed", failure);
+		throw new LYException("No response in " + timeout + " ms");
+	}
+
+	/**
+	 * Power of two choices, the one with lower score of two random healthy
+	 * replicas. If all are ejected, they are picked from anyway
+	 * @param targets
+	 * @param except replica not to pick, may be null
+	 * @return
+	 * replica to call, null if there is none but except
+	 */
+	protected Replica pick(List<Replica> targets, Replica except) {
+		List<Replica> candidates = new ArrayList<Replica>(targets.size());
+		for (Replica replica : targets)
+			if (replica != except && !replica.isEjected())
+				candidates.add(replica);
+		if (candidates.isEmpty())
+			for (Replica replica : targets)
+				if (replica != except)
+					candidates.add(replica);
+		int size = candidates.size();
+		if (size == 0)
+			return null;
+		if (size == 1)
+			return candidates.get(0);
+		Random random = ThreadLocalRandom.current();
+		int a = random.nextInt(size);
+		int b = random.nextInt(size - 1);
+		if (b >= a)
+			b++;
+		Replica x = candidates.get(a), y = candidates.get(b);
+		return x.score() <= y.score() ? x : y;
+	}
+
+	/**
+	 * @param server
+	 * @return
+	 * replicas of server, null or empty if it's called through hub
+	 */
+	private List<Replica> route(final String server) {
+		if (discovery) {
+			long now = System.currentTimeMillis();
+			Long last = lookedUp.get(server);
+			if (last == null) {
+				if (lookedUp.putIfAbsent(server, now) == null)
+					tryRefreshReplicas(server);
+			} else if (now - last > serverListInterval && lookedUp.replace(server, last, now))
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						tryRefreshReplicas(server);
+					}
+				});
+		}
+		return replicas.get(server);
+	}
+
+	private void tryRefreshReplicas(String server) {
+		try {
+			refreshReplicas(server);
+		} catch (Exception e) {
+			log.error("Fetch replicas of " + server + " failed:" + Utils.getStringFromException(e));
+		}
+	}
+
+	/**
+	 * Ask RPC hub which instances are registered as server, then keep
+	 * connections to exactly these
+	 * @param server
+	 */
+	@SuppressWarnings("unchecked")
+	public void refreshReplicas(String server) {
+		RPCMessage message = new RPCMessage();
+		message.setRpcKey("ServerList");
+		message.setServer(server);
+		Message m = callRpcServer(message);
+		if (m.getCode() != 0)
+			throw new LYException("Fetch server list failed:\n" + m.toString());
+		Set<InetAddr> found = new HashSet<InetAddr>();
+		List<Map<String, Object>> list = (List<Map<String, Object>>) m.getBody().get("ServerList");
+		if (list != null)
+			for (Map<String, Object> item : list)
+				found.add(InetAddr.fromInetAddr(String.valueOf(item.get("ip")), ((Number) item.get("port")).intValue()));
+		synchronized (lookedUp) {
+			List<Replica> current = replicas.get(server);
+			if (current != null)
+				for (Replica replica : current)
+					if (!found.remove(replica.getAddr()))
+						removeReplica(server, replica.getAddr().getIp(), replica.getAddr().getPort());
+			for (InetAddr addr : found)
+				addReplica(server, addr.getIp(), addr.getPort());
+		}
+		log.debug("Replicas of " + server + ":" + getReplicas(server));
+	}
+
+	private final class Call implements Callable<Message> {
+		private final Replica replica;
+		private final Message message;
+
+		Call(Replica replica, Message message) {
+			this.replica = replica;
+			this.message = message;
+		}
+
+		@Override
+		public Message call() {
+			return replica.call(message, accessTimeout);
+		}
+	}
+
+	/**
+	 * Call server directly, without RPC hub
+	 * @param server
+	 * @param host
+	 * @param port
+	 */
+	public void addReplica(String server, String host, int port) {
+		Replica replica = new Replica(host, port, protocol, heartBeat, minIdle);
+		synchronized (lock) {
+			List<Replica> list = replicas.get(server);
+			if (list == null) {
+				list = new CopyOnWriteArrayList<Replica>();
+				replicas.put(server, list);
+			}
+			list.add(replica);
+		}
+	}
+
+	public void removeReplica(String server, String host, int port) {
+		InetAddr addr = InetAddr.fromInetAddr(host, port);
+		synchronized (lock) {
+			List<Replica> list = replicas.get(server);
+			if (list == null)
+				return;
+			for (Replica replica : list)
+				if (replica.getAddr().equals(addr)) {
+					list.remove(replica);
+					replica.close();
+				}
+			if (list.isEmpty())
+				replicas.remove(server);
+		}
+	}
+
+	public List<Replica> getReplicas(String server) {
+		List<Replica> list = replicas.get(server);
+		return list == null ? Collections.<Replica> emptyList() : Collections.unmodifiableList(list);
+	}
+
+	private void checkClosed() {
 		if (closed.get())
 			throw new LYException("Client closed, did you initialize() Caller?");
+	}
+
+	public Message callRpcServer(RPCMessage message) {
+		checkClosed();
 		int torelent = CoreDef.RETRY_TOLERANCE;
 		do {
-			SyncSession session = pool.accessOne();
+			SyncSession session = pool.accessOneWithin(accessTimeout);
+			if (session == null)
+				throw new LYException("No connection to server is available in " + accessTimeout + " ms");
 			try {
 				byte[] req, res;
 				req = protocol.encode(message);
@@ -90,9 +399,19 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 	@Override
 	public void initialize() {
 		if (closed.compareAndSet(true, false)) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RPCClient Call");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 			creator = new InstanceCreator<SyncSession>(SyncSession.class, rpcHost, rpcPort, protocol, heartBeat);
 			pool = new AutoGeneratePool<SyncSession>(creator, new KeepAliveValidator<SyncSession>(), 20000,
 					Integer.MAX_VALUE);
+			pool.setMinIdle(minIdle);
+			pool.initialize();
 
 			if (isBackgroundServer()) {
 				RPCMessage message = new RPCMessage();
@@ -119,6 +438,12 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 				}
 
 				pool.close();
+				for (List<Replica> list : replicas.values())
+					for (Replica replica : list)
+						replica.close();
+				replicas.clear();
+				lookedUp.clear();
+				executor.shutdown();
 				closed.set(true);
 			}
 		}
@@ -180,4 +505,68 @@ public class RPCClient extends NonCloneableBaseObject implements LifeCycle {
 		this.serverPort = serverPort;
 	}
 
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getCallTimeout() {
+		return callTimeout;
+	}
+
+	public void setCallTimeout(long callTimeout) {
+		this.callTimeout = callTimeout;
+	}
+
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	public void setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	public long getMinHedgeDelay() {
+		return minHedgeDelay;
+	}
+
+	public void setMinHedgeDelay(long minHedgeDelay) {
+		this.minHedgeDelay = minHedgeDelay;
+	}
+
+	public boolean isHedge() {
+		return hedge;
+	}
+
+	public void setHedge(boolean hedge) {
+		this.hedge = hedge;
+	}
+
+	public boolean isDiscovery() {
+		return discovery;
+	}
+
+	public void setDiscovery(boolean discovery) {
+		this.discovery = discovery;
+	}
+
+	public long getServerListInterval() {
+		return serverListInterval;
+	}
+
+	public void setServerListInterval(long serverListInterval) {
+		this.serverListInterval = serverListInterval;
+	}
+
+	public long getAccessTimeout() {
+		return accessTimeout;
+	}
+
+	public void setAccessTimeout(long accessTimeout) {
+		this.accessTimeout = accessTimeout;
+	}
+
 }
@@ -0,0 +1,197 @@
+package net.vicp.lylab.utils.client;
+
+import java.util.Arrays;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.HeartBeat;
+import net.vicp.lylab.core.interfaces.Protocol;
+import net.vicp.lylab.core.model.InetAddr;
+import net.vicp.lylab.core.model.Message;
+import net.vicp.lylab.core.pool.AutoGeneratePool;
+import net.vicp.lylab.utils.atomic.AtomicInteger;
+import net.vicp.lylab.utils.internet.SyncSession;
+import net.vicp.lylab.utils.creator.InstanceCreator;
+import net.vicp.lylab.utils.operation.KeepAliveValidator;
+
+/**
+ * One instance of a server, with its own connections.<br>
+ * Latency of the latest calls is kept to tell how long a call usually takes,
+ * see {@link #percentile(double)}. Calls in flight and moving average
+ * (EWMA) of latency make its {@link #score()} for load balancing, and a
+ * replica whose error rate goes above ejectErrorPercent is left out for
+ * ejectTime, see {@link #isEjected()}.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ * 
+ * @author Young
+ * @since 2016.07.20
+ * @version 1.0.0
+ */
+public class Replica extends NonCloneableBaseObject implements AutoCloseable {
+
+	private final InetAddr addr;
+	private final Protocol protocol;
+	private final AutoGeneratePool<SyncSession> pool;
+
+	private final long[] latency;
+	private int next = 0;
+	private int samples = 0;
+
+	// weight of the latest call in moving averages
+	private static final double ALPHA = 0.1;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private double ewma = 0.0;
+	private double errorRate = 0.0;
+	private int calls = 0;
+	private volatile long ejectedUntil = 0L;
+	private long ejectTime = CoreDef.DEFAULT_RPC_EJECT_TIME;
+	private int ejectErrorPercent = CoreDef.DEFAULT_RPC_EJECT_ERROR_PERCENT;
+
+	public Replica(String host, int port, Protocol protocol, HeartBeat heartBeat, int minIdle) {
+		this(host, port, protocol, heartBeat, minIdle, CoreDef.DEFAULT_RPC_LATENCY_WINDOW);
+	}
+
+	public Replica(String host, int port, Protocol protocol, HeartBeat heartBeat, int minIdle, int window) {
+		this.addr = InetAddr.fromInetAddr(host, port);
+		this.protocol = protocol;
+		this.latency = new long[Math.max(1, window)];
+		pool = new AutoGeneratePool<SyncSession>(
+				new InstanceCreator<SyncSession>(SyncSession.class, host, port, protocol, heartBeat),
+				new KeepAliveValidator<SyncSession>(), 20000, Integer.MAX_VALUE);
+		pool.setMinIdle(minIdle);
+		pool.initialize();
+	}
+
+	/**
+	 * Send message and wait its response, once only
+	 * @param message
+	 * @param accessTimeout how long to wait for a free connection
+	 * @return
+	 * response from this replica
+	 */
+	public Message call(Message message, long accessTimeout) {
+		inFlight.incrementAndGet();
+		long start = System.nanoTime();
+		boolean done = false;
+		SyncSession session = null;
+		try {
+			session = pool.accessOneWithin(accessTimeout);
+			if (session == null)
+				throw new LYException("No connection to " + addr + " is available in " + accessTimeout + " ms");
+			session.send(protocol.encode(message));
+			Message response = (Message) protocol.decode(session.receive().getLeft());
+			done = true;
+			return response;
+		} finally {
+			if (session != null)
+				pool.recycle(session);
+			inFlight.decrementAndGet();
+			record((System.nanoTime() - start) / 1000L, done);
+		}
+	}
+
+	// micros, a fast call on a fast network takes well under 1 ms
+	private void record(long micros, boolean success) {
+		synchronized (latency) {
+			if (success) {
+				latency[next] = micros;
+				next = (next + 1) % latency.length;
+				if (samples < latency.length)
+					samples++;
+				ewma = ewma == 0.0 ? micros : ewma + ALPHA * (micros - ewma);
+			}
+			errorRate += ALPHA * ((success ? 0.0 : 1.0) - errorRate);
+			calls++;
+			if (calls >= CoreDef.TWENTY && errorRate * 100 > ejectErrorPercent) {
+				ejectedUntil = System.currentTimeMillis() + ejectTime;
+				// start over when it's back
+				errorRate = 0.0;
+				calls = 0;
+				log.error(addr + " ejected for " + ejectTime + " ms, too many errors");
+			}
+		}
+	}
+
+	/**
+	 * Lower is better
+	 * @return
+	 * moving average latency(in microseconds) weighted by calls in flight
+	 */
+	public double score() {
+		double average;
+		synchronized (latency) {
+			average = ewma;
+		}
+		return (average + 1.0) * (inFlight.get() + 1);
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if this replica failed too often lately and should be
+	 * avoided
+	 */
+	public boolean isEjected() {
+		return ejectedUntil > System.currentTimeMillis();
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public double getErrorRate() {
+		synchronized (latency) {
+			return errorRate;
+		}
+	}
+
+	/**
+	 * @param p such as 0.95
+	 * @return
+	 * latency in microseconds that p of latest calls didn't exceed, -1 if
+	 * there are too few calls to tell
+	 */
+	public long percentile(double p) {
+		long[] sorted;
+		synchronized (latency) {
+			if (samples < CoreDef.TWENTY)
+				return -1L;
+			sorted = Arrays.copyOf(latency, samples);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	public long getEjectTime() {
+		return ejectTime;
+	}
+
+	public void setEjectTime(long ejectTime) {
+		this.ejectTime = ejectTime;
+	}
+
+	public int getEjectErrorPercent() {
+		return ejectErrorPercent;
+	}
+
+	public void setEjectErrorPercent(int ejectErrorPercent) {
+		this.ejectErrorPercent = ejectErrorPercent;
+	}
+
+	public InetAddr getAddr() {
+		return addr;
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	@Override
+	public String toString() {
+		return "Replica [addr=" + addr + "]";
+	}
+
+}
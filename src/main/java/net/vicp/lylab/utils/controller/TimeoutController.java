@@ -1,12 +1,17 @@
 package net.vicp.lylab.utils.controller;
 
 import java.lang.ref.WeakReference;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.vicp.lylab.core.CoreDef;
-import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.AutoInitialize;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.interfaces.Recyclable;
@@ -18,18 +23,34 @@ import net.vicp.lylab.utils.tq.LoneWolf;
  * Manager class to recycle target in watch list.<br>
  * Will recycle if a target reports true by isRecyclable().
  * <br><br>
+ * Targets are kept in a hashed timing wheel, each with its own interval, and
+ * recycled by a small worker pool, so a slow target won't delay the others.
+ * A target is watched by weak reference, it's dropped once collected.
+ * <br><br>
  * Release Under GNU Lesser General Public License (LGPL).
- * 
+ *
  * @author Young Lee
  * @since 2016.01.07
- * @version 2.0.1
+ * @version 3.0.0
  */
 public final class TimeoutController extends LoneWolf implements LifeCycle {
 	private static final long serialVersionUID = -4494667245957319328L;
 
 	private static AutoInitialize<TimeoutController> instance = new AtomicStrongReference<TimeoutController>();
 
-	private List<WeakReference<Recyclable>> watchList = new LinkedList<WeakReference<Recyclable>>();
+	public static final long TICK = CoreDef.WAITING_SHORT;
+	public static final int WHEEL_SIZE = 512;
+
+	private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+	private volatile long currentTick = 0L;
+	// target -> handle, weak keys as the watch list used to be
+	private final Map<Recyclable, Handle> handles = new WeakHashMap<Recyclable, Handle>();
+	private ExecutorService workers = null;
+
+	public TimeoutController() {
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			wheel[i] = new Bucket();
+	}
 
 	/**
 	 * Initialize procedure
@@ -39,12 +60,12 @@ public final class TimeoutController extends LoneWolf implements LifeCycle {
 		getInstance().reset();
 		getInstance().begin("TimeoutController");
 	}
-	
+
 	@Override
 	public void close() {
 		getInstance().callStop();
 	}
-	
+
 	/**
 	 * TimeoutController is always a daemon
 	 */
@@ -54,68 +75,147 @@ public final class TimeoutController extends LoneWolf implements LifeCycle {
 	}
 
 	/**
-	 * Major cycle to check timoutControl()
+	 * Major cycle to turn the wheel
 	 */
 	@Override
 	public void exec() {
-		try {
-			while (!getThread().isInterrupted()) {
-				if (isStopped())
+		long start = System.currentTimeMillis();
+		while (!isStopped()) {
+			long next = start + (currentTick + 1) * TICK;
+			long sleep = next - System.currentTimeMillis();
+			if (sleep > 0L)
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
 					break;
-				Thread.sleep(CoreDef.DEFAULT_TIMTOUT_CONTROLLER_INTERVAL);
-				getInstance().timeoutControl();
-			}
-		} catch (InterruptedException e) {
-			throw new LYException("TimeoutController is interrupted", e);
+				}
+			expire();
 		}
 	}
 
 	/**
-	 * Major cycle to recycle every target is recyclable
+	 * Fire handles in current bucket, then move to next bucket
 	 */
-	private synchronized void timeoutControl() {
-		System.gc();
-		Iterator<WeakReference<Recyclable>> iterator = watchList.iterator();
-		while (iterator.hasNext()) {
-			Recyclable rec = iterator.next().get();
-			if (rec == null) {
-				iterator.remove();
-				continue;
-			}
-			try {
-				if (rec.isRecyclable())
-					rec.recycle();
-			} catch (Throwable t) {
-				log.error(Utils.getStringFromThrowable(t));
+	private void expire() {
+		List<Handle> fired = new ArrayList<Handle>();
+		synchronized (lock) {
+			Bucket bucket = wheel[(int) (currentTick & (WHEEL_SIZE - 1))];
+			Handle handle = bucket.head;
+			while (handle != null) {
+				Handle next = handle.next;
+				if (handle.rounds > 0)
+					handle.rounds--;
+				else {
+					bucket.remove(handle);
+					fired.add(handle);
+				}
+				handle = next;
 			}
+			currentTick++;
 		}
+		for (Handle handle : fired)
+			getWorkers().execute(handle);
+	}
+
+	private void schedule(Handle handle, long delay) {
+		synchronized (lock) {
+			if (handle.cancelled || handle.bucket != null)
+				return;
+			long ticks = Math.max(1L, (delay + TICK - 1) / TICK);
+			handle.rounds = (ticks - 1) / WHEEL_SIZE;
+			wheel[(int) ((currentTick + ticks) & (WHEEL_SIZE - 1))].add(handle);
+		}
+	}
+
+	private void unschedule(Handle handle) {
+		synchronized (lock) {
+			handle.cancelled = true;
+			if (handle.bucket != null)
+				handle.bucket.remove(handle);
+		}
+	}
+
+	private synchronized ExecutorService getWorkers() {
+		if (workers == null)
+			workers = new ThreadPoolExecutor(CoreDef.DEFAULT_TIMEOUT_CONTROLLER_WORKERS,
+					CoreDef.DEFAULT_TIMEOUT_CONTROLLER_WORKERS, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "TimeoutController Worker");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		return workers;
 	}
 
 	/**
-	 * Add an recyclable target into watch list
+	 * Add an recyclable target into watch list, with default interval
 	 * @param rec
 	 * @return
 	 * <tt>true</tt>
 	 */
-	public synchronized static boolean addToWatch(Recyclable rec) {
-		return getInstance().getWatchList().add(new WeakReference<Recyclable>(rec));
+	public static boolean addToWatch(Recyclable rec) {
+		watch(rec, CoreDef.DEFAULT_TIMTOUT_CONTROLLER_INTERVAL);
+		return true;
+	}
+
+	/**
+	 * Add an recyclable target into watch list
+	 * @param rec
+	 * @param interval in millisecond, between end of a recycle and start of next one
+	 * @return
+	 * handle to cancel watching or read metrics, if target was watched
+	 * already, its former handle is cancelled
+	 */
+	public static Handle watch(Recyclable rec, long interval) {
+		TimeoutController controller = getInstance();
+		Handle handle = new Handle(controller, rec, interval);
+		Handle former;
+		synchronized (controller.handles) {
+			former = controller.handles.put(rec, handle);
+		}
+		if (former != null)
+			former.cancel();
+		controller.schedule(handle, interval);
+		return handle;
 	}
 
 	/**
-	 * Remove an recyclable target into watch list
+	 * Remove an recyclable target from watch list
 	 * @param rec
 	 */
-	public synchronized static void removeFromWatch(Recyclable rec) {
-		System.gc();
-		Iterator<WeakReference<Recyclable>> iterator = getInstance().getWatchList().iterator();
-		while (iterator.hasNext()) {
-			Recyclable tmp = iterator.next().get();
-			if (tmp == null)
-				iterator.remove();
-			else if (rec.equals(tmp)) {
-				iterator.remove();
-				break;
-			}
+	public static void removeFromWatch(Recyclable rec) {
+		TimeoutController controller = getInstance();
+		Handle handle;
+		synchronized (controller.handles) {
+			handle = controller.handles.remove(rec);
+		}
+		if (handle != null)
+			handle.cancel();
+	}
+
+	/**
+	 * @param rec
+	 * @return
+	 * handle of a watched target, null if it's not watched
+	 */
+	public static Handle getHandle(Recyclable rec) {
+		TimeoutController controller = getInstance();
+		synchronized (controller.handles) {
+			return controller.handles.get(rec);
+		}
+	}
+
+	/**
+	 * @return
+	 * handles of all watched targets
+	 */
+	public static List<Handle> getHandles() {
+		TimeoutController controller = getInstance();
+		synchronized (controller.handles) {
+			return new ArrayList<Handle>(controller.handles.values());
 		}
 	}
 
@@ -124,6 +224,11 @@ public final class TimeoutController extends LoneWolf implements LifeCycle {
 	 */
 	@Override
 	protected void aftermath() {
+		synchronized (this) {
+			if (workers != null)
+				workers.shutdown();
+			workers = null;
+		}
 		instance = new AtomicStrongReference<TimeoutController>();
 	}
 
@@ -132,8 +237,140 @@ public final class TimeoutController extends LoneWolf implements LifeCycle {
 		return instance.get(TimeoutController.class);
 	}
 
-	private List<WeakReference<Recyclable>> getWatchList() {
-		return watchList;
+	/**
+	 * A watched target, with its recycle metrics
+	 */
+	public static final class Handle implements Runnable {
+		private final TimeoutController controller;
+		private final WeakReference<Recyclable> target;
+		private final long interval;
+		// wheel position, guarded by controller lock
+		long rounds = 0L;
+		Bucket bucket = null;
+		Handle prev = null, next = null;
+		volatile boolean cancelled = false;
+		// metrics
+		private volatile long recycleCount = 0L;
+		private volatile long totalRecycleTime = 0L;
+		private volatile long maxRecycleTime = 0L;
+		private volatile long lastRecycleTime = 0L;
+
+		Handle(TimeoutController controller, Recyclable target, long interval) {
+			this.controller = controller;
+			this.target = new WeakReference<Recyclable>(target);
+			this.interval = interval;
+		}
+
+		/**
+		 * Fired by wheel, run on worker
+		 */
+		@Override
+		public void run() {
+			Recyclable rec = target.get();
+			if (rec == null || cancelled)
+				return;
+			try {
+				if (rec.isRecyclable()) {
+					long start = System.nanoTime();
+					try {
+						rec.recycle();
+					} finally {
+						record((System.nanoTime() - start) / 1000000L, rec);
+					}
+				}
+			} catch (Throwable t) {
+				log.error(Utils.getStringFromThrowable(t));
+			}
+			rec = null;
+			controller.schedule(this, interval);
+		}
+
+		private void record(long cost, Recyclable rec) {
+			recycleCount++;
+			totalRecycleTime += cost;
+			lastRecycleTime = cost;
+			if (cost > maxRecycleTime)
+				maxRecycleTime = cost;
+			if (cost > interval)
+				log.warn("Recycle took " + cost + " ms, longer than its interval " + interval + " ms:" + rec);
+		}
+
+		/**
+		 * Stop watching, O(1)
+		 */
+		public void cancel() {
+			controller.unschedule(this);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public Recyclable getTarget() {
+			return target.get();
+		}
+
+		public long getInterval() {
+			return interval;
+		}
+
+		public long getRecycleCount() {
+			return recycleCount;
+		}
+
+		/**
+		 * @return
+		 * total time(ms) spent in recycle()
+		 */
+		public long getTotalRecycleTime() {
+			return totalRecycleTime;
+		}
+
+		public long getMaxRecycleTime() {
+			return maxRecycleTime;
+		}
+
+		public long getLastRecycleTime() {
+			return lastRecycleTime;
+		}
+
+		public long getAverageRecycleTime() {
+			return recycleCount == 0L ? 0L : totalRecycleTime / recycleCount;
+		}
+
+		@Override
+		public String toString() {
+			return "Handle [target=" + target.get() + ", interval=" + interval + ", recycleCount=" + recycleCount
+					+ ", averageRecycleTime=" + getAverageRecycleTime() + ", maxRecycleTime=" + maxRecycleTime + "]";
+		}
+	}
+
+	/**
+	 * Doubly linked handles in a wheel slot
+	 */
+	static final class Bucket {
+		Handle head = null;
+
+		void add(Handle handle) {
+			handle.bucket = this;
+			handle.prev = null;
+			handle.next = head;
+			if (head != null)
+				head.prev = handle;
+			head = handle;
+		}
+
+		void remove(Handle handle) {
+			if (handle.prev != null)
+				handle.prev.next = handle.next;
+			else
+				head = handle.next;
+			if (handle.next != null)
+				handle.next.prev = handle.prev;
+			handle.prev = null;
+			handle.next = null;
+			handle.bucket = null;
+		}
 	}
 
 }
@@ -33,7 +33,6 @@ public final class TimerTimeoutController extends InstantJob {
 	 */
 	@Override
 	public void exec() {
-		System.gc();
 		Iterator<WeakReference<Recyclable>> iterator = watchList.iterator();
 		while (iterator.hasNext()) {
 			Recyclable rec = iterator.next().get();
@@ -64,7 +63,6 @@ public final class TimerTimeoutController extends InstantJob {
 	 * @param rec
 	 */
 	public synchronized void removeFromWatch(Recyclable rec) {
-		System.gc();
 		Iterator<WeakReference<Recyclable>> iterator = watchList.iterator();
 		while (iterator.hasNext()) {
 			Recyclable tmp = iterator.next().get();
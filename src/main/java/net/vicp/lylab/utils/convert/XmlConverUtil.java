@@ -24,7 +24,11 @@ import net.vicp.lylab.core.exceptions.LYException;
 
 public abstract class XmlConverUtil extends NonCloneableBaseObject {
 
-	private static final XStream x = new XStream();
+	// XStream is slow to make and only object2xml needs it
+	private static final class XStreamHolder {
+		static final XStream x = new XStream();
+	}
+
 	/**
 	 * Object to Xml
 	 * 
@@ -34,6 +38,7 @@ public abstract class XmlConverUtil extends NonCloneableBaseObject {
 	 */
 	public static String object2xml(Object obj) {
 //		x.alias(obj.getClass().getSimpleName(), obj.getClass());
+		XStream x = XStreamHolder.x;
 		x.alias("xml", obj.getClass());
 		return x.toXML(obj);
 	}
@@ -12,12 +12,15 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
+import net.vicp.lylab.core.interfaces.FlowControl;
 import net.vicp.lylab.core.interfaces.HeartBeat;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.interfaces.Protocol;
@@ -43,7 +46,7 @@ import net.vicp.lylab.utils.tq.LYTaskQueue;
  * @since 2015.07.21
  * @version 0.0.5
  */
-public class AsyncSession extends AbstractSession implements LifeCycle, Recyclable {//, Transmission {
+public class AsyncSession extends AbstractSession implements LifeCycle, Recyclable, FlowControl {//, Transmission {
 	private static final long serialVersionUID = -3262692917974231303L;
 	
 	// Raw data source
@@ -53,6 +56,9 @@ public class AsyncSession extends AbstractSession implements LifeCycle, Recyclab
 	protected Map<InetAddr, SocketChannel> addr2client = new ConcurrentHashMap<>();
 	protected AutoGeneratePool<ObjectContainer<Selector>> selectorPool;
 	protected Transfer transfer;
+	// Read interest changes, applied by selector thread
+	//						client	read
+	protected Queue<Pair<InetAddr, Boolean>> interestChanges = new ConcurrentLinkedQueue<>();
 
 	// Long socket keep alive & recycle bad request
 	protected Map<InetAddr, Long> lastActivityMap = new ConcurrentHashMap<InetAddr, Long>();
@@ -166,6 +172,7 @@ public class AsyncSession extends AbstractSession implements LifeCycle, Recyclab
 			// Will be block here
 			while (!isStopped()) {
 				selector.select();
+				applyInterestChanges();
 				synchronized (lock) {
 					Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
 					while (iterator.hasNext()) {
@@ -183,6 +190,37 @@ public class AsyncSession extends AbstractSession implements LifeCycle, Recyclab
 		}
 	}
 
+	@Override
+	public void pauseRead(InetAddr clientAddr) {
+		interestChanges.offer(new Pair<>(clientAddr, false));
+		selector.wakeup();
+	}
+
+	@Override
+	public void resumeRead(InetAddr clientAddr) {
+		interestChanges.offer(new Pair<>(clientAddr, true));
+		selector.wakeup();
+	}
+
+	/**
+	 * Selection keys may only be changed safely by selector thread
+	 */
+	private void applyInterestChanges() {
+		Pair<InetAddr, Boolean> change;
+		while ((change = interestChanges.poll()) != null) {
+			SocketChannel socketChannel = addr2client.get(change.getLeft());
+			if (socketChannel == null)
+				continue;
+			SelectionKey key = socketChannel.keyFor(selector);
+			if (key == null || !key.isValid())
+				continue;
+			if (change.getRight())
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			else
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
 	@Override
 	public Socket getClient(InetAddr clientAddr) {
 		return addr2client.get(clientAddr).socket();
@@ -2,12 +2,18 @@ package net.vicp.lylab.utils.internet.dispatch;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import net.vicp.lylab.core.interfaces.AsyncDispatcher;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
 import net.vicp.lylab.core.interfaces.HeartBeat;
 import net.vicp.lylab.core.interfaces.Protocol;
 import net.vicp.lylab.core.interfaces.Session;
+import net.vicp.lylab.core.interfaces.Transfer;
+import net.vicp.lylab.core.model.InetAddr;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.tq.Task;
 
@@ -26,6 +32,8 @@ public final class DispatchExecutor extends Task {
 	Session session;
 	Dispatcher<? super Confirm, ? super Confirm> dispatcher;
 	Protocol protocol;
+	Transfer transfer;
+	InetAddr clientAddr;
 
 	public DispatchExecutor(Socket client, byte[] clientRequest, Session session, Dispatcher<? super Confirm, ? super Confirm> dispatcher, Protocol protocol) {
 		this.client = client;
@@ -40,8 +48,20 @@ public final class DispatchExecutor extends Task {
 	 */
 	@Override
 	public void exec() {
-		byte[] response = doResponse(client, clientRequest, session, dispatcher, protocol);
-		send(client, session, response);
+		boolean async = false;
+		try {
+			CompletableFuture<Void> sent = doResponseAsync(client, clientRequest, session, dispatcher, protocol);
+			if (sent != null) {
+				async = true;
+				requestDoneOn(sent, transfer, clientAddr);
+				return;
+			}
+			byte[] response = doResponse(client, clientRequest, session, dispatcher, protocol);
+			send(client, session, response);
+		} finally {
+			if (transfer != null && !async)
+				transfer.requestDone(clientAddr);
+		}
 	}
 
 	/**
@@ -61,6 +81,53 @@ public final class DispatchExecutor extends Task {
 		return response;
 	}
 
+	/**
+	 * Dispatch through an {@link AsyncDispatcher}, response is encoded and
+	 * sent by whichever thread completes the action
+	 * @return
+	 * future completes once response is sent, null if dispatcher can't answer
+	 * asynchronously, use {@link #doResponse} instead
+	 */
+	@SuppressWarnings("unchecked")
+	public final static CompletableFuture<Void> doResponseAsync(Socket client, byte[] clientRequest, final Session session,
+			Dispatcher<? super Confirm, ? super Confirm> dispatcher, final Protocol protocol) {
+		if (!(dispatcher instanceof AsyncDispatcher) || protocol == null)
+			return null;
+		Confirm request = protocol.decode(clientRequest, 0);
+		if (request instanceof HeartBeat) {
+			send(client, session, protocol.encode(request));
+			return CompletableFuture.completedFuture(null);
+		}
+		final Socket socket = client;
+		CompletableFuture<Confirm> response = ((AsyncDispatcher<Confirm, Confirm>) dispatcher).doActionAsync(client, request);
+		return response.thenAccept(new Consumer<Confirm>() {
+			@Override
+			public void accept(Confirm response) {
+				try {
+					send(socket, session, protocol.encode(response));
+				} catch (Exception e) {
+					log.error("Sender report an error:" + Utils.getStringFromException(e));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Report to transfer once an asynchronous response is sent
+	 */
+	final static void requestDoneOn(CompletableFuture<Void> sent, final Transfer transfer, final InetAddr clientAddr) {
+		if (transfer == null)
+			return;
+		sent.whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void value, Throwable t) {
+				if (t != null)
+					log.error("Async response failed:" + Utils.getStringFromThrowable(t));
+				transfer.requestDone(clientAddr);
+			}
+		});
+	}
+
 	public final static void send(Socket client, Session session, byte[] response) {
 		session.send(client, response);
 	}
@@ -78,4 +145,14 @@ public final class DispatchExecutor extends Task {
 		close(client);
 	}
 
+	/**
+	 * Report to transfer once this request is answered
+	 * @param transfer
+	 * @param clientAddr
+	 */
+	public void setTransfer(Transfer transfer, InetAddr clientAddr) {
+		this.transfer = transfer;
+		this.clientAddr = clientAddr;
+	}
+
 }
@@ -1,12 +1,15 @@
 package net.vicp.lylab.utils.internet.dispatch;
 
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.interfaces.Protocol;
 import net.vicp.lylab.core.interfaces.Session;
+import net.vicp.lylab.core.interfaces.Transfer;
+import net.vicp.lylab.core.model.InetAddr;
 import net.vicp.lylab.core.pool.AutoGeneratePool;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.tq.Task;
@@ -28,6 +31,8 @@ public final class DispatchHandler extends Task implements LifeCycle {
 	Protocol protocol;
 
 	AutoGeneratePool<DispatchHandler> controller;
+	Transfer transfer;
+	InetAddr clientAddr;
 
 	public void handlerRequest(Socket client, byte[] clientRequest, Session session,
 			Dispatcher<? super Confirm, ? super Confirm> dispatcher, Protocol protocol) {
@@ -49,20 +54,39 @@ public final class DispatchHandler extends Task implements LifeCycle {
 				await();
 				continue;
 			}
-			byte[] response;
+			boolean async = false;
 			try {
-				response = DispatchExecutor.doResponse(client, clientRequest, session, dispatcher, protocol);
-			} catch (Exception e) {
-				log.error("Dispatcher report an error:" + Utils.getStringFromException(e));
-				continue;
-			}
-			try {
-				DispatchExecutor.send(client, session, response);
-			} catch (Exception e) {
-				log.error("Sender report an error:" + Utils.getStringFromException(e));
+				try {
+					CompletableFuture<Void> sent = DispatchExecutor.doResponseAsync(client, clientRequest, session, dispatcher, protocol);
+					if (sent != null) {
+						// this handler is free, transfer hears of it when response is sent
+						async = true;
+						DispatchExecutor.requestDoneOn(sent, transfer, clientAddr);
+						continue;
+					}
+				} catch (Exception e) {
+					log.error("Dispatcher report an error:" + Utils.getStringFromException(e));
+					continue;
+				}
+				byte[] response;
+				try {
+					response = DispatchExecutor.doResponse(client, clientRequest, session, dispatcher, protocol);
+				} catch (Exception e) {
+					log.error("Dispatcher report an error:" + Utils.getStringFromException(e));
+					continue;
+				}
+				try {
+					DispatchExecutor.send(client, session, response);
+				} catch (Exception e) {
+					log.error("Sender report an error:" + Utils.getStringFromException(e));
+				}
+			} finally {
+				session = null;
+				// once recycled, transfer and clientAddr belong to next request
+				if (transfer != null && !async)
+					transfer.requestDone(clientAddr);
+				controller.recycle(this);
 			}
-			session = null;
-			controller.recycle(this);
 		}
 	}
 
@@ -80,4 +104,14 @@ public final class DispatchHandler extends Task implements LifeCycle {
 		this.controller = controller;
 	}
 
+	/**
+	 * Report to transfer once this request is answered
+	 * @param transfer
+	 * @param clientAddr
+	 */
+	public void setTransfer(Transfer transfer, InetAddr clientAddr) {
+		this.transfer = transfer;
+		this.clientAddr = clientAddr;
+	}
+
 }
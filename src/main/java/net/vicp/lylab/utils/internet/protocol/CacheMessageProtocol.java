@@ -12,6 +12,7 @@ import net.vicp.lylab.core.model.CacheMessage;
 import net.vicp.lylab.core.model.Pair;
 import net.vicp.lylab.core.model.SimpleHeartBeat;
 import net.vicp.lylab.utils.Algorithm;
+import net.vicp.lylab.utils.ByteCursor;
 import net.vicp.lylab.utils.Utils;
 
 /**
@@ -45,23 +46,51 @@ public class CacheMessageProtocol extends NonCloneableBaseObject implements Prot
 	}
 	
 	public byte[] encode(HeartBeat hb) {
-		int iLength = 0;
+		byte[] bytes = new byte[head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length];
+		new ByteCursor(bytes).put(head).put(splitSignal).putInt(0).put(splitSignal);
+		return bytes;
+	}
 
-		byte[] byteLength = Utils.int2Bytes(iLength);
+	public byte[] encode(CacheMessage cm) {
+		Pair<String, byte[]> pair = prepare(cm);
+		int dataSize = dataSize(cm, pair);
+		byte[] bytes = new byte[head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length + dataSize];
+		write(cm, pair, dataSize, new ByteCursor(bytes));
+		return bytes;
+	}
 
-		int size = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length + iLength;
+	/**
+	 * @param cm
+	 * @return
+	 * exact length of cm once encoded
+	 */
+	public int encodedSize(CacheMessage cm) {
+		return head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length + dataSize(cm, prepare(cm));
+	}
 
-		byte[] bytes = new byte[size];
-		int offset = 0;
-		offset = Utils.writeNext(bytes, offset, head);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, byteLength);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
+	/**
+	 * Encode cm right into cursor, such as a pooled buffer with at least
+	 * {@link #encodedSize(CacheMessage)} bytes remaining
+	 * @param cm
+	 * @param cursor
+	 */
+	public void encode(CacheMessage cm, ByteCursor cursor) {
+		Pair<String, byte[]> pair = prepare(cm);
+		write(cm, pair, dataSize(cm, pair), cursor);
+	}
 
-		return bytes;
+	private void write(CacheMessage cm, Pair<String, byte[]> pair, int dataSize, ByteCursor cursor) {
+		cursor.put(head).put(splitSignal).putInt(dataSize).put(splitSignal);
+		cursor.putInt(cm.getCode()).put(splitSignal);
+		cursor.putBoolean(cm.isRenew()).put(splitSignal);
+		cursor.putInt(cm.getExpireTime()).put(splitSignal);
+		cursor.putUTF8(cm.getAction()).put(splitSignal);
+		cursor.putUTF8(pair.getLeft()).put(splitSignal);
+		cursor.put(pair.getRight()).put(splitSignal);
+		cursor.put(cm.getCmpData()).put(splitSignal);
 	}
 
-	public byte[] encode(CacheMessage cm) {
+	private Pair<String, byte[]> prepare(CacheMessage cm) {
 		if (StringUtils.isBlank(cm.getAction()))
 			throw new NullPointerException("Parameter action is blank");
 		Pair<String, byte[]> pair = cm.getPair();
@@ -71,45 +100,15 @@ public class CacheMessageProtocol extends NonCloneableBaseObject implements Prot
 			pair.setLeft("");
 		if (pair.getRight() == null)
 			pair.setRight(new byte[0]);
+		if (cm.getCmpData() == null)
+			cm.setCmpData(new byte[0]);
+		return pair;
+	}
 
-		byte[] code = Utils.int2Bytes(cm.getCode());
-		byte[] renew = cm.isRenew() ? new byte[] { 1 } : new byte[] { 0 };
-		byte[] expireTime = Utils.int2Bytes(cm.getExpireTime());
-		byte[] action = cm.getAction().getBytes();
-		byte[] left = pair.getLeft().getBytes();
-		byte[] right = pair.getRight();
-		byte[] cmpData = cm.getCmpData();
-
-		int iLength = code.length + splitSignal.length + renew.length + splitSignal.length + expireTime.length
-				+ splitSignal.length + action.length + splitSignal.length + left.length + splitSignal.length + right.length
-				+ splitSignal.length + cmpData.length + splitSignal.length;
-
-		byte[] byteLength = Utils.int2Bytes(iLength);
-
-		int size = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length + iLength;
-
-		byte[] bytes = new byte[size];
-		int offset = 0;
-		offset = Utils.writeNext(bytes, offset, head);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, byteLength);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, code);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, renew);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, expireTime);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, action);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, left);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, right);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, cmpData);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-
-		return bytes;
+	private int dataSize(CacheMessage cm, Pair<String, byte[]> pair) {
+		return CoreDef.SIZEOF_INTEGER + CoreDef.SIZEOF_BOOLEAN + CoreDef.SIZEOF_INTEGER
+				+ ByteCursor.sizeOfUTF8(cm.getAction()) + ByteCursor.sizeOfUTF8(pair.getLeft()) + pair.getRight().length
+				+ cm.getCmpData().length + 7 * splitSignal.length;
 	}
 
 	@Override
@@ -128,47 +127,44 @@ public class CacheMessageProtocol extends NonCloneableBaseObject implements Prot
 			int endPosition = offset + head.length + splitSignal.length;
 			if (bytes.length - 4 < endPosition)
 				return null;
-			int length = Utils.bytes2Int(bytes, endPosition);
-			endPosition = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length;
-			if (endPosition + length > bytes.length)
+			ByteCursor cursor = new ByteCursor(bytes, endPosition, bytes.length - endPosition);
+			int length = cursor.getInt();
+			cursor.skip(splitSignal.length);
+			if (cursor.remaining() < length)
 				return null;
 			if(length == 0)
 				return new SimpleHeartBeat();
 
-			int code = Utils.bytes2Int(bytes, endPosition);
-			endPosition = endPosition + CoreDef.SIZEOF_INTEGER + splitSignal.length;
-
-			boolean renew = bytes[endPosition] == 0 ? false : true;
-			endPosition = endPosition + CoreDef.SIZEOF_BOOLEAN + splitSignal.length;
-
-			int expireTime = Utils.bytes2Int(bytes, endPosition);
-			endPosition = endPosition + CoreDef.SIZEOF_INTEGER + splitSignal.length;
+			int code = cursor.getInt();
+			cursor.skip(splitSignal.length);
+			boolean renew = cursor.getBoolean();
+			cursor.skip(splitSignal.length);
+			int expireTime = cursor.getInt();
+			cursor.skip(splitSignal.length);
 
-			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
+			dataLength = Algorithm.KMPSearch(bytes, splitSignal, cursor.position());
 			if (dataLength == -1)
 				return null;
-			String action = new String(bytes, endPosition, dataLength);
-			endPosition = endPosition + dataLength + splitSignal.length;
+			String action = cursor.getUTF8(dataLength);
+			cursor.skip(splitSignal.length);
 
-			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
+			dataLength = Algorithm.KMPSearch(bytes, splitSignal, cursor.position());
 			if (dataLength == -1)
 				return null;
-			String left = new String(bytes, endPosition, dataLength);
-			endPosition = endPosition + dataLength + splitSignal.length;
+			String left = cursor.getUTF8(dataLength);
+			cursor.skip(splitSignal.length);
 
-			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
+			dataLength = Algorithm.KMPSearch(bytes, splitSignal, cursor.position());
 			if (dataLength == -1)
 				return null;
-			byte[] right = new byte[dataLength];
-			System.arraycopy(bytes, endPosition, right, 0, dataLength);
-			endPosition = endPosition + dataLength + splitSignal.length;
+			byte[] right = cursor.getBytes(dataLength);
+			cursor.skip(splitSignal.length);
 
-			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
+			dataLength = Algorithm.KMPSearch(bytes, splitSignal, cursor.position());
 			if (dataLength == -1)
 				return null;
-			byte[] cmpData = new byte[dataLength];
-			System.arraycopy(bytes, endPosition, cmpData, 0, dataLength);
-			endPosition = endPosition + dataLength + splitSignal.length;
+			byte[] cmpData = cursor.getBytes(dataLength);
+			cursor.skip(splitSignal.length);
 
 			return new CacheMessage(code, action, left, right, renew, expireTime).setCmpData(cmpData);
 		} catch (Exception e) {
@@ -1,15 +1,18 @@
 package net.vicp.lylab.utils.internet.protocol;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 
-import org.apache.commons.lang3.SerializationUtils;
-
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Protocol;
+import net.vicp.lylab.utils.ByteCursor;
 import net.vicp.lylab.utils.Utils;
 
 /**
@@ -34,34 +37,25 @@ public class JavaObjProtocol extends NonCloneableBaseObject implements Protocol
 
 	@Override
 	public byte[] encode(Confirm obj) {
-		byte[] data;
+		int prefix = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length;
+		// serialize right behind head, then fill in length
+		FrameOutputStream out = new FrameOutputStream(prefix);
 		try {
-			data = SerializationUtils.serialize((Serializable) obj);
+			out.write(head);
+			out.write(splitSignal);
+			for (int i = 0; i < CoreDef.SIZEOF_INTEGER; i++)
+				out.write(0);
+			out.write(splitSignal);
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject((Serializable) obj);
+			oos.flush();
 		} catch (Exception e) {
 			throw new LYException("Cannot serialize object into data", e);
 		}
-
-		byte[] length = Utils.int2Bytes(data.length);
-		int headLength = head.length;
-		int lengthLength = length.length;
-		int dataLength = data.length;
-		int splitSignalLength = splitSignal.length;
-
-		int size = headLength + lengthLength + dataLength + splitSignalLength * 2;
-
-		byte[] bytes = new byte[size];
-		int i = 0;
-		for (int j = 0; j < headLength; j++)
-			bytes[i++] = head[j];
-		for (int j = 0; j < splitSignalLength; j++)
-			bytes[i++] = splitSignal[j];
-		for (int j = 0; j < lengthLength; j++)
-			bytes[i++] = length[j];
-		for (int j = 0; j < splitSignalLength; j++)
-			bytes[i++] = splitSignal[j];
-		for (int j = 0; j < dataLength; j++)
-			bytes[i++] = data[j];
-		return bytes;
+		byte[] bytes = out.array();
+		int size = out.size();
+		ByteCursor.putInt(bytes, head.length + splitSignal.length, size - prefix);
+		return bytes.length == size ? bytes : Arrays.copyOf(bytes, size);
 	}
 
 	@Override
@@ -79,17 +73,29 @@ public class JavaObjProtocol extends NonCloneableBaseObject implements Protocol
 		int headEndPosition = offset + head.length;
 
 		int lengthEndPosition = headEndPosition + splitSignal.length + CoreDef.SIZEOF_INTEGER;
-		int length = Utils.bytes2Int(bytes, head.length + splitSignal.length);
+		int length = ByteCursor.getInt(bytes, headEndPosition + splitSignal.length);
 
-		byte[] data = Arrays.copyOfRange(bytes, lengthEndPosition + splitSignal.length,
-				lengthEndPosition + splitSignal.length + length);
-		try {
-			return SerializationUtils.deserialize(data);
+		try (ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(bytes, lengthEndPosition + splitSignal.length, length));) {
+			return (Confirm) ois.readObject();
 		} catch (Exception e) {
 			throw new LYException("Failed to convert data into object", e);
 		}
 	}
 
+	/**
+	 * Hand out its buffer instead of a copy
+	 */
+	private static final class FrameOutputStream extends ByteArrayOutputStream {
+		FrameOutputStream(int size) {
+			super(Math.max(size, CoreDef.SOCKET_MAX_BUFFER));
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+
 	@Override
 	public int validate(byte[] bytes, int len) {
 		return validate(bytes, 0, len);
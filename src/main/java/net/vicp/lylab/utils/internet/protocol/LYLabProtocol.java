@@ -1,5 +1,6 @@
 package net.vicp.lylab.utils.internet.protocol;
 
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 import net.vicp.lylab.core.CoreDef;
@@ -8,6 +9,7 @@ import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Protocol;
 import net.vicp.lylab.utils.Algorithm;
+import net.vicp.lylab.utils.ByteCursor;
 import net.vicp.lylab.utils.Utils;
 
 /**
@@ -32,29 +34,30 @@ public class LYLabProtocol extends NonCloneableBaseObject implements Protocol {
 
 	@Override
 	public byte[] encode(Confirm obj) {
-		byte[] info = obj.getClass().getName().getBytes();
-		byte[] data;
+		String info = obj.getClass().getName();
+		String json;
 		try {
-			data = Utils.serialize(obj).getBytes(CoreDef.CHARSET());
+			json = Utils.serialize(obj);
 		} catch (Exception e) {
 			throw new LYException("Cannot serialize object into data", e);
 		}
+		Charset charset = Charset.forName(CoreDef.CHARSET());
+		// UTF-8 is written straight into frame, others are encoded first
+		boolean utf8 = charset.equals(ByteCursor.UTF8);
+		byte[] infoBytes = utf8 ? null : info.getBytes(charset);
+		byte[] data = utf8 ? null : json.getBytes(charset);
+		int infoLength = utf8 ? ByteCursor.sizeOfUTF8(info) : infoBytes.length;
+		int iLength = utf8 ? ByteCursor.sizeOfUTF8(json) : data.length;
 
-		int iLength = data.length;// + splitSignal.length;
-		byte[] length = Utils.int2Bytes(iLength);
-
-		int size = head.length + splitSignal.length + length.length + splitSignal.length + info.length + splitSignal.length + iLength;
+		int size = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length + infoLength + splitSignal.length + iLength;
 
 		byte[] bytes = new byte[size];
-		int offset = 0;
-		offset = Utils.writeNext(bytes, offset, head);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, length);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, info);
-		offset = Utils.writeNext(bytes, offset, splitSignal);
-		offset = Utils.writeNext(bytes, offset, data);
-//		offset = Utils.writeNext(bytes, offset, splitSignal);
+		ByteCursor cursor = new ByteCursor(bytes);
+		cursor.put(head).put(splitSignal).putInt(iLength).put(splitSignal);
+		if (utf8)
+			cursor.putUTF8(info).put(splitSignal).putUTF8(json);
+		else
+			cursor.put(infoBytes).put(splitSignal).put(data);
 		return bytes;
 	}
 
@@ -74,25 +77,20 @@ public class LYLabProtocol extends NonCloneableBaseObject implements Protocol {
 			int endPosition = offset + head.length + splitSignal.length;
 			if (bytes.length - 4 < endPosition)
 				return null;
-			int length = Utils.bytes2Int(bytes, endPosition);
-			endPosition = head.length + splitSignal.length + CoreDef.SIZEOF_INTEGER + splitSignal.length;
-			if (endPosition + length > bytes.length)
+			ByteCursor cursor = new ByteCursor(bytes, endPosition, bytes.length - endPosition);
+			int length = cursor.getInt();
+			cursor.skip(splitSignal.length);
+			if (cursor.remaining() < length)
 				return null;
 
-			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
+			Charset charset = Charset.forName(CoreDef.CHARSET());
+			dataLength = Algorithm.KMPSearch(bytes, splitSignal, cursor.position());
 			if (dataLength == -1)
 				return null;
-			String info = new String(bytes, endPosition, dataLength, CoreDef.CHARSET());
-			endPosition = endPosition + dataLength + splitSignal.length;
-
-//			dataLength = Algorithm.KMPSearch(bytes, splitSignal, endPosition);
-//			if (dataLength == -1)
-//				return null;
-//			String data = new String(bytes, endPosition, dataLength, CoreDef.CHARSET());
-//			endPosition = endPosition + dataLength + splitSignal.length;
+			String info = cursor.getString(dataLength, charset);
+			cursor.skip(splitSignal.length);
 
-			String data = new String(bytes, endPosition, length, CoreDef.CHARSET());
-			endPosition = endPosition + length;
+			String data = cursor.getString(length, charset);
 
 			return (Confirm) Utils.deserialize(Class.forName(info), data);
 		} catch (Exception e) {
@@ -1,13 +1,24 @@
 package net.vicp.lylab.utils.internet.transfer;
 
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import net.vicp.lylab.core.BaseObject;
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
+import net.vicp.lylab.core.interfaces.FlowControl;
+import net.vicp.lylab.core.interfaces.Overload;
 import net.vicp.lylab.core.interfaces.Protocol;
 import net.vicp.lylab.core.interfaces.Session;
 import net.vicp.lylab.core.interfaces.Transfer;
@@ -16,6 +27,7 @@ import net.vicp.lylab.core.model.Pair;
 import net.vicp.lylab.core.pool.SequenceTemporaryPool;
 import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.atomic.AtomicBoolean;
+import net.vicp.lylab.utils.atomic.AtomicLong;
 import net.vicp.lylab.utils.controller.TimeoutController;
 import net.vicp.lylab.utils.tq.LYTaskQueue;
 import net.vicp.lylab.utils.tq.LoneWolf;
@@ -23,6 +35,10 @@ import net.vicp.lylab.utils.tq.LoneWolf;
 /**
  * Transfer could combine data packet chips into a full packet
  * And provide packet to server Aop logic
+ * <br>
+ * Requests decoded but not answered yet are counted for each client, if they
+ * pass high watermark, the busiest clients will be paused on {@link FlowControl}
+ * sessions until low watermark is reached.
  * @author Young
  *
  */
@@ -35,8 +51,20 @@ public abstract class AbstractTransfer extends LoneWolf implements Transfer {
 	protected Map<InetAddr, Long> addr2timeout = new HashMap<>();
 	//				client				byte buffer
 	protected Map<InetAddr, Pair<byte[], Integer>> addr2byte = new HashMap<>();
-	//										client			Data
-	protected SequenceTemporaryPool<Pair<InetAddr, byte[]>> requestPool = new SequenceTemporaryPool<>();
+	//										Data
+	protected SequenceTemporaryPool<PendingRequest> requestPool = new SequenceTemporaryPool<>(CoreDef.DEFAULT_TRANSFER_MAX_PENDING);
+	//				client		pending requests
+	protected Map<InetAddr, Integer> addr2pending = new HashMap<>();
+	protected Set<InetAddr> pausedClients = new HashSet<>();
+	protected int pendingCount = 0;
+	protected int highWatermark = CoreDef.DEFAULT_TRANSFER_HIGH_WATERMARK;
+	protected int lowWatermark = CoreDef.DEFAULT_TRANSFER_LOW_WATERMARK;
+	protected long maxQueueWait = CoreDef.REQUEST_TTIMEOUT;
+	// statistic
+	protected AtomicLong dispatchedCount = new AtomicLong(0L);
+	protected AtomicLong shedCount = new AtomicLong(0L);
+	protected AtomicLong totalQueueWait = new AtomicLong(0L);
+	protected AtomicLong maxQueueWaitSeen = new AtomicLong(0L);
 	//
 	protected long timeout = CoreDef.DEFAULT_SOCKET_READ_TTIMEOUT;
 	protected AtomicBoolean closed = new AtomicBoolean(true);
@@ -77,6 +105,174 @@ public abstract class AbstractTransfer extends LoneWolf implements Transfer {
 		}
 	}
 
+	/**
+	 * Split buffered bytes into full requests and put them into request pool
+	 * @return
+	 * true if no more request was found
+	 */
+	protected boolean validateRequest() {
+		boolean noMoreRequest = true;
+		// answered after lock is released, a slow client mustn't hold others
+		List<PendingRequest> toShed = new ArrayList<PendingRequest>();
+		if (!addr2validate.isEmpty()) {
+			synchronized (lock) {
+				Iterator<Entry<InetAddr, Boolean>> addrContainerIterator = addr2validate.entrySet().iterator();
+				while (addrContainerIterator.hasNext()) {
+					Entry<InetAddr, Boolean> addrContainer = addrContainerIterator.next();
+					addrContainerIterator.remove();
+					if (!addrContainer.getValue())
+						continue;
+					try {
+						Pair<byte[], Integer> byteContainer = addr2byte.get(addrContainer.getKey());
+						synchronized (byteContainer) {
+							int start = 0, next = 0;
+							boolean newReuqest = false;
+							while (true) {
+								start = next;
+								if ((next = protocol.validate(byteContainer.getLeft(), start,
+										byteContainer.getRight())) == 0)
+									break;
+								if (next <= byteContainer.getRight()) {
+									byte[] fullReq = new byte[next - start];
+									Utils.bytecat(fullReq, 0, byteContainer.getLeft(), start, next - start);
+									PendingRequest request = new PendingRequest(addrContainer.getKey(), fullReq);
+									pending(addrContainer.getKey());
+									if (requestPool.add(request) == null)
+										toShed.add(request);
+									newReuqest = true;
+								}
+							}
+							if (newReuqest) {
+								Utils.bytecat(byteContainer.getLeft(), 0, byteContainer.getLeft(), start,
+										byteContainer.getRight() - start);
+								byteContainer.setRight(byteContainer.getRight() - start);
+								Arrays.fill(byteContainer.getLeft(), byteContainer.getRight(),
+										byteContainer.getLeft().length, (byte) 0);
+								noMoreRequest = false;
+							}
+						}
+					} catch (Exception e) {
+						log.error("Decoding requests failed:" + Utils.getStringFromException(e));
+					}
+				}
+				if (pendingCount > highWatermark)
+					pauseBusiest();
+			}
+		}
+		for (PendingRequest request : toShed)
+			shed(request);
+		return noMoreRequest;
+	}
+
+	/**
+	 * Take next request out of request pool and record how long it waited.
+	 * Request waited longer than maxQueueWait will be shed.
+	 * @return
+	 * null if request pool is empty
+	 */
+	protected PendingRequest nextRequest() {
+		while (true) {
+			PendingRequest request = requestPool.accessOne();
+			if (request == null)
+				return null;
+			long wait = System.currentTimeMillis() - request.getEnqueueTime();
+			totalQueueWait.getAndAdd(wait);
+			long max;
+			while (wait > (max = maxQueueWaitSeen.get()))
+				if (maxQueueWaitSeen.compareAndSet(max, wait))
+					break;
+			if (wait > maxQueueWait) {
+				shed(request);
+				continue;
+			}
+			dispatchedCount.incrementAndGet();
+			return request;
+		}
+	}
+
+	/**
+	 * Answer a request with "server busy" if dispatcher supports
+	 * {@link Overload}, otherwise the request is dropped.
+	 * @param request
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected void shed(PendingRequest request) {
+		shedCount.incrementAndGet();
+		try {
+			if (!(dispatcher instanceof Overload)) {
+				log.warn("Server busy, request from " + request.getClientAddr() + " was dropped");
+				return;
+			}
+			Confirm decoded = null;
+			try {
+				decoded = protocol.decode(request.getData(), 0);
+			} catch (Exception e) { }
+			Confirm response = ((Overload) dispatcher).overload(decoded);
+			Socket client = session.getClient(request.getClientAddr());
+			session.send(client, protocol.encode(response));
+		} catch (Exception e) {
+			log.error("Reply server busy failed:" + Utils.getStringFromException(e));
+		} finally {
+			requestDone(request.getClientAddr());
+		}
+	}
+
+	private void pending(InetAddr clientAddr) {
+		Integer count = addr2pending.get(clientAddr);
+		addr2pending.put(clientAddr, count == null ? 1 : count + 1);
+		pendingCount++;
+	}
+
+	@Override
+	public void requestDone(InetAddr clientAddr) {
+		synchronized (lock) {
+			Integer count = addr2pending.get(clientAddr);
+			if (count != null) {
+				pendingCount--;
+				if (count <= 1)
+					addr2pending.remove(clientAddr);
+				else
+					addr2pending.put(clientAddr, count - 1);
+			}
+			if (pendingCount <= lowWatermark && !pausedClients.isEmpty())
+				resumeAll();
+			signalAll();
+		}
+	}
+
+	/**
+	 * Pause the busiest clients, until what they pending could bring us back
+	 * to low watermark
+	 */
+	private void pauseBusiest() {
+		if (!(session instanceof FlowControl))
+			return;
+		List<Entry<InetAddr, Integer>> busiest = new ArrayList<>(addr2pending.entrySet());
+		Collections.sort(busiest, new Comparator<Entry<InetAddr, Integer>>() {
+			@Override
+			public int compare(Entry<InetAddr, Integer> e1, Entry<InetAddr, Integer> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		int excess = pendingCount - lowWatermark;
+		for (Entry<InetAddr, Integer> entry : busiest) {
+			if (excess <= 0)
+				break;
+			excess -= entry.getValue();
+			if (pausedClients.add(entry.getKey())) {
+				((FlowControl) session).pauseRead(entry.getKey());
+				log.debug("Too many pending requests, pause reading from " + entry.getKey());
+			}
+		}
+	}
+
+	private void resumeAll() {
+		if (session instanceof FlowControl)
+			for (InetAddr clientAddr : pausedClients)
+				((FlowControl) session).resumeRead(clientAddr);
+		pausedClients.clear();
+	}
+
 	public boolean isClosed() {
 		return closed.get();
 	}
@@ -90,6 +286,11 @@ public abstract class AbstractTransfer extends LoneWolf implements Transfer {
 		addr2timeout.clear();
 		addr2byte.clear();
 		requestPool.clear();
+		synchronized (lock) {
+			addr2pending.clear();
+			pausedClients.clear();
+			pendingCount = 0;
+		}
 		taskQueue.close();
 	}
 
@@ -117,6 +318,33 @@ public abstract class AbstractTransfer extends LoneWolf implements Transfer {
 		}
 	}
 
+	/**
+	 * A full request waiting for dispatch
+	 */
+	protected static class PendingRequest extends BaseObject {
+		private final InetAddr clientAddr;
+		private final byte[] data;
+		private final long enqueueTime;
+
+		public PendingRequest(InetAddr clientAddr, byte[] data) {
+			this.clientAddr = clientAddr;
+			this.data = data;
+			this.enqueueTime = System.currentTimeMillis();
+		}
+
+		public InetAddr getClientAddr() {
+			return clientAddr;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public long getEnqueueTime() {
+			return enqueueTime;
+		}
+	}
+
 	// getters & setters
 
 	public long getTimeout() {
@@ -159,4 +387,59 @@ public abstract class AbstractTransfer extends LoneWolf implements Transfer {
 		this.dispatcher = dispatcher;
 	}
 
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pendingCount;
+		}
+	}
+
+	public int getHighWatermark() {
+		return highWatermark;
+	}
+
+	public void setHighWatermark(int highWatermark) {
+		this.highWatermark = highWatermark;
+	}
+
+	public int getLowWatermark() {
+		return lowWatermark;
+	}
+
+	public void setLowWatermark(int lowWatermark) {
+		this.lowWatermark = lowWatermark;
+	}
+
+	public long getMaxQueueWait() {
+		return maxQueueWait;
+	}
+
+	public void setMaxQueueWait(long maxQueueWait) {
+		this.maxQueueWait = maxQueueWait;
+	}
+
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+
+	public long getShedCount() {
+		return shedCount.get();
+	}
+
+	/**
+	 * @return
+	 * average time(ms) a request waited in request pool before dispatch
+	 */
+	public long getAverageQueueWait() {
+		long count = dispatchedCount.get() + shedCount.get();
+		return count == 0L ? 0L : totalQueueWait.get() / count;
+	}
+
+	/**
+	 * @return
+	 * longest time(ms) a request waited in request pool before dispatch
+	 */
+	public long getMaxQueueWaitSeen() {
+		return maxQueueWaitSeen.get();
+	}
+
 }
@@ -1,19 +1,12 @@
 package net.vicp.lylab.utils.internet.transfer;
 
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Map.Entry;
-
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.exceptions.LYException;
 import net.vicp.lylab.core.interfaces.Confirm;
 import net.vicp.lylab.core.interfaces.Dispatcher;
 import net.vicp.lylab.core.interfaces.Protocol;
 import net.vicp.lylab.core.interfaces.Session;
-import net.vicp.lylab.core.model.InetAddr;
-import net.vicp.lylab.core.model.Pair;
 import net.vicp.lylab.core.pool.AutoGeneratePool;
-import net.vicp.lylab.utils.Utils;
 import net.vicp.lylab.utils.creator.AutoCreator;
 import net.vicp.lylab.utils.creator.InitializationCreator;
 import net.vicp.lylab.utils.internet.dispatch.DispatchHandler;
@@ -29,6 +22,7 @@ public class PooledAsyncTransfer extends AbstractTransfer {
 	private static final long serialVersionUID = -8449620508452125989L;
 
 	AutoGeneratePool<DispatchHandler> dispatchHandlerPool;
+	long admissionTimeout = CoreDef.DEFAULT_ADMISSION_TIMEOUT;
 
 	public PooledAsyncTransfer(Session session, Protocol protocol, LYTaskQueue taskQueue,
 			Dispatcher<? super Confirm, ? super Confirm> dispatcher, Integer maxHandlerSize) {
@@ -59,51 +53,25 @@ public class PooledAsyncTransfer extends AbstractTransfer {
 		super.initialize();
 	}
 
-	private boolean validateRequest() {
-		boolean noMoreRequest = true;
-		if (!addr2validate.isEmpty()) {
-			synchronized (lock) {
-				Iterator<Entry<InetAddr, Boolean>> addrContainerIterator = addr2validate.entrySet().iterator();
-				while (addrContainerIterator.hasNext()) {
-					Entry<InetAddr, Boolean> addrContainer = addrContainerIterator.next();
-					addrContainerIterator.remove();
-					if (!addrContainer.getValue())
-						continue;
-					try {
-						Pair<byte[], Integer> byteContainer = addr2byte.get(addrContainer.getKey());
-						synchronized (byteContainer) {
-							int start = 0, next = 0;
-							boolean newReuqest = false;
-							while (true) {
-								start = next;
-								if ((next = protocol.validate(byteContainer.getLeft(), start,
-										byteContainer.getRight())) == 0)
-									break;
-								if (next <= byteContainer.getRight()) {
-									byte[] fullReq = new byte[next - start];
-									Utils.bytecat(fullReq, 0, byteContainer.getLeft(), start, next - start);
-									requestPool.add(new Pair<>(addrContainer.getKey(), fullReq));
-									newReuqest = true;
-								}
-							}
-							if (newReuqest) {
-								Utils.bytecat(byteContainer.getLeft(), 0, byteContainer.getLeft(), start,
-										byteContainer.getRight() - start);
-								byteContainer.setRight(byteContainer.getRight() - start);
-								Arrays.fill(byteContainer.getLeft(), byteContainer.getRight(),
-										byteContainer.getLeft().length, (byte) 0);
-								noMoreRequest = false;
-							}
-						}
-					} catch (Exception e) {
-						log.error("Decoding requests failed:" + Utils.getStringFromException(e));
-					}
-				}
-			}
+	/**
+	 * Wait for an idle dispatch handler, handlers released will wake us up
+	 * by {@link #requestDone(net.vicp.lylab.core.model.InetAddr)}
+	 * @return
+	 * null if no handler is available within admission timeout
+	 */
+	private DispatchHandler admit() {
+		long deadline = System.currentTimeMillis() + admissionTimeout;
+		while (true) {
+			DispatchHandler dispatchHandler = dispatchHandlerPool.accessOne();
+			if (dispatchHandler != null)
+				return dispatchHandler;
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0 || isClosed())
+				return null;
+			await(Math.min(left, CoreDef.WAITING_SHORT));
 		}
-		return noMoreRequest;
 	}
-	
+
 	@Override
 	public void exec() {
 		while (true) {
@@ -112,22 +80,29 @@ public class PooledAsyncTransfer extends AbstractTransfer {
 			if (requestPool.isEmpty() && validateRequest())
 				await(CoreDef.WAITING_LONG);
 			else {
-				Pair<InetAddr, byte[]> request = requestPool.accessOne();
-
-				while (true) {
-					DispatchHandler dispatchHandler = dispatchHandlerPool.accessOne();
-					if (dispatchHandler == null) {
-						// extreme short wait
-						await(1L);
-						continue;
-					}
-					dispatchHandler.setController(dispatchHandlerPool);
-					dispatchHandler.handlerRequest(session.getClient(request.getLeft()), request.getRight(), session,
-							dispatcher, protocol);
-					break;
+				PendingRequest request = nextRequest();
+				if (request == null)
+					continue;
+				DispatchHandler dispatchHandler = admit();
+				if (dispatchHandler == null) {
+					// no handler released in time, answer server busy
+					shed(request);
+					continue;
 				}
+				dispatchHandler.setController(dispatchHandlerPool);
+				dispatchHandler.setTransfer(this, request.getClientAddr());
+				dispatchHandler.handlerRequest(session.getClient(request.getClientAddr()), request.getData(), session,
+						dispatcher, protocol);
 			}
 		}
 	}
 
+	public long getAdmissionTimeout() {
+		return admissionTimeout;
+	}
+
+	public void setAdmissionTimeout(long admissionTimeout) {
+		this.admissionTimeout = admissionTimeout;
+	}
+
 }
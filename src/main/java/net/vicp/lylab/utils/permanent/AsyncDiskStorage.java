@@ -2,77 +2,179 @@ package net.vicp.lylab.utils.permanent;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.utils.Utils;
+import net.vicp.lylab.utils.atomic.AtomicLong;
 
+/**
+ * Lines are queued and written by a background thread.<br>
+ * The thread writes as soon as lines arrive, a batch is at most batchSize
+ * lines, or what arrived within maxLatency if it's set. A full queue blocks
+ * appendLine() for at most appendTimeout, then the line is rejected.
+ * <br><br>
+ * If syncPerBatch is set, each batch is forced onto disk before next one.
+ *
+ * @author Young
+ *
+ */
 public class AsyncDiskStorage extends DiskStorage {
 	private static final long serialVersionUID = 6315043692230051343L;
 
 	protected String caller;
 	protected Long forceSaveInterval = CoreDef.DEFAULT_PERMANENT_INTERVAL;
-	
-	protected List<String> container = new ArrayList<String>();
+
+	protected BlockingQueue<String> container;
+	protected int batchSize = CoreDef.DEFAULT_DISK_STORAGE_BATCH_SIZE;
+	protected long maxLatency = 0L;
+	protected long appendTimeout = CoreDef.DEFAULT_ADMISSION_TIMEOUT;
+	protected volatile boolean syncPerBatch = false;
+	protected AtomicLong rejectedCount = new AtomicLong(0L);
 
 	public AsyncDiskStorage(String filePath, String fileSuffix, String caller) {
+		this(filePath, fileSuffix, caller, CoreDef.DEFAULT_DISK_STORAGE_QUEUE_SIZE);
+	}
+
+	public AsyncDiskStorage(String filePath, String fileSuffix, String caller, int queueSize) {
 		super(filePath, fileSuffix);
 		this.caller = caller;
+		this.container = new LinkedBlockingQueue<String>(queueSize);
 		this.begin("AsyncDiskPermanent - " + caller);
 	}
-	
+
 	@Override
 	public boolean appendLine(String entry) {
-		if (working.get())
-			synchronized (lock) {
-				return container.add(entry);
-			}
+		if (!working.get())
+			return false;
+		try {
+			if (container.offer(entry, appendTimeout, TimeUnit.MILLISECONDS))
+				return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		rejectedCount.incrementAndGet();
+		log.warn("Disk storage queue is full, line dropped by " + caller);
 		return false;
 	}
-	
+
 	@Override
 	public void close() throws Exception {
 		synchronized (lock) {
-			working.set(false);
-			long wait= 100L;
-			thread.interrupt();
-			while (!join(wait)) {
-				log.info("Waiting for finish, interval=" + wait);
-				wait*=2;
-			}
-			List<String> data = getContainer();
-			if(!data.isEmpty())
-				writer.writeLine(data);
-			writer.close();
+			if (!working.getAndSet(false))
+				return;
 		}
+		// not interrupted, it would close the channel in use
+		long wait = 100L;
+		while (!join(wait)) {
+			log.info("Waiting for finish, interval=" + wait);
+			wait *= 2;
+		}
+		List<String> data = new ArrayList<String>();
+		container.drainTo(data);
+		if (!data.isEmpty())
+			writer.writeLine(data);
+		if (syncPerBatch)
+			writer.sync();
+		writer.close();
 	}
 
 	@Override
 	public void exec() {
-		int circle = 0;
+		long idleSince = System.currentTimeMillis();
+		List<String> data = new ArrayList<String>(batchSize);
 		while (working.get()) {
 			try {
-				List<String> data = getContainer();
-				if(!data.isEmpty())
-					writer.writeLine(data);
-				else
-					circle++;
-				if (circle > forceSaveInterval) {
-					circle = 0;
-					writer.close();
+				String first = container.poll(CoreDef.WAITING_SHORT, TimeUnit.MILLISECONDS);
+				long now = System.currentTimeMillis();
+				if (first == null) {
+					if (now - idleSince > forceSaveInterval * CoreDef.SECOND) {
+						idleSince = now;
+						writer.close();
+					}
+					cycle();
+					continue;
+				}
+				data.add(first);
+				container.drainTo(data, batchSize - 1);
+				// wait a bit for a bigger batch
+				long deadline = now + maxLatency;
+				while (data.size() < batchSize && (now = System.currentTimeMillis()) < deadline) {
+					String next = container.poll(deadline - now, TimeUnit.MILLISECONDS);
+					if (next == null)
+						break;
+					data.add(next);
+					container.drainTo(data, batchSize - data.size());
 				}
-				Thread.sleep(1000);
+				cycle();
+				writer.writeLine(data);
+				if (syncPerBatch)
+					writer.sync();
+				idleSince = System.currentTimeMillis();
+			} catch (InterruptedException e) {
+				break;
 			} catch (Exception e) {
 				log.error("Permanent procedure got an exception:" + Utils.getStringFromException(e));
+			} finally {
+				data.clear();
 			}
 		}
 	}
 
-	protected List<String> getContainer() {
-		synchronized (lock) {
-			List<String> tmp = container;
-			container = new ArrayList<String>();
-			return tmp;
-		}
+	/**
+	 * Called by writer thread before each batch, and when idle
+	 */
+	protected void cycle() {
+	}
+
+	/**
+	 * @return
+	 * lines dropped because queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public int getPendingCount() {
+		return container.size();
 	}
-	
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * How long writer may wait to make a batch bigger, 0 by default
+	 * @param maxLatency in millisecond
+	 */
+	public void setMaxLatency(long maxLatency) {
+		this.maxLatency = maxLatency;
+	}
+
+	public long getAppendTimeout() {
+		return appendTimeout;
+	}
+
+	public void setAppendTimeout(long appendTimeout) {
+		this.appendTimeout = appendTimeout;
+	}
+
+	public boolean isSyncPerBatch() {
+		return syncPerBatch;
+	}
+
+	public void setSyncPerBatch(boolean syncPerBatch) {
+		this.syncPerBatch = syncPerBatch;
+	}
+
 }
@@ -1,41 +1,32 @@
 package net.vicp.lylab.utils.permanent;
 
 import java.util.Date;
-import java.util.List;
 
 import org.apache.commons.lang3.time.DateFormatUtils;
 
-import net.vicp.lylab.utils.Utils;
-
 public class DailyRollingAsyncDiskStorage extends AsyncDiskStorage {
 	private static final long serialVersionUID = -3151642054290000095L;
 
+	private volatile String today;
+
 	public DailyRollingAsyncDiskStorage(String filePath, String fileSuffix,
 			String caller) {
 		super(filePath + getTodayDateString(), fileSuffix, caller);
 		basePath = filePath;
 	}
 
+	/**
+	 * Roll to directory of a new day before writing into it
+	 */
 	@Override
-	public void exec() {
-		int circle = 0;
-		while (working.get()) {
-			try {
-				List<String> data = getContainer();
-				if (!data.isEmpty())
-					writer.writeLine(data);
-				else
-					circle++;
-				if (circle > forceSaveInterval) {
-					circle = 0;
-					writer.close();
-					writer.setPath(basePath + getTodayDateString());
-				}
-				Thread.sleep(60000);
-			} catch (Exception e) {
-				log.error("Permanent procedure got an exception:"
-						+ Utils.getStringFromException(e));
-			}
+	protected void cycle() {
+		String date = getTodayDateString();
+		if (today == null)
+			today = date;
+		else if (!today.equals(date)) {
+			today = date;
+			writer.close();
+			writer.setPath(basePath + date);
 		}
 	}
 
@@ -44,4 +44,12 @@ public class DiskStorage extends LoneWolf implements AutoCloseable {
 		writer.setMaxLine(maxLine);
 	}
 
+	/**
+	 * Write compressed segment files, see {@link SegmentWriter}
+	 * @param compressed
+	 */
+	public void setCompressed(boolean compressed) {
+		writer.setCompressed(compressed);
+	}
+
 }
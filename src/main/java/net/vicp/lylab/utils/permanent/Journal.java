@@ -0,0 +1,546 @@
+package net.vicp.lylab.utils.permanent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.LifeCycle;
+import net.vicp.lylab.utils.Utils;
+import net.vicp.lylab.utils.tq.LoneWolf;
+
+/**
+ * Append-only journal of enqueue/complete events, so pending items survive a
+ * crash, see {@link net.vicp.lylab.utils.tq.LYTaskQueue#setJournal(Journal)}.<br>
+ * Events are written by one thread in batches, a batch is forced to disk
+ * once(group commit). {@link #append(byte[])} returns after its batch is on
+ * disk, unless syncOnAppend is off.
+ * <br><br>
+ * Files are rolled into segments named journal.[sequence].log. The oldest
+ * segment is deleted once all its items completed, or its few pending items
+ * are copied forward, so the journal stays bounded.<br>
+ * Items neither completed nor discarded are reported by
+ * {@link #getRecovered()} after {@link #initialize()}.<br>
+ * If a batch fails to reach disk, the writer stops. Callers waiting on that
+ * batch or any later one get an {@link LYException}, and further events are
+ * refused.
+ * <br><br>
+ * Record: type(1) id(8) length(4) payload crc32(4), a torn record ends
+ * replay of its segment.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.15
+ * @version 1.0.0
+ */
+public class Journal extends LoneWolf implements LifeCycle {
+	private static final long serialVersionUID = 2983178204485741396L;
+
+	public static final byte ENQUEUE = 1;
+	public static final byte COMPLETE = 2;
+
+	private static final int HEADER = CoreDef.SIZEOF_BYTE + CoreDef.SIZEOF_LONG + CoreDef.SIZEOF_INTEGER;
+	private static final int TRAILER = CoreDef.SIZEOF_INTEGER;
+	private static final String PREFIX = "journal.";
+	private static final String SUFFIX = ".log";
+
+	protected String directory;
+	protected long segmentSize = CoreDef.DEFAULT_JOURNAL_SEGMENT_SIZE;
+	protected int compactRatio = CoreDef.DEFAULT_JOURNAL_COMPACT_RATIO;
+	protected boolean syncOnAppend = true;
+
+	// guarded by lock
+	private List<Record> batch = new ArrayList<Record>();
+	private long batchSeq = 0L;
+	private long syncedSeq = 0L;
+	private long nextId = 1L;
+	private volatile boolean closing = false;
+	private volatile Throwable failure = null;
+	private volatile boolean dead = false;
+
+	// writer thread only
+	private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private final Map<Long, Location> live = new HashMap<Long, Location>();
+	private Segment active = null;
+	private volatile int pendingCount = 0;
+	private FileChannel channel = null;
+
+	// replay result
+	private TreeMap<Long, byte[]> recovered = new TreeMap<Long, byte[]>();
+	private List<File> replayed = new ArrayList<File>();
+
+	public Journal() {
+	}
+
+	public Journal(String directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Replay existing segments, then start a new segment and writer thread
+	 */
+	@Override
+	public void initialize() {
+		if (directory == null)
+			throw new LYException("Journal directory is not set");
+		File dir = new File(directory);
+		if (!dir.exists() && !dir.mkdirs())
+			throw new LYException("Unable to create journal directory:" + directory);
+		long seq = 0L;
+		for (File file : listSegments(dir)) {
+			seq = Math.max(seq, sequenceOf(file));
+			replay(file);
+			replayed.add(file);
+		}
+		try {
+			roll(seq + 1L);
+		} catch (IOException e) {
+			throw new LYException("Unable to open journal segment", e);
+		}
+		if (!recovered.isEmpty())
+			log.info("Journal recovered " + recovered.size() + " pending items from " + directory);
+		begin("Journal");
+	}
+
+	/**
+	 * Flush events queued so far and stop writer thread
+	 */
+	@Override
+	public void close() {
+		if (closing)
+			return;
+		synchronized (lock) {
+			closing = true;
+			lock.notifyAll();
+		}
+		try {
+			if (getThread() != null)
+				join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Record an item
+	 * @param payload
+	 * @return
+	 * id to complete it
+	 */
+	public long append(byte[] payload) {
+		return appendAll(Arrays.asList(payload)).get(0);
+	}
+
+	/**
+	 * Record items in one batch
+	 * @param payloads
+	 * @return
+	 * ids in the same order
+	 */
+	public List<Long> appendAll(List<byte[]> payloads) {
+		List<Long> ids = new ArrayList<Long>(payloads.size());
+		long ticket;
+		synchronized (lock) {
+			checkOpen();
+			for (byte[] payload : payloads) {
+				long id = nextId++;
+				batch.add(new Record(ENQUEUE, id, payload));
+				ids.add(id);
+			}
+			ticket = batchSeq;
+			lock.notifyAll();
+		}
+		if (syncOnAppend)
+			waitFor(ticket);
+		return ids;
+	}
+
+	/**
+	 * Record an item is done, never waits for disk. Dropped once the writer
+	 * stopped, the item is replayed as pending then.
+	 * @param id
+	 */
+	public void complete(long id) {
+		if (id <= 0L)
+			return;
+		synchronized (lock) {
+			if (closing || dead)
+				return;
+			batch.add(new Record(COMPLETE, id, null));
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until all events queued so far are on disk
+	 */
+	public void flush() {
+		long ticket;
+		synchronized (lock) {
+			checkOpen();
+			if (batch.isEmpty())
+				ticket = batchSeq - 1L;
+			else
+				ticket = batchSeq;
+		}
+		waitFor(ticket);
+	}
+
+	/**
+	 * @return
+	 * payloads of pending items found at initialize(), in appending order
+	 */
+	public List<byte[]> getRecovered() {
+		return new ArrayList<byte[]>(recovered.values());
+	}
+
+	/**
+	 * Delete segments replayed at initialize(), call after recovered items
+	 * were appended again
+	 */
+	public void discardRecovered() {
+		flush();
+		for (File file : replayed)
+			if (!file.delete())
+				log.error("Unable to delete journal segment:" + file);
+		replayed.clear();
+		recovered.clear();
+	}
+
+	private void checkOpen() {
+		if (failure != null)
+			throw new LYException("Journal failed", failure);
+		if (closing || dead)
+			throw new LYException("Journal is closed");
+	}
+
+	private void waitFor(long ticket) {
+		synchronized (lock) {
+			// a failed batch never counts as synced, nor does any after it
+			while (syncedSeq <= ticket && !dead)
+				try {
+					lock.wait(CoreDef.WAITING_SHORT);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new LYException("Interrupted while waiting for journal", e);
+				}
+			if (syncedSeq <= ticket) {
+				if (failure != null)
+					throw new LYException("Journal failed", failure);
+				throw new LYException("Journal is closed");
+			}
+		}
+	}
+
+	/**
+	 * Writer loop, DO NOT call this method manually
+	 */
+	@Override
+	public void exec() {
+		try {
+			writeLoop();
+		} finally {
+			synchronized (lock) {
+				dead = true;
+				// nobody writes them any more
+				batch.clear();
+				lock.notifyAll();
+			}
+			Utils.tryClose(channel);
+		}
+	}
+
+	private void writeLoop() {
+		while (true) {
+			List<Record> work;
+			long seq;
+			synchronized (lock) {
+				while (batch.isEmpty() && !closing)
+					try {
+						lock.wait(CoreDef.WAITING_SHORT);
+					} catch (InterruptedException e) {
+						closing = true;
+					}
+				if (batch.isEmpty())
+					break;
+				work = batch;
+				batch = new ArrayList<Record>();
+				seq = batchSeq++;
+			}
+			try {
+				write(work);
+				channel.force(false);
+				truncateHead();
+			} catch (Throwable t) {
+				log.error("Journal write failed:" + Utils.getStringFromThrowable(t));
+				failure = t;
+				return;
+			}
+			synchronized (lock) {
+				syncedSeq = seq + 1L;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void write(List<Record> records) throws IOException {
+		int capacity = 0;
+		for (Record record : records)
+			capacity += record.size();
+		ByteBuffer buffer = ByteBuffer.allocate(capacity);
+		for (Record record : records) {
+			if (record.type == COMPLETE) {
+				Location location = live.remove(record.id);
+				// unknown or completed already
+				if (location == null)
+					continue;
+				location.segment.live--;
+			}
+			if (active.size + buffer.position() + record.size() > segmentSize && active.size + buffer.position() > 0L) {
+				drain(buffer);
+				roll(active.seq + 1L);
+			}
+			if (record.type == ENQUEUE) {
+				live.put(record.id, new Location(active, active.size + buffer.position(), record.payload.length));
+				active.live++;
+				active.total++;
+			}
+			record.writeTo(buffer);
+		}
+		drain(buffer);
+		pendingCount = live.size();
+	}
+
+	private void drain(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			active.size += channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void roll(long seq) throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			channel.close();
+		}
+		File file = new File(directory, PREFIX + String.format("%019d", seq) + SUFFIX);
+		@SuppressWarnings("resource")
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		channel.position(channel.size());
+		active = new Segment(seq, file);
+		active.size = channel.size();
+		segments.put(seq, active);
+	}
+
+	/**
+	 * Delete oldest segments if nothing pending, or copy their pending items
+	 * forward if only a few left. Only the oldest one is touched, so a
+	 * complete event is never dropped before its item.
+	 */
+	private void truncateHead() throws IOException {
+		while (segments.size() > 1) {
+			Segment head = segments.firstEntry().getValue();
+			if (head.live > 0 && head.live * compactRatio >= head.total)
+				return;
+			if (head.live > 0) {
+				List<Record> copies = new ArrayList<Record>(head.live);
+				try (RandomAccessFile raf = new RandomAccessFile(head.file, "r")) {
+					for (Map.Entry<Long, Location> entry : live.entrySet()) {
+						Location location = entry.getValue();
+						if (location.segment != head)
+							continue;
+						byte[] payload = new byte[location.length];
+						raf.seek(location.offset + HEADER);
+						raf.readFully(payload);
+						copies.add(new Record(ENQUEUE, entry.getKey(), payload));
+					}
+				}
+				for (Record copy : copies) {
+					live.remove(copy.id);
+					head.live--;
+				}
+				write(copies);
+				channel.force(false);
+			}
+			segments.remove(head.seq);
+			if (!head.file.delete())
+				log.error("Unable to delete journal segment:" + head.file);
+		}
+	}
+
+	private void replay(File file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				long id = in.readLong();
+				int length = in.readInt();
+				if ((type != ENQUEUE && type != COMPLETE) || length < 0 || length > segmentSize)
+					throw new IOException("Bad record header");
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				int checksum = in.readInt();
+				crc.reset();
+				Record.checksum(crc, type, id, payload);
+				if ((int) crc.getValue() != checksum)
+					throw new IOException("Bad record checksum");
+				nextId = Math.max(nextId, id + 1L);
+				if (type == ENQUEUE)
+					recovered.put(id, payload);
+				else
+					recovered.remove(id);
+			}
+		} catch (IOException e) {
+			// torn tail from a crash, records before it are good
+			log.warn("Journal replay of " + file + " stopped early:" + e.getMessage());
+		}
+	}
+
+	private static List<File> listSegments(File dir) {
+		List<File> files = new LinkedList<File>();
+		File[] all = dir.listFiles();
+		if (all == null)
+			return files;
+		Arrays.sort(all);
+		for (File file : all)
+			if (file.getName().startsWith(PREFIX) && file.getName().endsWith(SUFFIX) && sequenceOf(file) >= 0L)
+				files.add(file);
+		return files;
+	}
+
+	private static long sequenceOf(File file) {
+		String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * @return
+	 * items appended but not completed yet, as seen by writer thread
+	 */
+	public int getPendingCount() {
+		return pendingCount;
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public int getCompactRatio() {
+		return compactRatio;
+	}
+
+	/**
+	 * Oldest segment is compacted if less than 1/compactRatio of its items
+	 * are pending
+	 * @param compactRatio
+	 */
+	public void setCompactRatio(int compactRatio) {
+		this.compactRatio = compactRatio;
+	}
+
+	public boolean isSyncOnAppend() {
+		return syncOnAppend;
+	}
+
+	/**
+	 * If off, append() returns before its batch is on disk, a crash may lose
+	 * the latest items
+	 * @param syncOnAppend
+	 */
+	public void setSyncOnAppend(boolean syncOnAppend) {
+		this.syncOnAppend = syncOnAppend;
+	}
+
+	private static final class Record {
+		final byte type;
+		final long id;
+		final byte[] payload;
+
+		Record(byte type, long id, byte[] payload) {
+			this.type = type;
+			this.id = id;
+			this.payload = payload == null ? new byte[0] : payload;
+		}
+
+		int size() {
+			return HEADER + payload.length + TRAILER;
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			CRC32 crc = new CRC32();
+			checksum(crc, type, id, payload);
+			buffer.put(type).putLong(id).putInt(payload.length).put(payload).putInt((int) crc.getValue());
+		}
+
+		static void checksum(CRC32 crc, byte type, long id, byte[] payload) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.put(type).putLong(id).putInt(payload.length);
+			crc.update(header.array());
+			crc.update(payload);
+		}
+	}
+
+	private static final class Segment {
+		final long seq;
+		final File file;
+		long size = 0L;
+		int total = 0;
+		int live = 0;
+
+		Segment(long seq, File file) {
+			this.seq = seq;
+			this.file = file;
+		}
+	}
+
+	private static final class Location {
+		final Segment segment;
+		final long offset;
+		final int length;
+
+		Location(Segment segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+}
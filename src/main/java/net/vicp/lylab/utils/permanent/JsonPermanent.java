@@ -10,31 +10,48 @@ import java.util.List;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
+import net.vicp.lylab.utils.TextReader;
 import net.vicp.lylab.utils.Utils;
 
 public class JsonPermanent extends Permanent {
 	
 	public List<Object> readFromDisk() {
-		List<Object> list = new ArrayList<>();
-		if (fileName != null && instanceClassName != null) {
-			File file = new File(fileName);
-			if (file.exists()) {
-				List<String> rawJsons = Utils.readFileByLines(fileName);
-				try {
-					for (String json : rawJsons) {
-						try {
-							list.add(Utils.deserialize(instanceClassName, json));
-						} catch (Exception e) {
-							log.error("Unable to deserialize data into class (" + instanceClassName + "):" + CoreDef.LINE_SEPARATOR + json + CoreDef.LINE_SEPARATOR + "reason:"
-									+ Utils.getStringFromException(e));
-						}
+		final List<Object> list = new ArrayList<>();
+		readFromDisk(new BatchConsumer<Object>() {
+			@Override
+			public void consume(List<Object> batch) {
+				list.addAll(batch);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Lines are decoded lazily and in parallel, see {@link TextReader}
+	 */
+	@Override
+	public long readFromDisk(BatchConsumer<Object> consumer) {
+		if (fileName == null || instanceClassName == null || !new File(fileName).exists())
+			return 0L;
+		TextReader reader = new TextReader();
+		reader.setBatchSize(batchSize);
+		try {
+			return reader.read(fileName, new TextReader.Decoder<Object>() {
+				@Override
+				public Object decode(String json) {
+					try {
+						return Utils.deserialize(instanceClassName, json);
+					} catch (Exception e) {
+						log.error("Unable to deserialize data into class (" + instanceClassName + "):" + CoreDef.LINE_SEPARATOR + json + CoreDef.LINE_SEPARATOR + "reason:"
+								+ Utils.getStringFromException(e));
+						return null;
 					}
-				} catch (Exception e) {
-					throw new LYException("Unable to load data from permanent file", e);
 				}
-			}
+			}, consumer);
+		} catch (Exception e) {
+			throw new LYException("Unable to load data from permanent file", e);
 		}
-		return list;
 	}
 
 	@Override
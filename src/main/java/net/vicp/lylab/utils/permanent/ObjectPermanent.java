@@ -1,5 +1,6 @@
 package net.vicp.lylab.utils.permanent;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -11,18 +12,41 @@ import java.util.Iterator;
 import java.util.List;
 
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
 import net.vicp.lylab.utils.Utils;
 
 public class ObjectPermanent extends Permanent {
 	public List<Object> readFromDisk() {
-		List<Object> list = new ArrayList<>();
+		final List<Object> list = new ArrayList<>();
+		readFromDisk(new BatchConsumer<Object>() {
+			@Override
+			public void consume(List<Object> batch) {
+				list.addAll(batch);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Objects are read one by one, only a batch is held at a time
+	 */
+	@Override
+	public long readFromDisk(BatchConsumer<Object> consumer) {
+		long count = 0L;
 		if (fileName != null) {
 			File file = new File(fileName);
 			if (file.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));) {
+				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));) {
 					Integer total = (Integer) ois.readObject();
-					while (total-- > 0)
-						list.add(ois.readObject());
+					List<Object> batch = new ArrayList<>(Math.min(total, batchSize));
+					while (total-- > 0) {
+						batch.add(ois.readObject());
+						if (batch.size() >= batchSize || total == 0) {
+							consumer.consume(batch);
+							count += batch.size();
+							batch = new ArrayList<>(Math.min(total, batchSize));
+						}
+					}
 					ois.close();
 					Utils.deleteFile(fileName);
 				} catch (Exception e) {
@@ -30,7 +54,7 @@ public class ObjectPermanent extends Permanent {
 				}
 			}
 		}
-		return list;
+		return count;
 	}
 
 	@Override
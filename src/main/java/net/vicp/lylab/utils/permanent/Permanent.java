@@ -2,15 +2,31 @@ package net.vicp.lylab.utils.permanent;
 
 import java.util.List;
 
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
 
 public abstract class Permanent extends NonCloneableBaseObject {
 	protected String fileName;
 	protected String instanceClassName;
+	protected int batchSize = CoreDef.DEFAULT_READ_BATCH_SIZE;
 	
 	public abstract List<Object> readFromDisk();
 	public abstract void saveToDisk(Iterable<?> container);
 
+	/**
+	 * Read saved items batch by batch, override to avoid holding all of them
+	 * @param consumer
+	 * @return
+	 * how many items were delivered
+	 */
+	public long readFromDisk(BatchConsumer<Object> consumer) {
+		List<Object> list = readFromDisk();
+		for (int i = 0; i < list.size(); i += batchSize)
+			consumer.consume(list.subList(i, Math.min(list.size(), i + batchSize)));
+		return list.size();
+	}
+
 	public String getFileName() {
 		return fileName;
 	}
@@ -27,4 +43,12 @@ public abstract class Permanent extends NonCloneableBaseObject {
 		this.instanceClassName = instanceClassName;
 	}
 
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
 }
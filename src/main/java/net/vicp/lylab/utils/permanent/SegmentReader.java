@@ -0,0 +1,321 @@
+package net.vicp.lylab.utils.permanent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+
+/**
+ * Stream lines out of a segment file written by {@link SegmentWriter}.<br>
+ * Only one block is inflated at a time, {@link #seekRecord(long)} and
+ * {@link #seekTime(long)} jump to the block by index first.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.16
+ * @version 1.0.0
+ */
+public class SegmentReader extends NonCloneableBaseObject implements Iterator<SegmentReader.Entry>, Closeable {
+	private final FileChannel channel;
+	private final List<Block> blocks = new ArrayList<Block>();
+	private final Inflater inflater = new Inflater(true);
+	private long recordCount = 0L;
+	private long minTime = Long.MAX_VALUE;
+	private long maxTime = Long.MIN_VALUE;
+	private boolean indexed = false;
+
+	// cursor
+	private int blockIndex = 0;
+	private ByteBuffer current = null;
+	private long recordNo = 0L;
+	private Entry pending = null;
+
+	@SuppressWarnings("resource")
+	public SegmentReader(File file) {
+		try {
+			channel = new RandomAccessFile(file, "r").getChannel();
+			if (!readIndex())
+				scan();
+		} catch (IOException e) {
+			throw new LYException("Unable to open segment file:" + file, e);
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return
+	 * <tt>true</tt> if file starts with a segment block
+	 */
+	public static boolean isSegment(File file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.length() >= SegmentWriter.BLOCK_HEADER && raf.readInt() == SegmentWriter.BLOCK_MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private boolean readIndex() throws IOException {
+		long size = channel.size();
+		if (size < SegmentWriter.FOOTER)
+			return false;
+		ByteBuffer footer = read(size - SegmentWriter.FOOTER, SegmentWriter.FOOTER);
+		long indexOffset = footer.getLong();
+		int blockCount = footer.getInt();
+		long records = footer.getLong();
+		long min = footer.getLong();
+		long max = footer.getLong();
+		if (footer.getInt() != SegmentWriter.FOOTER_MAGIC
+				|| indexOffset + (long) blockCount * SegmentWriter.INDEX_ENTRY != size - SegmentWriter.FOOTER)
+			return false;
+		ByteBuffer index = read(indexOffset, blockCount * SegmentWriter.INDEX_ENTRY);
+		for (int i = 0; i < blockCount; i++)
+			blocks.add(new Block(index.getLong(), index.getLong(), index.getInt(), index.getLong(), index.getLong()));
+		recordCount = records;
+		minTime = min;
+		maxTime = max;
+		indexed = true;
+		return true;
+	}
+
+	/**
+	 * No footer, writer didn't close, find blocks one by one
+	 */
+	private void scan() throws IOException {
+		long size = channel.size();
+		long offset = 0L;
+		while (offset + SegmentWriter.BLOCK_HEADER <= size) {
+			ByteBuffer header = read(offset, SegmentWriter.BLOCK_HEADER);
+			if (header.getInt() != SegmentWriter.BLOCK_MAGIC)
+				break;
+			header.getInt();
+			int length = header.getInt();
+			int count = header.getInt();
+			Block block = new Block(offset, header.getLong(), count, header.getLong(), header.getLong());
+			long end = offset + SegmentWriter.BLOCK_HEADER + length;
+			// torn tail
+			if (length < 0 || end > size)
+				break;
+			blocks.add(block);
+			recordCount += block.count;
+			minTime = Math.min(minTime, block.minTime);
+			maxTime = Math.max(maxTime, block.maxTime);
+			offset = end;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of segment");
+		buffer.flip();
+		return buffer;
+	}
+
+	private void load(int index) {
+		Block block = blocks.get(index);
+		try {
+			ByteBuffer header = read(block.offset, SegmentWriter.BLOCK_HEADER);
+			header.getInt();
+			int rawLength = header.getInt();
+			int length = header.getInt();
+			ByteBuffer data = read(block.offset + SegmentWriter.BLOCK_HEADER, length);
+			byte[] raw = new byte[rawLength];
+			inflater.reset();
+			inflater.setInput(data.array(), 0, length);
+			int inflated = 0;
+			while (inflated < rawLength && !inflater.finished()) {
+				int n = inflater.inflate(raw, inflated, rawLength - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += n;
+			}
+			if (inflated != rawLength)
+				throw new LYException("Corrupted segment block at " + block.offset);
+			blockIndex = index;
+			current = ByteBuffer.wrap(raw);
+			recordNo = block.first;
+		} catch (IOException | DataFormatException e) {
+			throw new LYException("Unable to read segment block at " + block.offset, e);
+		}
+	}
+
+	/**
+	 * Next record to read is the n-th one(from 0)
+	 * @param n
+	 * @return
+	 * <tt>true</tt> if the record exists
+	 */
+	public boolean seekRecord(long n) {
+		pending = null;
+		int low = 0, high = blocks.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Block block = blocks.get(mid);
+			if (n < block.first)
+				high = mid - 1;
+			else if (n >= block.first + block.count)
+				low = mid + 1;
+			else {
+				load(mid);
+				while (recordNo < n)
+					skip();
+				return true;
+			}
+		}
+		blockIndex = blocks.size();
+		current = null;
+		return false;
+	}
+
+	/**
+	 * Next record to read is the first one stamped at or after given time
+	 * @param time
+	 * @return
+	 * <tt>true</tt> if such record exists
+	 */
+	public boolean seekTime(long time) {
+		pending = null;
+		current = null;
+		for (int i = 0; i < blocks.size(); i++) {
+			if (blocks.get(i).maxTime < time)
+				continue;
+			load(i);
+			while (hasNext()) {
+				Entry entry = next();
+				if (entry.getTime() >= time) {
+					pending = entry;
+					return true;
+				}
+			}
+			return false;
+		}
+		blockIndex = blocks.size();
+		return false;
+	}
+
+	private void skip() {
+		current.getLong();
+		int length = current.getInt();
+		current.position(current.position() + length);
+		recordNo++;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (pending != null)
+			return true;
+		while (current == null || !current.hasRemaining()) {
+			int nextBlock = current == null ? blockIndex : blockIndex + 1;
+			if (nextBlock >= blocks.size())
+				return false;
+			load(nextBlock);
+		}
+		return true;
+	}
+
+	@Override
+	public Entry next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		if (pending != null) {
+			Entry tmp = pending;
+			pending = null;
+			return tmp;
+		}
+		long time = current.getLong();
+		int length = current.getInt();
+		String line = new String(current.array(), current.position(), length, SegmentWriter.UTF8);
+		current.position(current.position() + length);
+		return new Entry(recordNo++, time, line);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Segment is read only");
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	public long getMinTime() {
+		return minTime;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * @return
+	 * <tt>false</tt> if footer is missing and blocks were scanned
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public static final class Entry {
+		private final long recordNo;
+		private final long time;
+		private final String line;
+
+		Entry(long recordNo, long time, String line) {
+			this.recordNo = recordNo;
+			this.time = time;
+			this.line = line;
+		}
+
+		public long getRecordNo() {
+			return recordNo;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public String getLine() {
+			return line;
+		}
+
+		@Override
+		public String toString() {
+			return "Entry [recordNo=" + recordNo + ", time=" + time + ", line=" + line + "]";
+		}
+	}
+
+	private static final class Block {
+		final long offset;
+		final long first;
+		final int count;
+		final long minTime;
+		final long maxTime;
+
+		Block(long offset, long first, int count, long minTime, long maxTime) {
+			this.offset = offset;
+			this.first = first;
+			this.count = count;
+			this.minTime = minTime;
+			this.maxTime = maxTime;
+		}
+	}
+
+}
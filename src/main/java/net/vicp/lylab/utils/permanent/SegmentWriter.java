@@ -0,0 +1,180 @@
+package net.vicp.lylab.utils.permanent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import net.vicp.lylab.core.CoreDef;
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+
+/**
+ * Write lines into a compressed segment file, read by {@link SegmentReader}.
+ * <br><br>
+ * Lines are stamped and gathered into blocks of about blockSize bytes, each
+ * block is deflated on its own. A sparse index (one entry per block) and a
+ * footer with counts and time range are written on close, so a reader may
+ * seek by record number or time without inflating the whole file.<br>
+ * Up to one block is buffered in memory; a file without footer (not closed)
+ * is still readable by scanning its blocks.
+ * <br><br>
+ * Layout:<br>
+ * block: magic(4) rawLength(4) length(4) count(4) firstRecord(8) minTime(8) maxTime(8) data<br>
+ * record in block: time(8) length(4) utf-8 line<br>
+ * index: per block offset(8) firstRecord(8) count(4) minTime(8) maxTime(8)<br>
+ * footer: indexOffset(8) blockCount(4) recordCount(8) minTime(8) maxTime(8) magic(4)
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.16
+ * @version 1.0.0
+ */
+public class SegmentWriter extends NonCloneableBaseObject implements Closeable {
+	public static final int BLOCK_MAGIC = 0x4C59424B; // LYBK
+	public static final int FOOTER_MAGIC = 0x4C595347; // LYSG
+	public static final int BLOCK_HEADER = 4 * CoreDef.SIZEOF_INTEGER + 3 * CoreDef.SIZEOF_LONG;
+	public static final int INDEX_ENTRY = 4 * CoreDef.SIZEOF_LONG + CoreDef.SIZEOF_INTEGER;
+	public static final int FOOTER = 4 * CoreDef.SIZEOF_LONG + 2 * CoreDef.SIZEOF_INTEGER;
+	public static final int RECORD_HEADER = CoreDef.SIZEOF_LONG + CoreDef.SIZEOF_INTEGER;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+	private ByteBuffer raw;
+	private byte[] compressed;
+	private final List<long[]> index = new ArrayList<long[]>();
+
+	// current block
+	private int blockCount = 0;
+	private long blockFirst = 0L;
+	private long blockMin = Long.MAX_VALUE;
+	private long blockMax = Long.MIN_VALUE;
+	// whole file
+	private long recordCount = 0L;
+	private long minTime = Long.MAX_VALUE;
+	private long maxTime = Long.MIN_VALUE;
+	private boolean closed = false;
+
+	/**
+	 * @param file overwritten if it exists
+	 */
+	public SegmentWriter(File file) {
+		this(file, CoreDef.DEFAULT_SEGMENT_BLOCK_SIZE);
+	}
+
+	@SuppressWarnings("resource")
+	public SegmentWriter(File file, int blockSize) {
+		this.blockSize = blockSize;
+		this.raw = ByteBuffer.allocate(blockSize);
+		this.compressed = new byte[blockSize];
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channel.truncate(0L);
+		} catch (IOException e) {
+			throw new LYException("Unable to open segment file:" + file, e);
+		}
+	}
+
+	/**
+	 * @param time stamp of this line, usually now
+	 * @param line
+	 */
+	public void append(long time, String line) throws IOException {
+		synchronized (lock) {
+			if (closed)
+				throw new LYException("Segment is closed");
+			byte[] bytes = line.getBytes(UTF8);
+			int size = RECORD_HEADER + bytes.length;
+			if (raw.position() > 0 && raw.remaining() < size)
+				writeBlock();
+			if (raw.remaining() < size) {
+				// a huge line takes a block of its own
+				ByteBuffer bigger = ByteBuffer.allocate(size);
+				raw.flip();
+				bigger.put(raw);
+				raw = bigger;
+			}
+			if (blockCount == 0)
+				blockFirst = recordCount;
+			raw.putLong(time).putInt(bytes.length).put(bytes);
+			blockCount++;
+			recordCount++;
+			blockMin = Math.min(blockMin, time);
+			blockMax = Math.max(blockMax, time);
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockCount == 0)
+			return;
+		int rawLength = raw.position();
+		deflater.reset();
+		deflater.setInput(raw.array(), 0, rawLength);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+		header.putInt(BLOCK_MAGIC).putInt(rawLength).putInt(length).putInt(blockCount)
+				.putLong(blockFirst).putLong(blockMin).putLong(blockMax).flip();
+		long offset = channel.position();
+		ByteBuffer[] gather = new ByteBuffer[] { header, ByteBuffer.wrap(compressed, 0, length) };
+		while (gather[1].hasRemaining())
+			channel.write(gather);
+		index.add(new long[] { offset, blockFirst, blockCount, blockMin, blockMax });
+		minTime = Math.min(minTime, blockMin);
+		maxTime = Math.max(maxTime, blockMax);
+		if (raw.capacity() > blockSize)
+			raw = ByteBuffer.allocate(blockSize);
+		raw.clear();
+		blockCount = 0;
+		blockMin = Long.MAX_VALUE;
+		blockMax = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Write buffered block, index and footer, then close file
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				writeBlock();
+				long indexOffset = channel.position();
+				ByteBuffer buffer = ByteBuffer.allocate(index.size() * INDEX_ENTRY + FOOTER);
+				for (long[] entry : index)
+					buffer.putLong(entry[0]).putLong(entry[1]).putInt((int) entry[2]).putLong(entry[3]).putLong(entry[4]);
+				buffer.putLong(indexOffset).putInt(index.size()).putLong(recordCount).putLong(minTime)
+						.putLong(maxTime).putInt(FOOTER_MAGIC).flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				channel.force(false);
+			} finally {
+				deflater.end();
+				channel.close();
+			}
+		}
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+}
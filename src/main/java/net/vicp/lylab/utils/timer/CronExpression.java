@@ -0,0 +1,176 @@
+package net.vicp.lylab.utils.timer;
+
+import java.util.BitSet;
+import java.util.Calendar;
+
+import net.vicp.lylab.core.NonCloneableBaseObject;
+import net.vicp.lylab.core.exceptions.LYException;
+
+/**
+ * Cron-style expression, 5 fields "minute hour day-of-month month day-of-week"
+ * or 6 fields with leading "second".<br>
+ * A field accepts *, ?, a, a-b, a/n, a-b/n, * /n and comma separated lists.
+ * Day-of-week is 0-7, both 0 and 7 are Sunday. If both day fields are
+ * restricted, a day matching either is chosen, as cron does.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.14
+ * @version 1.0.0
+ */
+public final class CronExpression extends NonCloneableBaseObject {
+	// give up if nothing matches in this many years, e.g. "0 0 30 2 *"
+	private static final int SEARCH_YEARS = 5;
+
+	private final String expression;
+	private final BitSet seconds;
+	private final BitSet minutes;
+	private final BitSet hours;
+	private final BitSet daysOfMonth;
+	private final BitSet months;
+	private final BitSet daysOfWeek;
+	private final boolean domRestricted;
+	private final boolean dowRestricted;
+
+	public CronExpression(String expression) {
+		if (expression == null)
+			throw new LYException("Cron expression is null");
+		this.expression = expression.trim();
+		String[] fields = this.expression.split("\\s+");
+		int offset;
+		if (fields.length == 6) {
+			seconds = parse(fields[0], 0, 59);
+			offset = 1;
+		} else if (fields.length == 5) {
+			seconds = new BitSet();
+			seconds.set(0);
+			offset = 0;
+		} else
+			throw new LYException("Cron expression should have 5 or 6 fields:" + expression);
+		minutes = parse(fields[offset], 0, 59);
+		hours = parse(fields[offset + 1], 0, 23);
+		daysOfMonth = parse(fields[offset + 2], 1, 31);
+		months = parse(fields[offset + 3], 1, 12);
+		daysOfWeek = parse(fields[offset + 4], 0, 7);
+		if (daysOfWeek.get(7)) {
+			daysOfWeek.set(0);
+			daysOfWeek.clear(7);
+		}
+		domRestricted = !isWildcard(fields[offset + 2]);
+		dowRestricted = !isWildcard(fields[offset + 4]);
+	}
+
+	private static boolean isWildcard(String field) {
+		return "*".equals(field) || "?".equals(field);
+	}
+
+	private static BitSet parse(String field, int min, int max) {
+		BitSet bits = new BitSet(max + 1);
+		for (String part : field.split(",")) {
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				step = toInt(part.substring(slash + 1), field);
+				part = part.substring(0, slash);
+				if (step <= 0)
+					throw new LYException("Bad step in cron field:" + field);
+			}
+			int from, to;
+			if (isWildcard(part)) {
+				from = min;
+				to = max;
+			} else {
+				int dash = part.indexOf('-');
+				if (dash >= 0) {
+					from = toInt(part.substring(0, dash), field);
+					to = toInt(part.substring(dash + 1), field);
+				} else {
+					from = toInt(part, field);
+					// "a/n" means from a to max
+					to = slash >= 0 ? max : from;
+				}
+			}
+			if (from < min || to > max || from > to)
+				throw new LYException("Cron field out of range [" + min + "," + max + "]:" + field);
+			for (int i = from; i <= to; i += step)
+				bits.set(i);
+		}
+		return bits;
+	}
+
+	private static int toInt(String value, String field) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new LYException("Bad cron field:" + field, e);
+		}
+	}
+
+	/**
+	 * @param after in millisecond
+	 * @return
+	 * next matched time strictly after the given time, -1 if none
+	 */
+	public long next(long after) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(after);
+		cal.set(Calendar.MILLISECOND, 0);
+		cal.add(Calendar.SECOND, 1);
+		int limit = cal.get(Calendar.YEAR) + SEARCH_YEARS;
+		while (cal.get(Calendar.YEAR) <= limit) {
+			if (!months.get(cal.get(Calendar.MONTH) + 1)) {
+				cal.add(Calendar.MONTH, 1);
+				cal.set(Calendar.DAY_OF_MONTH, 1);
+				startOfDay(cal);
+				continue;
+			}
+			if (!dayMatches(cal)) {
+				cal.add(Calendar.DAY_OF_MONTH, 1);
+				startOfDay(cal);
+				continue;
+			}
+			if (!hours.get(cal.get(Calendar.HOUR_OF_DAY))) {
+				cal.add(Calendar.HOUR_OF_DAY, 1);
+				cal.set(Calendar.MINUTE, 0);
+				cal.set(Calendar.SECOND, 0);
+				continue;
+			}
+			if (!minutes.get(cal.get(Calendar.MINUTE))) {
+				cal.add(Calendar.MINUTE, 1);
+				cal.set(Calendar.SECOND, 0);
+				continue;
+			}
+			if (!seconds.get(cal.get(Calendar.SECOND))) {
+				cal.add(Calendar.SECOND, 1);
+				continue;
+			}
+			return cal.getTimeInMillis();
+		}
+		return -1L;
+	}
+
+	private static void startOfDay(Calendar cal) {
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+	}
+
+	private boolean dayMatches(Calendar cal) {
+		boolean dom = daysOfMonth.get(cal.get(Calendar.DAY_OF_MONTH));
+		boolean dow = daysOfWeek.get(cal.get(Calendar.DAY_OF_WEEK) - 1);
+		if (domRestricted && dowRestricted)
+			return dom || dow;
+		return dom && dow;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+}
@@ -1,29 +1,41 @@
 package net.vicp.lylab.utils.timer;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Timer;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.NonCloneableBaseObject;
-import net.vicp.lylab.core.exceptions.LYException;
-import net.vicp.lylab.core.interfaces.AutoInitialize;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.utils.Utils;
-import net.vicp.lylab.utils.atomic.AtomicStrongReference;
 
 /**
  * 	LYPlan is a tiny schedule framework, could be apply to multitude purpose.
  *  <br><br>
+ * 	Jobs run on a scheduled thread pool, a slow or failing job only holds one
+ * 	thread. Each job is scheduled again after its run, so it never overlaps
+ * 	itself, see {@link TimerJob#getScheduleMode()},
+ * 	{@link TimerJob#getMissedRunPolicy()} and {@link TimerJob#getCron()}.
+ *  <br><br>
  * 	Release Under GNU Lesser General Public License (LGPL).
  * 
  * @author Young Lee
  * @since 2014.5.21
- * @version 1.0.0
+ * @version 2.0.0
  * 
  */
 public final class LYTimer extends NonCloneableBaseObject implements LifeCycle {
 	private List<TimerJob> jobs = null;
-	private AutoInitialize<Timer> timer = new AtomicStrongReference<Timer>();
+	private int threadCount = CoreDef.DEFAULT_TIMER_THREADS;
+	private ScheduledThreadPoolExecutor executor = null;
+	private Map<TimerJob, Runner> runners = new IdentityHashMap<TimerJob, Runner>();
 	private AtomicBoolean closed = new AtomicBoolean(true);
 	
 	@Override
@@ -31,8 +43,17 @@ public final class LYTimer extends NonCloneableBaseObject implements LifeCycle {
 		synchronized (lock) {
 			if (!closed.getAndSet(false))
 				return;
+			executor = new ScheduledThreadPoolExecutor(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r, "LYTimer");
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			if (jobs == null)
+				return;
 			for (TimerJob bj : getJobs()) {
-				timer.get(Timer.class).schedule(bj.proxy, bj.getStartTime(), bj.getInterval());
+				start(bj);
 				log.info("LYTimer - Load scheduled job: " + bj.getClass().getName());
 			}
 		}
@@ -43,27 +64,37 @@ public final class LYTimer extends NonCloneableBaseObject implements LifeCycle {
 		synchronized (lock) {
 			if (closed.getAndSet(true))
 				return;
-			for (TimerJob tj : getJobs()) {
-				tj.proxy.cancel();
-				log.info("LYTimer - Cancel scheduled job: " + tj.getClass().getName());
+			for (Runner runner : runners.values()) {
+				runner.cancel();
+				log.info("LYTimer - Cancel scheduled job: " + runner.job.getClass().getName());
 			}
-			timer.get(Timer.class).cancel();
+			runners.clear();
+			// running jobs are allowed to finish
+			executor.shutdown();
+			executor = null;
 		}
 	}
 
 	/**
-	 * TimeJob will be cancelled before start(if possible).
+	 * TimeJob will be cancelled before start(if possible).<br>
+	 * If this timer isn't initialized yet, it starts at initialize().
 	 * @param bj	TimeJob you want to start
 	 * @return
+	 * <tt>true</tt> if added
 	 */
 	public boolean addTimeJob(TimerJob bj) {
 		synchronized (lock) {
-			if (!closed.get())
-				throw new LYException("This timer hadn't initialized yet!");
 			try {
-				bj.proxy.cancel();
-				jobs.add(bj);
-				timer.get(Timer.class).schedule(bj.proxy, bj.getStartTime(), bj.getInterval());
+				Runner former = runners.remove(bj);
+				if (former != null)
+					former.cancel();
+				else {
+					if (jobs == null)
+						jobs = new ArrayList<TimerJob>();
+					jobs.add(bj);
+				}
+				if (!closed.get())
+					start(bj);
 				log.info("LYTimer - Load new schedule job: " + bj.getClass().getName());
 			} catch (Exception e) {
 				log.error(Utils.getStringFromException(e));
@@ -73,6 +104,118 @@ public final class LYTimer extends NonCloneableBaseObject implements LifeCycle {
 		}
 	}
 
+	/**
+	 * Cancel a job, a running one is allowed to finish
+	 * @param bj
+	 * @return
+	 * <tt>true</tt> if it was in this timer
+	 */
+	public boolean removeTimeJob(TimerJob bj) {
+		synchronized (lock) {
+			Runner runner = runners.remove(bj);
+			if (runner != null)
+				runner.cancel();
+			bj.scheduledTime = 0L;
+			return jobs != null && jobs.remove(bj);
+		}
+	}
+
+	private void start(TimerJob bj) {
+		Runner runner = new Runner(bj);
+		Date startTime = bj.getStartTime();
+		long now = System.currentTimeMillis();
+		// a past start time runs immediately
+		long time = Math.max(startTime == null ? now : startTime.getTime(), now);
+		if (runner.cron != null)
+			time = runner.cron.next(time - 1L);
+		if (time < 0L) {
+			log.warn("LYTimer - Job will never run, cron:" + runner.cron + ", job:" + bj.getClass().getName());
+			return;
+		}
+		runners.put(bj, runner);
+		runner.schedule(time);
+	}
+
+	/**
+	 * Run a job and schedule its next run
+	 */
+	private final class Runner implements Runnable {
+		final TimerJob job;
+		final CronExpression cron;
+		ScheduledFuture<?> future = null;
+
+		Runner(TimerJob job) {
+			this.job = job;
+			String expression = job.getCron();
+			this.cron = expression == null ? null : new CronExpression(expression);
+		}
+
+		// guarded by LYTimer lock
+		void schedule(long time) {
+			job.scheduledTime = time;
+			future = executor.schedule(this, Math.max(0L, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+
+		void cancel() {
+			if (future != null)
+				future.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			long scheduled = job.scheduledTime;
+			long start = System.currentTimeMillis();
+			job.getLateness().record(start - scheduled);
+			try {
+				job.run();
+			} catch (Throwable t) {
+				log.error(Utils.getStringFromThrowable(t));
+			}
+			long end = System.currentTimeMillis();
+			job.getRunTime().record(end - start);
+			long next;
+			try {
+				next = next(scheduled, end);
+			} catch (Throwable t) {
+				log.error("LYTimer - Job stopped, failed to get next run:" + Utils.getStringFromThrowable(t));
+				next = -1L;
+			}
+			synchronized (lock) {
+				// removed or closed meanwhile
+				if (runners.get(job) != this)
+					return;
+				if (next < 0L) {
+					runners.remove(job);
+					job.scheduledTime = 0L;
+					return;
+				}
+				schedule(next);
+			}
+		}
+
+		/**
+		 * @return
+		 * next scheduled time, -1 if no more run
+		 */
+		private long next(long scheduled, long end) {
+			// cron runs at next matched time, like cron, missed ones are not made up
+			if (cron != null)
+				return cron.next(end);
+			Integer interval = job.getInterval();
+			if (interval == null || interval <= 0)
+				return -1L;
+			if (job.getScheduleMode() != TimerJob.FIXED_RATE)
+				return end + interval;
+			long next = scheduled + interval;
+			if (next < end && job.getMissedRunPolicy() == TimerJob.SKIP) {
+				long missed = (end - next + interval - 1) / interval;
+				next += missed * interval;
+				job.skipped(missed);
+			}
+			return next;
+		}
+	}
+
 	public List<TimerJob> getJobs() {
 		return jobs;
 	}
@@ -81,4 +224,16 @@ public final class LYTimer extends NonCloneableBaseObject implements LifeCycle {
 		this.jobs = jobs;
 	}
 
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Take effect at next initialize()
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
 }
@@ -1,10 +1,10 @@
 package net.vicp.lylab.utils.timer;
 
 import java.util.Date;
-import java.util.TimerTask;
 
 import net.vicp.lylab.core.NonCloneableBaseObject;
 import net.vicp.lylab.core.interfaces.Executor;
+import net.vicp.lylab.core.model.Histogram;
 import net.vicp.lylab.utils.Utils;
 
 import org.slf4j.Logger;
@@ -13,6 +13,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Extends TimerJob and reference to Plan(manage class).<br>
  * Override run() to satisfy your needs.<br>
+ * Override getScheduleMode(), getMissedRunPolicy() or getCron() to change how
+ * it's repeated. A job never overlaps itself.<br>
  * 
  * <br>
  * Release Under GNU Lesser General Public License (LGPL).
@@ -24,7 +26,6 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class TimerJob extends NonCloneableBaseObject implements Executor {
 
-	TimerTaskProxy proxy = new TimerTaskProxy(this);
 	/**
 	 * Now every TimerJob may use this to log something
 	 */
@@ -38,6 +39,30 @@ public abstract class TimerJob extends NonCloneableBaseObject implements Executo
 	protected static final int DAY = 24 * HOUR;
 	protected static final int WEEK = 7 * DAY;
 
+	/**
+	 * Next run is interval after end of last run
+	 */
+	protected static final int FIXED_DELAY = 0;
+	/**
+	 * Next run is interval after scheduled time of last run
+	 */
+	protected static final int FIXED_RATE = 1;
+
+	/**
+	 * Missed runs of a fixed rate job are run back to back
+	 */
+	protected static final int CATCH_UP = 0;
+	/**
+	 * Missed runs of a fixed rate job are dropped
+	 */
+	protected static final int SKIP = 1;
+
+	// runtime state, managed by LYTimer
+	transient volatile long scheduledTime = 0L;
+	private transient Histogram runTime = new Histogram();
+	private transient Histogram lateness = new Histogram();
+	private transient volatile long skippedCount = 0L;
+
 	/**
 	 * Tell Plan when this job start to work.<br>
 	 * If the date is past, run() will be called immediately.
@@ -56,6 +81,36 @@ public abstract class TimerJob extends NonCloneableBaseObject implements Executo
 	 */
 	public abstract Integer getInterval();
 
+	/**
+	 * @return
+	 * FIXED_DELAY(default) or FIXED_RATE
+	 */
+	public int getScheduleMode() {
+		return FIXED_DELAY;
+	}
+
+	/**
+	 * Only used by FIXED_RATE, runs are missed if a run lasts longer than interval
+	 * 
+	 * @return
+	 * CATCH_UP(default) or SKIP
+	 */
+	public int getMissedRunPolicy() {
+		return CATCH_UP;
+	}
+
+	/**
+	 * Cron-style expression, see {@link CronExpression}.<br>
+	 * If not null, interval and schedule mode are ignored, start time is still
+	 * the earliest time to run.
+	 * 
+	 * @return
+	 * null(default) or expression like "0 3 * * *"
+	 */
+	public String getCron() {
+		return null;
+	}
+
 	public final void run() {
 		try {
 			exec();
@@ -64,20 +119,40 @@ public abstract class TimerJob extends NonCloneableBaseObject implements Executo
 		}
 	}
 
-}
+	void skipped(long count) {
+		skippedCount += count;
+	}
 
-class TimerTaskProxy extends TimerTask {
+	/**
+	 * @return
+	 * run time of each run, in millisecond
+	 */
+	public Histogram getRunTime() {
+		return runTime;
+	}
 
-	TimerJob timerJob;
+	/**
+	 * @return
+	 * how late each run started after its scheduled time, in millisecond
+	 */
+	public Histogram getLateness() {
+		return lateness;
+	}
 
-	public TimerTaskProxy(TimerJob timerJob) {
-		this.timerJob = timerJob;
+	/**
+	 * @return
+	 * runs dropped by SKIP policy
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
 	}
 
-	@Override
-	public void run() {
-		if (timerJob != null)
-			timerJob.run();
+	/**
+	 * @return
+	 * scheduled time of next run, 0 if not scheduled
+	 */
+	public long getScheduledTime() {
+		return scheduledTime;
 	}
 
 }
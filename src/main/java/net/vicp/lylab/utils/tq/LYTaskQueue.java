@@ -1,26 +1,38 @@
 package net.vicp.lylab.utils.tq;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import net.vicp.lylab.core.CoreDef;
 import net.vicp.lylab.core.exceptions.LYException;
+import net.vicp.lylab.core.interfaces.BatchConsumer;
+import net.vicp.lylab.core.interfaces.ConfigListener;
 import net.vicp.lylab.core.interfaces.LifeCycle;
 import net.vicp.lylab.core.interfaces.Recyclable;
+import net.vicp.lylab.core.pool.ConcurrentPool;
 import net.vicp.lylab.core.pool.Pool;
-import net.vicp.lylab.core.pool.SequencePool;
 import net.vicp.lylab.core.pool.SequenceTemporaryPool;
+import net.vicp.lylab.utils.Config;
 import net.vicp.lylab.utils.Utils;
+import net.vicp.lylab.utils.atomic.AtomicLong;
 import net.vicp.lylab.utils.controller.TimeoutController;
+import net.vicp.lylab.utils.permanent.Journal;
 import net.vicp.lylab.utils.permanent.Permanent;
 
 /**
  * Manager class to execute all task.<br>
- * Finish tasks within certain threads.
+ * Finish tasks within certain threads.<br>
+ * Kept by config reload if only maxQueue, maxThread or tolerance changed,
+ * they take effect on tasks to come.
  * <br><br>
  * Release Under GNU Lesser General Public License (LGPL).
  * 
@@ -29,12 +41,13 @@ import net.vicp.lylab.utils.permanent.Permanent;
  * @version 2.0.0
  * 
  */
-public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable {
+public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable, ConfigListener {
 	private static final long serialVersionUID = -406430325838413029L;
 
 	private volatile Boolean useWatchDog = false;
 	
 	private Permanent permanent = null;
+	private Journal journal = null;
 
 	private volatile boolean recordFailed = false;
 	private List<Task> forewarnList = new ArrayList<Task>();
@@ -44,7 +57,15 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 	private volatile Long tolerance = CoreDef.WAITING_TOLERANCE;
 
 	private Pool<Task> taskPool = new SequenceTemporaryPool<Task>(CoreDef.MAX_TASK_QUEUE_SIZE);
-	private Pool<Task> threadPool = new SequencePool<Task>(CoreDef.MAX_THREAD_POOL_SIZE);
+	// running tasks, added by main loop and removed by each ending task
+	private Pool<Task> threadPool = new ConcurrentPool<Task>(CoreDef.MAX_THREAD_POOL_SIZE);
+
+	/**
+	 * Running tasks ordered by deadline, WatchDog only touches expired ones
+	 */
+	private final TreeSet<Deadline> deadlines = new TreeSet<Deadline>();
+	private final Map<Long, Deadline> watching = new HashMap<Long, Deadline>();
+	private AtomicLong abandonedCount = new AtomicLong(0L);
 	
 	/**
 	 * At your service!
@@ -67,14 +88,78 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		if (isStopped())
 			return -2L;
 		task0.setController(this);
-		if (taskPool.add(task0) == null)
+		if (journal != null) {
+			byte[] bytes = encode(task0);
+			if (bytes != null)
+				task0.journalId = journal.append(bytes);
+		}
+		if (taskPool.add(task0) == null) {
+			journalDone(task0);
 			return -3L;
+		}
 		synchronized (lock) {
 			lock.notifyAll();
 		}
 		return task0.getTaskId();
 	}
 
+	/**
+	 * Enqueue a batch of tasks in one operation, much cheaper than calling
+	 * {@link #addTask(Task)} for each.
+	 * 
+	 * @param tasks
+	 *            which should be executed, each will be cloned and its clone will
+	 *            be enqueued. <br>
+	 *            [!] Original tasks will never be used or changed
+	 * @return A group handle, which is done when all accepted tasks ended.
+	 *         Tasks can't be enqueued are reported by
+	 *         {@link TaskGroup#getRejectedTasks()}.
+	 */
+	public TaskGroup addTasks(Collection<? extends Task> tasks) {
+		TaskGroup group = new TaskGroup();
+		try {
+			addTasks(tasks, group);
+		} finally {
+			// a group never sealed is never done
+			group.seal();
+		}
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		return group;
+	}
+
+	private void addTasks(Collection<? extends Task> tasks, TaskGroup group) {
+		if (isStopped()) {
+			for (Task task : tasks)
+				group.rejected(task);
+			return;
+		}
+		List<Task> clones = new ArrayList<Task>(tasks.size());
+		List<Task> origins = new ArrayList<Task>(tasks.size());
+		for (Task task : tasks) {
+			Task task0 = (Task) task.clone();
+			if (task0 == null) {
+				group.rejected(task);
+				continue;
+			}
+			task0.setController(this);
+			task0.group = group;
+			clones.add(task0);
+			origins.add(task);
+		}
+		if (journal != null)
+			journalAll(clones);
+		List<Long> ids = taskPool.addAll(clones);
+		for (int i = 0; i < ids.size(); i++) {
+			if (ids.get(i) == null) {
+				journalDone(clones.get(i));
+				group.rejected(origins.get(i));
+			} else
+				group.accepted(ids.get(i));
+		}
+	}
+
 	/**
 	 * Main loop should live in another thread. DO NOT call this method manually.
 	 */
@@ -84,9 +169,21 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 			while (!isStopped() && !getTaskPool().isEmpty() && !isThreadPoolFull()) {
 				Task task = getTaskPool().accessOne();
 				synchronized (lock) {
-					task.begin();
-					threadPool.add(task);
+					if (task.getState() == Task.BEGAN) {
+						try {
+							task.begin();
+							threadPool.add(task);
+							watch(task, System.currentTimeMillis());
+							continue;
+						} catch (Throwable t) {
+							log.error("Unable to start task:" + task + "\n" + Utils.getStringFromThrowable(t));
+							task.callStop();
+						}
+					}
 				}
+				// never run, so never reported by itself
+				journalDone(task);
+				reportToGroup(task);
 			}
 			try {
 				synchronized (lock) {
@@ -110,10 +207,14 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		if (isStopped() || taskId < 0L)
 			return false;
 		Task tk = removeFromTaskPool(taskId);
-		if (tk == null || tk.getState() != Task.BEGAN)
+		if (tk == null)
 			return false;
+		boolean began = tk.getState() == Task.BEGAN;
+		// out of pool, it won't run anyway
 		tk.callStop();
-		return true;
+		journalDone(tk);
+		reportToGroup(tk);
+		return began;
 	}
 
 	/**
@@ -131,6 +232,8 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		if (tk == null)
 			return false;
 		tk.callStop();
+		journalDone(tk);
+		reportToGroup(tk);
 		return true;
 	}
 
@@ -140,11 +243,29 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 	@Override
 	public void initialize() {
 		begin("LYTaskQueue");
-		if (permanent != null) {
-			List<Object> list = permanent.readFromDisk();
-			for (int i = 0; i < list.size(); i++)
-				addTask((Task) list.get(i));
+		if (journal != null) {
+			journal.initialize();
+			List<Task> recovered = new ArrayList<Task>();
+			for (byte[] bytes : journal.getRecovered()) {
+				Task task = decode(bytes);
+				if (task != null)
+					recovered.add(task);
+			}
+			if (!recovered.isEmpty())
+				addTasks(recovered);
+			// re-enqueued ones were journaled again
+			journal.discardRecovered();
 		}
+		if (permanent != null)
+			permanent.readFromDisk(new BatchConsumer<Object>() {
+				@Override
+				public void consume(List<Object> batch) {
+					List<Task> tasks = new ArrayList<Task>(batch.size());
+					for (Object task : batch)
+						tasks.add((Task) task);
+					addTasks(tasks);
+				}
+			});
 	}
 	
 	@Override
@@ -177,22 +298,32 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		if (timeout == 0L)
 			timeout = 1L;
 
-		synchronized (threadPool) {
-			for (Task t : threadPool)
+		long now = System.currentTimeMillis();
+		synchronized (lock) {
+			for (Task t : threadPool) {
+				if (t == null)
+					continue;
 				t.setTaskTimeout(timeout);
+				watch(t, now);
+			}
 		}
 
 		if (!useWatchDog)
 			useWatchDog(true);
 		try {
+			// ended tasks remove themselves, join without taking them out
 			while (threadPool.size() > 0)
-				threadPool.accessOne().join();
+				for (Task t : threadPool)
+					t.join();
 		} catch (Throwable e) {
-			killAll();
+			abandonAll();
 		} finally {
 			stopWatchDog();
 		}
-		if (!getTaskPool().isEmpty() && permanent != null)
+		// queued tasks are kept by journal already
+		if (journal != null)
+			journal.close();
+		else if (!getTaskPool().isEmpty() && permanent != null)
 			permanent.saveToDisk(taskPool);
 	}
 
@@ -205,9 +336,78 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		if(task == null) return;
 		if(task.getTaskId() != null)
 		{
+			unwatch(task.getTaskId());
 			Task tmp = removeFromThreadPool(task.getTaskId());
 			if(recordFailed && tmp != null && task.getState() != Task.COMPLETED)
 				forewarnList.add(tmp);
+			// its retry will report instead
+			if(!task.retrying) {
+				journalDone(task);
+				reportToGroup(task);
+			}
+		}
+	}
+
+	private void reportToGroup(Task task) {
+		if (task.group != null)
+			task.group.taskEnded(task);
+	}
+
+	private void journalAll(List<Task> tasks) {
+		List<Task> journaled = new ArrayList<Task>(tasks.size());
+		List<byte[]> payloads = new ArrayList<byte[]>(tasks.size());
+		for (Task task : tasks) {
+			byte[] bytes = encode(task);
+			if (bytes == null)
+				continue;
+			journaled.add(task);
+			payloads.add(bytes);
+		}
+		if (payloads.isEmpty())
+			return;
+		List<Long> journalIds = journal.appendAll(payloads);
+		for (int i = 0; i < journaled.size(); i++)
+			journaled.get(i).journalId = journalIds.get(i);
+	}
+
+	/**
+	 * Mark a task done in journal, once
+	 * @param task
+	 */
+	private void journalDone(Task task) {
+		long journalId;
+		synchronized (task) {
+			journalId = task.journalId;
+			task.journalId = 0L;
+		}
+		if (journal != null && journalId > 0L)
+			journal.complete(journalId);
+	}
+
+	/**
+	 * @param task
+	 * @return
+	 * serialized task, null if it's not serializable and won't be journaled
+	 */
+	private static byte[] encode(Task task) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream oos = new ObjectOutputStream(bytes);) {
+				oos.writeObject(task);
+			}
+			return bytes.toByteArray();
+		} catch (Exception e) {
+			log.error("Task can't be journaled and may be lost on crash:" + task + "\nreason:" + Utils.getStringFromException(e));
+			return null;
+		}
+	}
+
+	private static Task decode(byte[] bytes) {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));) {
+			return (Task) ois.readObject();
+		} catch (Exception e) {
+			log.error("Unable to recover task from journal:" + Utils.getStringFromException(e));
+			return null;
 		}
 	}
 	/**
@@ -257,49 +457,97 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 	}
 
 	/**
-	 * Major cycle to recycle tasks in running
+	 * Major cycle to recycle tasks in running.<br>
+	 * A task exceeded its timeout will be asked to stop, if it's still running
+	 * after tolerance, it will be abandoned (and retried if it requested).
 	 */
-	@SuppressWarnings("deprecation")
 	@Override
 	public void recycle() {
-		List<Task> callStopList = new LinkedList<Task>();
-		List<Task> forceStopList = new LinkedList<Task>();
-		boolean finished = false;
-		do {
-			Iterator<Task> iterator = getThreadPool().iterator();
-			try {
-				while (iterator.hasNext()) {
-					Task task = iterator.next();
-					// -1L means infinite
-					if (task.getTaskTimeout() == -1L)
-						continue;
-					if(task.getStartTime() == null) {
-						log.error("A running task missing its start time will be killed immediately:" + task.toString());
-						forceStopList.add(task);
-					}
-					if (task.getTaskTimeout() + tolerance < new Date().getTime() - task.getStartTime().getTime())
-						forceStopList.add(task);
-					else if (task.getTaskTimeout() < new Date().getTime() - task.getStartTime().getTime())
-						callStopList.add(task);
+		long now = System.currentTimeMillis();
+		List<Task> callStopList = new ArrayList<Task>();
+		List<Task> abandonList = new ArrayList<Task>();
+		synchronized (deadlines) {
+			while (!deadlines.isEmpty() && deadlines.first().due <= now) {
+				Deadline head = deadlines.pollFirst();
+				Task task = head.task;
+				watching.remove(task.getTaskId());
+				if (task.isAbandoned() || !task.isRunning() || task.getTaskTimeout() < 0L)
+					continue;
+				if (head.stopCalled) {
+					abandonList.add(task);
+					continue;
 				}
-				finished = true;
-			} catch (NullPointerException | ConcurrentModificationException e) { }
-		} while (!finished);
-		for(Task task : forceStopList)
-		{
-			task.forceStop();
-			if(task.getRetryCount() > 0)
-			{
-				log.error("Timeout task was killed, but this task requested retry(" + task.getRetryCount() + "):\n" + task.toString());
-				task.setRetryCount(task.getRetryCount() - 1);
-				task.reset();
-				addTask(task);
+				long due = head.since + task.getTaskTimeout();
+				if (due > now) {
+					// timeout was extended, wait again
+					offer(new Deadline(task, head.since, due, false));
+					continue;
+				}
+				// give it tolerance to respond before abandon
+				callStopList.add(task);
+				offer(new Deadline(task, head.since, now + tolerance, true));
 			}
 		}
-		for(Task task : callStopList)
-		{
-			task.callStop();
+		for (Task task : callStopList) {
 			log.info("Try to stop timeout task:" + task.getTaskId());
+			task.callStop();
+		}
+		for (Task task : abandonList) {
+			task.retrying = task.getRetryCount() > 0;
+			if (!task.abandon()) {
+				// it ended by itself just now
+				journalDone(task);
+				reportToGroup(task);
+				continue;
+			}
+			abandonedCount.incrementAndGet();
+			log.error("Timeout task didn't respond to stop and was abandoned:\n" + task.toString());
+			if (task.retrying) {
+				log.error("Abandoned task requested retry(" + task.getRetryCount() + "):\n" + task.toString());
+				task.setRetryCount(task.getRetryCount() - 1);
+				Long retryId = addTask(task);
+				if (retryId < 0L)
+					reportToGroup(task);
+				else if (task.group != null)
+					task.group.retried(retryId);
+			}
+			// after its retry was journaled
+			journalDone(task);
+		}
+	}
+
+	/**
+	 * Put a running task under WatchDog
+	 * @param task
+	 * @param since when the task was dispatched
+	 */
+	private void watch(Task task, long since) {
+		// -1L means infinite
+		if (task.getTaskTimeout() < 0L)
+			return;
+		synchronized (deadlines) {
+			// ended before watched, taskEnded() unwatched it already
+			if (task.isFinished() || task.isAbandoned())
+				return;
+			unwatch(task.getTaskId());
+			offer(new Deadline(task, since, since + task.getTaskTimeout(), false));
+		}
+	}
+
+	private void offer(Deadline deadline) {
+		deadlines.add(deadline);
+		watching.put(deadline.task.getTaskId(), deadline);
+	}
+
+	/**
+	 * Remove a task from WatchDog
+	 * @param taskId
+	 */
+	private void unwatch(long taskId) {
+		synchronized (deadlines) {
+			Deadline deadline = watching.remove(taskId);
+			if (deadline != null)
+				deadlines.remove(deadline);
 		}
 	}
 
@@ -318,12 +566,26 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 	}
 
 	/**
-	 * You should better keep away from this, kill all tasks is really dangerous
+	 * Abandon all running tasks, their threads are interrupted but not killed
 	 */
-	@SuppressWarnings("deprecation")
+	public void abandonAll() {
+		List<Task> running = new ArrayList<Task>();
+		synchronized (lock) {
+			for (Task task : getThreadPool())
+				if (task != null)
+					running.add(task);
+		}
+		for (Task task : running)
+			if (task.abandon())
+				abandonedCount.incrementAndGet();
+	}
+
+	/**
+	 * @deprecated tasks are never killed, this is the same as {@link #abandonAll()}
+	 */
+	@Deprecated
 	public void killAll() {
-		for(Task task : getThreadPool())
-			task.forceStop();
+		abandonAll();
 	}
 
 	/**
@@ -342,15 +604,43 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		return taskPool.size() == getMaxQueue().intValue();
 	}
 
+	/**
+	 * @deprecated wait on {@link TaskGroup} from {@link #addTasks(Collection)} instead of polling
+	 */
+	@Deprecated
 	public Integer getTaskCount() {
 		return taskPool.size();
 	}
 	
+	/**
+	 * @deprecated wait on {@link TaskGroup} from {@link #addTasks(Collection)} instead of polling
+	 */
+	@Deprecated
 	public Integer getThreadCount() {
 		return getThreadPool().size();
 	}
 
+	/**
+	 * @return
+	 * how many tasks were abandoned by WatchDog since this started
+	 */
+	public Long getAbandonedCount() {
+		return abandonedCount.get();
+	}
+
+	@Override
+	public void configChanged(Config config, Set<String> changedKeys) {
+		// start queued tasks now if maxThread was raised
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
 	// special getters & setters below
+	/**
+	 * @deprecated failed tasks are collected by {@link TaskGroup#getFailedTasks()}
+	 */
+	@Deprecated
 	public List<Task> getForewarnList() {
 		List<Task> tmp = forewarnList;
 		forewarnList = new ArrayList<Task>();
@@ -400,4 +690,42 @@ public final class LYTaskQueue extends LoneWolf implements LifeCycle, Recyclable
 		this.permanent = permanent;
 	}
 
+	public Journal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Journal every enqueued task and its end, tasks not ended before a crash
+	 * are enqueued again at initialize(), so a task may run more than once.
+	 * Tasks must be serializable. If set, permanent won't be used on close.
+	 * @param journal managed by this queue
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * A running task and the moment WatchDog should look at it
+	 */
+	private static final class Deadline implements Comparable<Deadline> {
+		final Task task;
+		final long since;
+		final long due;
+		final boolean stopCalled;
+
+		Deadline(Task task, long since, long due, boolean stopCalled) {
+			this.task = task;
+			this.since = since;
+			this.due = due;
+			this.stopCalled = stopCalled;
+		}
+
+		@Override
+		public int compareTo(Deadline other) {
+			if (due != other.due)
+				return Long.compare(due, other.due);
+			return Long.compare(task.getTaskId(), other.task.getTaskId());
+		}
+	}
+
 }
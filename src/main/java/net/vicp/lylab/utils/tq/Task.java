@@ -1,5 +1,7 @@
 package net.vicp.lylab.utils.tq;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Date;
 
@@ -35,18 +37,40 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 	/**
 	 * Control its running thread
 	 */
-	protected Thread thread = null;
+	protected transient Thread thread = null;
 	/**
 	 * Report itself to LYTaskQueue
 	 */
-	private LYTaskQueue controller = null;
+	private transient LYTaskQueue controller = null;
 
 	/**
 	 * Indicate when this task start run()
 	 */
 	protected Date startTime = null;
 
-	private final AtomicInteger state = new AtomicInteger(BEGAN);
+	private transient AtomicInteger state = new AtomicInteger(BEGAN);
+
+	/**
+	 * Set if WatchDog gave up this task, its thread may still be alive
+	 */
+	private volatile boolean abandoned = false;
+	/**
+	 * Set once run() reported itself, guarded by lock
+	 */
+	private boolean ended = false;
+
+	/**
+	 * Batch this task belongs to, see {@link LYTaskQueue#addTasks(java.util.Collection)}
+	 */
+	transient TaskGroup group = null;
+	/**
+	 * Set if WatchDog will retry this task, its group will wait for the retry
+	 */
+	transient volatile boolean retrying = false;
+	/**
+	 * Id in journal of its controller, see {@link LYTaskQueue#setJournal(net.vicp.lylab.utils.permanent.Journal)}
+	 */
+	transient long journalId = 0L;
 
 	static public final int STOPPED = -3;
 	static public final int CANCELLED = -2;
@@ -61,6 +85,11 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 		if(lonewolf)
 			throw new LYException("Clone is not supported for a lone wolf");
 		Task tk = (Task) super.clone();
+		// a clone must not share state/thread with its prototype
+		tk.state = new AtomicInteger(BEGAN);
+		tk.thread = null;
+		tk.retrying = false;
+		tk.journalId = 0L;
 		tk.reset();
 		return tk;
 	}
@@ -79,8 +108,14 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 			log.error(this.toString() + "\ngot an error:\t" + Utils.getStringFromThrowable(t));
 			state.compareAndSet(STARTED, FAILED);
 		} finally {
-			state.compareAndSet(STARTED, COMPLETED);
-			if(controller != null)
+			boolean report;
+			synchronized (lock) {
+				state.compareAndSet(STARTED, COMPLETED);
+				// an abandoned task was already reported by abandon()
+				report = !abandoned;
+				ended = true;
+			}
+			if(controller != null && report)
 				controller.taskEnded(this);
 			setThread(null);
 		}
@@ -169,21 +204,39 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 		}
 	}
 
+	/**
+	 * Give up a task which didn't respond to callStop() in time.<br>
+	 * Its thread is interrupted but never killed, the task is marked STOPPED and
+	 * reported to its controller as ended, so the slot it held is released.
+	 * Any code inside exec() should check {@link #isStopped()} or
+	 * {@link Thread#isInterrupted()} to end itself.
+	 * 
+	 * @return
+	 * <tt>true</tt> if this call abandoned the task
+	 */
+	public final boolean abandon() {
+		synchronized (lock) {
+			if (abandoned || ended)
+				return false;
+			state.set(STOPPED);
+			abandoned = true;
+		}
+		Utils.printStack("Abandon follow task:" + CoreDef.LINE_SEPARATOR + this, "debug");
+		Thread t = getThread();
+		if (t != null)
+			t.interrupt();
+		if (controller != null)
+			controller.taskEnded(this);
+		return true;
+	}
+
 	/**
 	 * If you found a task was lost itself in death loop or dead lock
+	 * @deprecated Thread.stop() is gone, this is the same as {@link #abandon()}
 	 */
 	@Deprecated
 	public final void forceStop() {
-		if(state.compareNotAndSet(COMPLETED, STOPPED)) {
-			Utils.printStack("ForceStop follow task:" + CoreDef.LINE_SEPARATOR + this, "debug");
-			if (getThread() != null) {
-				getThread().interrupt();
-				getThread().stop(new LYException("Task " + getTaskId() + " timeout and killed"));
-				setThread(null);
-			}
-			if(controller != null)
-				controller.taskEnded(this);
-		}
+		abandon();
 	}
 
 	/**
@@ -202,6 +255,14 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 		return getState() == STOPPED || getState() == CANCELLED || getState() == FAILED;
 	}
 
+	/**
+	 * @return
+	 * <tt>true</tt> if the task was abandoned by WatchDog
+	 */
+	public boolean isAbandoned() {
+		return abandoned;
+	}
+
 	/**
 	 * @return
 	 * <tt>true</tt> if the task is finished
@@ -250,6 +311,8 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 			throw new LYException("Reset an alive task");
 		startTime = null;
 		thread = null;
+		abandoned = false;
+		ended = false;
 		state.set(0);
 		setObjectId(0);
 		return true;
@@ -291,6 +354,10 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 		return this;
 	}
 
+	public TaskGroup getGroup() {
+		return group;
+	}
+
 	public Task setController(LYTaskQueue controller) {
 		this.controller = controller;
 		return this;
@@ -334,4 +401,12 @@ public abstract class Task extends CloneableBaseObject implements Runnable, Exec
 				+ taskTimeout;
 	}
 
+	/**
+	 * Runtime state isn't serialized, a deserialized task is a new one
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		state = new AtomicInteger(BEGAN);
+	}
+
 }
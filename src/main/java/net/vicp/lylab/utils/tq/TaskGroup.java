@@ -0,0 +1,192 @@
+package net.vicp.lylab.utils.tq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.vicp.lylab.core.BaseObject;
+
+/**
+ * A handle of tasks submitted by {@link LYTaskQueue#addTasks(java.util.Collection)}.<br>
+ * It is done when every accepted task of the batch ended, no matter completed,
+ * failed, cancelled or abandoned. Failed ones are collected for caller.
+ * <br><br>
+ * Tasks left in queue when LYTaskQueue is closed won't be reported.
+ * <br><br>
+ * Release Under GNU Lesser General Public License (LGPL).
+ *
+ * @author Young
+ * @since 2016.07.08
+ * @version 1.0.0
+ */
+public final class TaskGroup extends BaseObject {
+
+	private final List<Long> taskIds = new ArrayList<Long>();
+	private final List<Task> rejected = new ArrayList<Task>();
+	private final List<Task> failed = new ArrayList<Task>();
+	private final Set<Long> endedIds = new HashSet<Long>();
+	private int total = 0;
+	private int ended = 0;
+	private boolean sealed = false;
+
+	/**
+	 * Record a task accepted by queue
+	 * @param taskId
+	 */
+	void accepted(long taskId) {
+		synchronized (lock) {
+			taskIds.add(taskId);
+			total++;
+		}
+	}
+
+	/**
+	 * Record a task which couldn't be enqueued, it won't be waited
+	 * @param task
+	 */
+	void rejected(Task task) {
+		synchronized (lock) {
+			rejected.add(task);
+		}
+	}
+
+	/**
+	 * No more task will join this group
+	 */
+	void seal() {
+		synchronized (lock) {
+			sealed = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Record a retry of an abandoned task, it takes the place of the abandoned one
+	 * @param taskId
+	 */
+	void retried(long taskId) {
+		synchronized (lock) {
+			taskIds.add(taskId);
+		}
+	}
+
+	/**
+	 * Report a task of this group ended, reported twice is harmless
+	 * @param task
+	 */
+	void taskEnded(Task task) {
+		synchronized (lock) {
+			if (!endedIds.add(task.getTaskId()))
+				return;
+			ended++;
+			if (task.getState() != Task.COMPLETED)
+				failed.add(task);
+			if (isDone())
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if all accepted tasks ended
+	 */
+	public boolean isDone() {
+		synchronized (lock) {
+			return sealed && ended >= total;
+		}
+	}
+
+	/**
+	 * Wait until all accepted tasks ended
+	 * @throws InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		synchronized (lock) {
+			while (!isDone())
+				lock.wait();
+		}
+	}
+
+	/**
+	 * Wait until all accepted tasks ended or timeout
+	 * @param millis
+	 * @return
+	 * <tt>true</tt> if all accepted tasks ended
+	 * @throws InterruptedException
+	 */
+	public boolean join(long millis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + millis;
+		synchronized (lock) {
+			while (!isDone()) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0L)
+					return false;
+				lock.wait(left);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return
+	 * <tt>true</tt> if all tasks were accepted, and all of them completed
+	 */
+	public boolean isSucceeded() {
+		synchronized (lock) {
+			return isDone() && failed.isEmpty() && rejected.isEmpty();
+		}
+	}
+
+	/**
+	 * @return
+	 * ids of accepted tasks, in submission order
+	 */
+	public List<Long> getTaskIds() {
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<Long>(taskIds));
+		}
+	}
+
+	/**
+	 * @return
+	 * tasks not completed, which were failed, cancelled or abandoned
+	 */
+	public List<Task> getFailedTasks() {
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<Task>(failed));
+		}
+	}
+
+	/**
+	 * @return
+	 * tasks refused by queue, they were never executed
+	 */
+	public List<Task> getRejectedTasks() {
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<Task>(rejected));
+		}
+	}
+
+	public int getTotal() {
+		synchronized (lock) {
+			return total;
+		}
+	}
+
+	public int getEndedCount() {
+		synchronized (lock) {
+			return ended;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return "TaskGroup [total=" + total + ", ended=" + ended + ", failed=" + failed.size() + ", rejected="
+					+ rejected.size() + "]";
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package net.vicp.lylab.core.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.vicp.lylab.core.BaseObject;
+
+import org.junit.Test;
+
+public class ConcurrentPoolTest {
+
+	@Test
+	public void addKeepsIdAndRespectsMaxSize() {
+		ConcurrentPool<BaseObject> pool = new ConcurrentPool<BaseObject>(2);
+		BaseObject kept = new BaseObject().setObjectId(42L);
+		assertEquals(Long.valueOf(42L), pool.add(kept));
+		assertNotNull(pool.add(new BaseObject()));
+		assertNull(pool.add(new BaseObject()));
+		assertTrue(pool.isFull());
+		assertSame(kept, pool.view(42L));
+	}
+
+	@Test
+	public void accessOnePrefersWhatThisThreadReturned() {
+		ConcurrentPool<BaseObject> pool = new ConcurrentPool<BaseObject>();
+		for (int i = 0; i < 10; i++)
+			pool.add(new BaseObject());
+		BaseObject taken = pool.accessOne();
+		pool.add(taken);
+		assertSame(taken, pool.accessOne());
+		assertEquals(9, pool.size());
+	}
+
+	@Test
+	public void removeByIdLeavesNoStaleCheckout() {
+		ConcurrentPool<BaseObject> pool = new ConcurrentPool<BaseObject>();
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 100; i++)
+			ids.add(pool.add(new BaseObject()));
+		for (int i = 0; i < 100; i += 2)
+			assertNotNull(pool.remove(ids.get(i)));
+		assertNull(pool.remove(ids.get(0)));
+		assertEquals(50, pool.size());
+		Set<Long> seen = new HashSet<Long>();
+		BaseObject tmp;
+		while ((tmp = pool.accessOne()) != null)
+			assertTrue(seen.add(tmp.getObjectId()) && tmp.getObjectId() % 2 == 0);
+		assertEquals(50, seen.size());
+	}
+
+	@Test
+	public void removedIdsDoNotPileUp() {
+		ConcurrentPool<BaseObject> pool = new ConcurrentPool<BaseObject>(Integer.MAX_VALUE);
+		for (int i = 0; i < 100000; i++)
+			pool.remove(pool.add(new BaseObject()));
+		assertEquals(0, pool.size());
+		// one live id at most while looping, stale ones swept past that
+		assertTrue(pool.shared.size() <= 2 * ConcurrentPool.LOCAL_CACHE_SIZE);
+	}
+
+	@Test
+	public void everyObjectIsHeldByOneThreadAtMost() throws Exception {
+		final int threads = 8, objects = 4, rounds = 20000;
+		final ConcurrentPool<BaseObject> pool = new ConcurrentPool<BaseObject>(objects);
+		for (int i = 0; i < objects; i++)
+			pool.add(new BaseObject());
+		final Set<Long> held = Collections.synchronizedSet(new HashSet<Long>());
+		final AtomicInteger conflicts = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++)
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < rounds; i++) {
+						BaseObject tmp = pool.accessOne();
+						if (tmp == null)
+							continue;
+						if (!held.add(tmp.getObjectId()))
+							conflicts.incrementAndGet();
+						held.remove(tmp.getObjectId());
+						pool.add(tmp);
+					}
+					done.countDown();
+				}
+			}.start();
+		done.await();
+		assertEquals(0, conflicts.get());
+		assertEquals(objects, pool.size());
+	}
+
+}
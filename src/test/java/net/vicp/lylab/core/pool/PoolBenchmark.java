@@ -0,0 +1,74 @@
+package net.vicp.lylab.core.pool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.vicp.lylab.core.BaseObject;
+
+/**
+ * Checkout/return throughput of {@link ConcurrentPool} against
+ * {@link SequenceTemporaryPool}, from 1 to 64 threads.<br>
+ * Not a unit test, run it after <tt>mvn test-compile</tt>:
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) net.vicp.lylab.core.pool.PoolBenchmark [seconds]
+ * </pre>
+ * Each run warms up for the same time it measures, figures are ops/s.
+ */
+public class PoolBenchmark {
+
+	static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+	static final int OBJECTS = 64;
+
+	public static void main(String[] args) throws Exception {
+		long millis = (args.length > 0 ? Long.parseLong(args[0]) : 2L) * 1000L;
+		System.out.println("threads\tConcurrentPool\tSequenceTemporaryPool");
+		for (int threads : THREADS) {
+			long concurrent = run(new ConcurrentPool<BaseObject>(OBJECTS), threads, millis);
+			long sequence = run(new SequenceTemporaryPool<BaseObject>(OBJECTS), threads, millis);
+			System.out.println(threads + "\t" + concurrent + "\t" + sequence);
+		}
+	}
+
+	static long run(final Pool<BaseObject> pool, int threads, long millis) throws Exception {
+		for (int i = 0; i < OBJECTS; i++)
+			pool.add(new BaseObject());
+		measure(pool, threads, millis);
+		return measure(pool, threads, millis) * 1000L / millis;
+	}
+
+	static long measure(final Pool<BaseObject> pool, int threads, long millis) throws Exception {
+		final AtomicLong ops = new AtomicLong(0L);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] deadline = new long[1];
+		for (int t = 0; t < threads; t++)
+			new Thread() {
+				@Override
+				public void run() {
+					long count = 0L;
+					try {
+						start.await();
+						while (System.currentTimeMillis() < deadline[0])
+							for (int i = 0; i < 1000; i++) {
+								BaseObject tmp = pool.accessOne();
+								if (tmp != null) {
+									pool.add(tmp);
+									count++;
+								}
+							}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						ops.addAndGet(count);
+						done.countDown();
+					}
+				}
+			}.start();
+		deadline[0] = System.currentTimeMillis() + millis;
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+
+}
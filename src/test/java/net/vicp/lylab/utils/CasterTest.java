@@ -0,0 +1,76 @@
+package net.vicp.lylab.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CasterTest {
+
+	public static class Person {
+		private String name;
+		private Integer age;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAge() {
+			return age;
+		}
+
+		public void setAge(Integer age) {
+			this.age = age;
+		}
+	}
+
+	@Test
+	public void mapCastObjectByFieldName() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("name", "Young");
+		map.put("age", 30);
+		Person person = Caster.mapCastObject(Person.class, map);
+		assertEquals("Young", person.getName());
+		assertEquals(Integer.valueOf(30), person.getAge());
+	}
+
+	@Test
+	public void mapCastObjectByCapitalizedKey() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("Name", "Young");
+		map.put("Age", 30);
+		Person person = Caster.mapCastObject(Person.class, map);
+		assertEquals("Young", person.getName());
+		assertEquals(Integer.valueOf(30), person.getAge());
+	}
+
+	@Test
+	public void mapCastObjectIgnoresUnknownKey() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("Nickname", "Y");
+		map.put("", "empty");
+		Person person = Caster.mapCastObject(Person.class, map);
+		assertNull(person.getName());
+		assertNull(person.getAge());
+	}
+
+	@Test
+	public void objectCastMapKeepsBasicValuesAndSkipsNull() {
+		Person person = new Person();
+		person.setAge(30);
+		Map<String, Object> map = Caster.objectCastMap(person);
+		assertEquals(Integer.valueOf(30), map.get("age"));
+		assertFalse(map.containsKey("name"));
+		assertTrue(Caster.objectCastMap(person, 0).isEmpty());
+	}
+
+}
@@ -0,0 +1,158 @@
+package net.vicp.lylab.utils.permanent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.vicp.lylab.core.exceptions.LYException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Journal open(File dir) {
+		Journal journal = new Journal(dir.getPath());
+		journal.initialize();
+		return journal;
+	}
+
+	private static byte[] payload(int i) {
+		return String.format("item-%05d", i).getBytes();
+	}
+
+	private static List<File> segments(File dir) {
+		List<File> files = new ArrayList<File>();
+		for (File file : dir.listFiles())
+			if (file.getName().startsWith("journal."))
+				files.add(file);
+		return files;
+	}
+
+	@Test
+	public void replayReturnsPendingItemsInOrder() throws Exception {
+		File dir = folder.newFolder();
+		Journal journal = open(dir);
+		long first = journal.append(payload(1));
+		journal.append(payload(2));
+		journal.append(payload(3));
+		journal.complete(first);
+		journal.close();
+
+		Journal reopened = open(dir);
+		List<byte[]> recovered = reopened.getRecovered();
+		assertEquals(2, recovered.size());
+		assertArrayEquals(payload(2), recovered.get(0));
+		assertArrayEquals(payload(3), recovered.get(1));
+		reopened.close();
+	}
+
+	@Test
+	public void tornTailKeepsRecordsBeforeIt() throws Exception {
+		File dir = folder.newFolder();
+		Journal journal = open(dir);
+		journal.append(payload(1));
+		journal.append(payload(2));
+		journal.close();
+
+		File segment = segments(dir).get(0);
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+
+		Journal reopened = open(dir);
+		List<byte[]> recovered = reopened.getRecovered();
+		assertEquals(1, recovered.size());
+		assertArrayEquals(payload(1), recovered.get(0));
+		reopened.close();
+	}
+
+	@Test
+	public void completedSegmentsAreCompacted() throws Exception {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir.getPath());
+		// 8 records of 10 bytes payload per segment
+		journal.setSegmentSize(8 * 31);
+		journal.initialize();
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 40; i++)
+			ids.add(journal.append(payload(i)));
+		assertTrue(segments(dir).size() >= 5);
+		for (int i = 0; i < 40; i++)
+			if (i != 5)
+				journal.complete(ids.get(i));
+		journal.flush();
+		assertEquals(1, journal.getPendingCount());
+		assertTrue(segments(dir).size() <= 2);
+		journal.close();
+
+		Journal reopened = open(dir);
+		List<byte[]> recovered = reopened.getRecovered();
+		assertEquals(1, recovered.size());
+		assertArrayEquals(payload(5), recovered.get(0));
+		reopened.close();
+	}
+
+	@Test
+	public void failedBatchIsNeverReportedSynced() throws Exception {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir.getPath());
+		journal.setSegmentSize(64);
+		journal.initialize();
+		long first = journal.append(new byte[100]);
+		// next segment can't be opened, so the next batch fails
+		assertTrue(new File(dir, String.format("journal.%019d.log", 2)).mkdir());
+		try {
+			journal.append(new byte[100]);
+			fail("append returned for a batch that never reached disk");
+		} catch (LYException e) {
+			// expected
+		}
+		try {
+			journal.flush();
+			fail("flush after writer failed");
+		} catch (LYException e) {
+			// expected
+		}
+		try {
+			journal.append(new byte[1]);
+			fail("append after writer failed");
+		} catch (LYException e) {
+			// expected
+		}
+		// dropped silently, so the item is replayed
+		journal.complete(first);
+		journal.close();
+	}
+
+	@Test
+	public void unsyncedAppendFailsOnFlush() throws Exception {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir.getPath());
+		journal.setSegmentSize(64);
+		journal.setSyncOnAppend(false);
+		journal.initialize();
+		journal.append(new byte[100]);
+		journal.flush();
+		assertTrue(new File(dir, String.format("journal.%019d.log", 2)).mkdir());
+		journal.append(new byte[100]);
+		try {
+			journal.flush();
+			fail("flush returned for a batch that never reached disk");
+		} catch (LYException e) {
+			// expected
+		}
+		journal.close();
+	}
+
+}